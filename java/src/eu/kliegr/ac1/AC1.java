@@ -21,6 +21,8 @@ package eu.kliegr.ac1;
 import eu.kliegr.ac1.Rinterface.arules.RuleLearning;
 import eu.kliegr.ac1.Rinterface.discretization.AttributeDiscretization;
 import eu.kliegr.ac1.Rinterface.discretization.DiscretizeWithR;
+import eu.kliegr.ac1.benchmark.Benchmark;
+import eu.kliegr.ac1.serve.PredictionService;
 import eu.kliegr.ac1.data.parsers.CSVparser;
 import eu.kliegr.ac1.performance.StopWatches;
 import eu.kliegr.ac1.pipeline.Experimentator;
@@ -129,6 +131,7 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 performance.stopStopWatch("Load rules");
                 performance.startStopWatch("Sort rules");
                 pruneRulesObj.sortRules();
+                pruneRulesObj.setParallelism(conf.getPruningThreads());
                 performance.stopStopWatch("Sort rules");
                 performance.startStopWatch("Count rules");
                 int origRuleCount = pruneRulesObj.getRules().size();
@@ -137,7 +140,7 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 pruneRulesObj.pruneRules();
                 performance.stopStopWatch("Prune rules");
                 performance.startStopWatch("Save rules");
-                GUHASimplifiedParser.saveRules(pruneRulesObj.getRules(), conf.getOutputPath());
+                GenericRuleParser.saveRules(pruneRulesObj.getRules(), conf.getOutputPath());
                 performance.stopStopWatch("Save rules");
                 performance.stopStopWatch("Total");
                 pruneRulesObj.saveSummary(origRuleCount, conf.getOutputSummaryPath(), performance);
@@ -155,6 +158,7 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 performance.stopStopWatch("Load rules");
                 performance.startStopWatch("Sort rules");
                 extendRulesObj.sortRules();
+                extendRulesObj.setParallelism(conf.getExtensionThreads());
                 performance.stopStopWatch("Sort rules");
                 performance.startStopWatch("Extend rules");
                 extendRulesObj.processRules(conf.isAttributePruningEnabled(),conf.isTrimmingEnabled(), conf.isContinuousPruningEnabled(),conf.isFuzzificationEnabled(),conf.getPostPruningType(), conf.getDefaultRuleOverlapPruningType());
@@ -162,7 +166,12 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 if (conf.isAnnotationEnabled())
                 {
                     performance.startStopWatch("Annotate rules");
-                    extendRulesObj.annotateRules();
+                    if (conf.getAnnotationThreads() > 0) {
+                        extendRulesObj.setAnnotationThreads(conf.getAnnotationThreads());
+                        extendRulesObj.annotateRules(false);
+                    } else {
+                        extendRulesObj.annotateRules();
+                    }
                     performance.stopStopWatch("Annotate rules");
                 }
                 performance.startStopWatch("Save rules");
@@ -174,7 +183,7 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 {
                     GUHASimplifiedParser.serializeRules(extendRulesObj.getSeedRules(), conf.getOutputSeedRulesPath());
                     GUHASimplifiedParser.serializeRules(extendRulesObj.getExtendedRules(), conf.getOutputExtendedRulesPath()    );
-                    GUHASimplifiedParser.saveRules(extendRulesObj.getExtendedRules(), conf.getOutputPath());                                    
+                    GenericRuleParser.saveRules(extendRulesObj.getExtendedRules(), conf.getOutputPath());                                    
                 }
                 performance.stopStopWatch("Save rules");
                 performance.stopStopWatch("Total");                                
@@ -265,6 +274,26 @@ private final static Logger LOGGER = Logger.getLogger(AC1.class.getName());
                 performance.stopStopWatch("Total");
                     break;
                 }
+            case benchmark:{
+                performance.startStopWatch("Config load");
+                BenchmarkConfig conf = new BenchmarkConfig(path);
+                performance.stopStopWatch("Config load");
+                performance.startStopWatch("Run benchmark");
+                Benchmark.runBenchmark(conf);
+                performance.stopStopWatch("Run benchmark");
+                performance.stopStopWatch("Total");
+                    break;
+                }
+            case serve:{
+                performance.startStopWatch("Config load");
+                ServeConfig conf = new ServeConfig(path);
+                performance.stopStopWatch("Config load");
+                performance.startStopWatch("Run service");
+                PredictionService.runService(conf);
+                performance.stopStopWatch("Run service");
+                performance.stopStopWatch("Total");
+                    break;
+                }
             case pipeline:{
                 performance.startStopWatch("Config load");
                 PipelineConfig conf = new PipelineConfig(path);
@@ -0,0 +1,209 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Configuration of the benchmark usage, all properties are optional.
+ *
+ * @author tomas
+ */
+public class BenchmarkConfig {
+
+    private final static Logger LOGGER = Logger.getLogger(BenchmarkConfig.class.getName());
+    private final ArrayList<Integer> rows = new ArrayList();
+    private final int numericAttributes;
+    private final int nominalAttributes;
+    private final int cardinality;
+    private final int classes;
+    private final int seedRules;
+    private final long seed;
+    private final int warmupIterations;
+    private final int iterations;
+    private final int threads;
+    private final List<String> stages;
+    private final String csvSeparator;
+    private final String tempDir;
+    private final String outputPath;
+    private final Level logLevel;
+
+    /**
+     *
+     * @param path
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public BenchmarkConfig(String path) throws FileNotFoundException, IOException {
+        InputStream input = new BufferedInputStream(
+                new FileInputStream(path));
+        Properties prop = new Properties();
+        prop.loadFromXML(input);
+        input.close();
+        for (String r : prop.getProperty("Rows", "10000,100000,1000000,10000000").split(",")) {
+            rows.add(Integer.parseInt(r.trim()));
+        }
+        numericAttributes = Integer.parseInt(prop.getProperty("NumericAttributes", "5"));
+        nominalAttributes = Integer.parseInt(prop.getProperty("NominalAttributes", "5"));
+        cardinality = Integer.parseInt(prop.getProperty("Cardinality", "50"));
+        classes = Integer.parseInt(prop.getProperty("Classes", "3"));
+        seedRules = Integer.parseInt(prop.getProperty("SeedRules", "100"));
+        seed = Long.parseLong(prop.getProperty("Seed", "1"));
+        warmupIterations = Integer.parseInt(prop.getProperty("WarmupIterations", "1"));
+        iterations = Integer.parseInt(prop.getProperty("Iterations", "3"));
+        threads = Integer.parseInt(prop.getProperty("Threads", "1"));
+        stages = Arrays.asList(prop.getProperty("Stages", "load,extend,annotate,postprune,classify").split(","));
+        csvSeparator = prop.getProperty("Separator", ",");
+        tempDir = prop.getProperty("TempDir", System.getProperty("java.io.tmpdir"));
+        outputPath = prop.getProperty("OutputPath");
+        logLevel = Level.parse(prop.getProperty("LogLevel", "WARNING"));
+        LOGGER.log(Level.INFO, "Benchmark stages {0} for rows {1}", new Object[]{stages, rows});
+    }
+
+    /**
+     *
+     * @return
+     */
+    public ArrayList<Integer> getRows() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getNumericAttributes() {
+        return numericAttributes;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getNominalAttributes() {
+        return nominalAttributes;
+    }
+
+    /**
+     *
+     * @return number of distinct values of each predictor
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getClasses() {
+        return classes;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getSeedRules() {
+        return seedRules;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     *
+     * @param stage
+     * @return
+     */
+    public boolean isStageEnabled(String stage) {
+        return stages.contains(stage);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getCSVSeparator() {
+        return csvSeparator;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     *
+     * @return path of csv file with results, null if results are only logged
+     */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+}
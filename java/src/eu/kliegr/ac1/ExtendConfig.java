@@ -49,6 +49,10 @@ public class ExtendConfig extends BaseConfig {
     private Comparator ruleComparator ;
     private ExtendType extendType;
     private ExtendRuleConfig extConf;
+    //number of threads for processing seed rules, 1 means sequential processing
+    private int extensionThreads = 1;
+    //number of threads computing all annotations at once, 0 means annotations are computed on demand
+    private int annotationThreads = 0;
 
     /**
      *
@@ -135,6 +139,15 @@ public class ExtendConfig extends BaseConfig {
             csvSeparator =  ",";
         }
         
+        String _threads =prop.getProperty("ExtensionThreads");
+        if (_threads != null) {
+            extensionThreads= Integer.valueOf(_threads);
+        }
+        String _annotationThreads =prop.getProperty("AnnotationThreads");
+        if (_annotationThreads != null) {
+            annotationThreads= Integer.valueOf(_annotationThreads);
+        }
+
         String _mci =prop.getProperty("MinCondImprovement");
         String _mi =prop.getProperty("MinImprovement");
         String _mc =prop.getProperty("MinConfidence");
@@ -272,5 +285,23 @@ public class ExtendConfig extends BaseConfig {
         return extendType;
     }
 
+    /**
+     *
+     * @return
+     */
+    public int getExtensionThreads()
+    {
+        return extensionThreads;
+    }
+
+    /**
+     *
+     * @return number of threads computing all annotations at once, 0 means annotations are computed on demand
+     */
+    public int getAnnotationThreads()
+    {
+        return annotationThreads;
+    }
+
     
 }
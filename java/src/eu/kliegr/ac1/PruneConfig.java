@@ -37,6 +37,8 @@ public class PruneConfig extends BaseConfig {
     private String pruneRuleSortComparator = "CBARuleComparator";
 
     private PruneType pruningType = PruneType.wholeRule;
+    //number of threads computing covers of rules, 1 means sequential processing
+    private int pruningThreads = 1;
 
     private final Comparator ruleComparator;
 
@@ -69,6 +71,10 @@ public class PruneConfig extends BaseConfig {
         attType = parseAttributeTypes(prop.getProperty("DataTypes").split(csvSeparator));
         targetAttribute = prop.getProperty("TargetAttribute");
         IDcolumnName = prop.getProperty("IDcolumnName");
+        String _threads = prop.getProperty("PruningThreads");
+        if (_threads != null) {
+            pruningThreads = Integer.valueOf(_threads);
+        }
     }
 
     /**
@@ -111,4 +117,12 @@ public class PruneConfig extends BaseConfig {
         return pruningType;
     }
 
+    /**
+     *
+     * @return
+     */
+    public int getPruningThreads() {
+        return pruningThreads;
+    }
+
 }
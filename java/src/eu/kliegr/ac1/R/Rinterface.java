@@ -24,13 +24,17 @@ import eu.kliegr.ac1.rule.AttributeNotFoundException;
 import eu.kliegr.ac1.rule.Data;
 import eu.kliegr.ac1.rule.Rule;
 import eu.kliegr.ac1.rule.parsers.ArulesParser;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -111,6 +115,158 @@ public abstract class Rinterface {
         LOGGER.info("addDataFrame finished");
     }
 
+    /**
+     * Adds data passed column by column without converting the values to strings in R.
+     * Numeric columns are passed as double[] (NaN is a missing value), factors as int[] codes
+     * starting from 1 with levels in the corresponding element of levels (NA code is a missing value),
+     * other columns as String[].
+     *
+     * @param dataFrame
+     * @param cNames
+     * @param levels for each column levels of the factor, empty or null for columns which are not factors
+     * @throws Exception
+     */
+    public void addDataFrameColumnar(Object dataFrame[], String[] cNames, Object levels[]) throws Exception {
+        if (data.getDataTable() != null) {
+            throw new Exception("DataTable already set");
+        }
+        LOGGER.info("addDataFrameColumnar");
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "attTypes:{0}", att_types.stream().map(i -> i.toString()).collect(Collectors.joining(", ")));
+            LOGGER.log(Level.FINE, "cnames:{0}", Arrays.toString(cNames));
+        }
+        DataTable dataTable = data.newDataTable(cNames, targetColName, att_types, IDcolumnName);
+        int columns = dataFrame.length;
+        LOGGER.log(Level.FINE, "columns:{0}", columns);
+        if (columns > 0) {
+            int rows = getColumnLength(dataFrame[0]);
+            LOGGER.log(Level.FINE, "rows:{0}", rows);
+            for (int j = 1; j < columns; j++) {
+                if (getColumnLength(dataFrame[j]) != rows) {
+                    throw new Exception("Column " + cNames[j] + " has " + getColumnLength(dataFrame[j]) + " rows, expected " + rows);
+                }
+            }
+            int[][] codes = new int[columns][];
+            //attributes have independent dictionaries
+            IntStream.range(0, columns).parallel().forEach((j) -> {
+                String[] columnLevels = (levels == null || levels[j] == null) ? null : (String[]) levels[j];
+                codes[j] = encodeColumn(dataTable, j, dataFrame[j], columnLevels, rows);
+            });
+            dataTable.addEncodedTransactions(codes, rows);
+        }
+        LOGGER.info("addDataFrameColumnar finished");
+    }
+
+    private static int getColumnLength(Object column) {
+        if (column instanceof double[]) {
+            return ((double[]) column).length;
+        } else if (column instanceof int[]) {
+            return ((int[]) column).length;
+        } else if (column instanceof String[]) {
+            return ((String[]) column).length;
+        }
+        throw new UnsupportedOperationException("Unsupported column type " + (column == null ? "null" : column.getClass().getSimpleName()));
+    }
+
+    /*
+    Values are added to the dictionary of the attribute in the order of their first occurrence,
+    the same as if the rows were added by addDataFrame.
+     */
+    private static int[] encodeColumn(DataTable dataTable, int position, Object column, String[] levels, int rows) {
+        int[] result = new int[rows];
+        if (column instanceof int[] && levels != null && levels.length > 0) {
+            int[] factorCodes = (int[]) column;
+            //the last slot is used for NA
+            int[] codes = new int[levels.length + 1];
+            Arrays.fill(codes, -1);
+            for (int i = 0; i < rows; i++) {
+                int level = factorCodes[i] >= 1 && factorCodes[i] <= levels.length ? factorCodes[i] - 1 : levels.length;
+                if (codes[level] == -1) {
+                    codes[level] = dataTable.getValueCode(position, level == levels.length ? "" : levels[level]);
+                }
+                result[i] = codes[level];
+            }
+        } else if (column instanceof String[]) {
+            String[] values = (String[]) column;
+            HashMap<String, Integer> codes = new HashMap();
+            for (int i = 0; i < rows; i++) {
+                String value = values[i] == null ? "" : values[i];
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = dataTable.getValueCode(position, value);
+                    codes.put(value, code);
+                }
+                result[i] = code;
+            }
+        } else {
+            double[] values;
+            if (column instanceof int[]) {
+                int[] intValues = (int[]) column;
+                values = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    //Integer.MIN_VALUE is NA in R
+                    values[i] = intValues[i] == Integer.MIN_VALUE ? Double.NaN : intValues[i];
+                }
+            } else {
+                values = (double[]) column;
+            }
+            //one sort per column, rows are mapped to distinct values by binary search
+            double[] distinct = values.clone();
+            Arrays.sort(distinct);
+            int distinctCount = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (distinctCount == 0 || Double.compare(distinct[distinctCount - 1], distinct[i]) != 0) {
+                    distinct[distinctCount++] = distinct[i];
+                }
+            }
+            int[] codes = new int[distinctCount];
+            Arrays.fill(codes, -1);
+            for (int i = 0; i < rows; i++) {
+                int index = Arrays.binarySearch(distinct, 0, distinctCount, values[i]);
+                if (codes[index] == -1) {
+                    codes[index] = dataTable.getValueCode(position, formatNumber(values[i]));
+                }
+                result[i] = codes[index];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Formats the number in the same way as as.character in R: 15 significant digits,
+     * scientific notation if it is shorter than the fixed notation.
+     *
+     * @param value
+     * @return empty string for NaN (missing value)
+     */
+    static String formatNumber(double value) {
+        if (Double.isNaN(value)) {
+            return "";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Inf" : "-Inf";
+        } else if (value == 0) {
+            return "0";
+        }
+        BigDecimal number = new BigDecimal(value).round(new MathContext(15)).stripTrailingZeros();
+        String fixed = number.toPlainString();
+        String digits = number.unscaledValue().abs().toString();
+        int exponent = digits.length() - number.scale() - 1;
+        StringBuilder scientific = new StringBuilder();
+        if (number.signum() < 0) {
+            scientific.append('-');
+        }
+        scientific.append(digits.charAt(0));
+        if (digits.length() > 1) {
+            scientific.append('.').append(digits, 1, digits.length());
+        }
+        scientific.append(exponent < 0 ? "e-" : "e+");
+        if (Math.abs(exponent) < 10) {
+            scientific.append('0');
+        }
+        scientific.append(Math.abs(exponent));
+        return fixed.length() <= scientific.length() ? fixed : scientific.toString();
+    }
+
     private void setLoggerLevelGlobaly(Level level) {
         //System.out.println("Setting log level to " + level);
         Logger rootLogger = LogManager.getLogManager().getLogger("");
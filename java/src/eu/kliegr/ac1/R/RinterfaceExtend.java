@@ -22,11 +22,13 @@ import eu.kliegr.ac1.rule.CBARuleComparator;
 import eu.kliegr.ac1.rule.extend.DefaultRuleOverlapPruningType;
 import eu.kliegr.ac1.rule.extend.ExtendRule;
 import eu.kliegr.ac1.rule.extend.ExtendRuleConfig;
+import eu.kliegr.ac1.rule.extend.AnnotationCache;
+import eu.kliegr.ac1.rule.extend.AnnotationScheduler;
 import eu.kliegr.ac1.rule.extend.ExtendRules;
 import eu.kliegr.ac1.rule.extend.ExtendType;
 import eu.kliegr.ac1.rule.extend.ExtensionStrategyEnum;
 import eu.kliegr.ac1.rule.extend.PostPruningType;
-import eu.kliegr.ac1.rule.parsers.GUHASimplifiedParser;
+import eu.kliegr.ac1.rule.parsers.GenericRuleParser;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -41,6 +43,15 @@ public class RinterfaceExtend extends Rinterface {
     boolean isFuzzificationEnabled = false;
     PostPruningType postpruningtype;
     boolean isAnnotationEnabled = true;
+    //number of threads used to process seed rules
+    int extensionThreads = 1;
+    //maximum number of item annotations held in memory
+    int annotationCacheCapacity = AnnotationCache.DEFAULT_CAPACITY;
+    //number of threads computing all annotations at once, 0 means annotations are computed on demand
+    int annotationThreads = 0;
+    //thread computing annotations started by startAnnotation, null if there is none to wait for
+    private volatile Thread annotationThread;
+    private volatile Exception annotationError;
 
     Comparator ruleComparator = new CBARuleComparator();
     
@@ -78,6 +89,11 @@ public class RinterfaceExtend extends Rinterface {
         conf  = new ExtendRuleConfig(minImprovement,minCondImprovement,minConf, ExtensionStrategyEnum.valueOf(extensionStrategy));
         extendRulesObj = new ExtendRules(rules, ruleComparator, ExtendType.valueOf(extendType), conf, data);
         extendRulesObj.sortRules();
+        extendRulesObj.setParallelism(extensionThreads);
+        extendRulesObj.setAnnotationCacheCapacity(annotationCacheCapacity);
+        if (annotationThreads > 0) {
+            extendRulesObj.setAnnotationThreads(annotationThreads);
+        }
         try{
             extendRulesObj.processRules(isAttPruningEnabled,isTrimmingEnabled,isContinuousPruningEnabled, isFuzzificationEnabled, postpruningtype, DefaultRuleOverlapPruningType.valueOf(defaultRuleOverlapPruningType) );
         }
@@ -89,11 +105,43 @@ public class RinterfaceExtend extends Rinterface {
             throw new Exception(e);
         }
         if (isAnnotationEnabled) {
-            extendRulesObj.annotateRules();
+            extendRulesObj.annotateRules(annotationThreads == 0);
         }
         LOGGER.info("Extend completed");
     }
 
+    /**
+     * Sets number of threads used to process seed rules in subsequent calls to extend,
+     * with continuous pruning the rules are extended speculatively and committed in order.
+     *
+     * @param threads
+     */
+    public void setExtensionThreads(int threads) {
+        this.extensionThreads = threads;
+    }
+
+    /**
+     * Sets maximum number of item annotations held in memory in subsequent
+     * calls to extend, annotations are computed when they are first read, e.g.
+     * by saveToFile.
+     *
+     * @param capacity
+     */
+    public void setAnnotationCacheCapacity(int capacity) {
+        this.annotationCacheCapacity = capacity;
+    }
+
+    /**
+     * Sets number of threads computing all annotations at once in subsequent
+     * calls to extend and annotate, the most expensive rules are annotated
+     * first. 0 means annotations are computed on demand.
+     *
+     * @param threads
+     */
+    public void setAnnotationThreads(int threads) {
+        this.annotationThreads = threads;
+    }
+
     /**
      *
      * @throws Exception
@@ -102,8 +150,100 @@ public class RinterfaceExtend extends Rinterface {
         if (extendRulesObj == null) {
             throw new Exception("Rules must be first extended");
         }
-        extendRulesObj.annotateRules();
+        awaitAnnotation();
+        if (annotationThreads > 0) {
+            extendRulesObj.setAnnotationThreads(annotationThreads);
+        }
+        extendRulesObj.annotateRules(annotationThreads == 0);
+
+    }
+
+    /**
+     * Starts computing all annotations at once on a background thread and
+     * returns, so that getAnnotationProgress and cancelAnnotation can be
+     * called while it runs. Uses the number of threads set by
+     * setAnnotationThreads, or the number of processors if it is 0.
+     * saveToFile waits for the annotation to finish.
+     *
+     * @throws Exception
+     */
+    public synchronized void startAnnotation() throws Exception {
+        if (extendRulesObj == null) {
+            throw new Exception("Rules must be first extended");
+        }
+        if (isAnnotationRunning()) {
+            throw new Exception("Annotation already running");
+        }
+        awaitAnnotation();
+        if (annotationThreads > 0) {
+            extendRulesObj.setAnnotationThreads(annotationThreads);
+        }
+        isAnnotationEnabled = true;
+        ExtendRules annotated = extendRulesObj;
+        annotationThread = new Thread(() -> {
+            try {
+                annotated.annotateRules(false);
+            } catch (Exception e) {
+                annotationError = e;
+            }
+        }, "qcba-annotation");
+        annotationThread.setDaemon(true);
+        annotationThread.start();
+    }
+
+    /**
+     *
+     * @return true if annotation started by startAnnotation has not finished yet
+     */
+    public boolean isAnnotationRunning() {
+        Thread thread = annotationThread;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Waits for annotation started by startAnnotation to finish, returns
+     * immediately if none was started.
+     *
+     * @throws Exception if the annotation failed
+     */
+    public synchronized void awaitAnnotation() throws Exception {
+        if (annotationThread == null) {
+            return;
+        }
+        annotationThread.join();
+        annotationThread = null;
+        Exception error = annotationError;
+        annotationError = null;
+        if (error != null) {
+            throw new Exception("Annotation failed", error);
+        }
+    }
+
+    /**
+     * Progress of annotation computed at once, can be read while it runs.
+     *
+     * @return annotated rules, total rules, annotated estimated cost and total estimated cost
+     * @throws Exception
+     */
+    public double[] getAnnotationProgress() throws Exception {
+        if (extendRulesObj == null) {
+            throw new Exception("Rules must be first extended");
+        }
+        AnnotationScheduler scheduler = extendRulesObj.getAnnotationScheduler();
+        return new double[]{scheduler.getAnnotatedRules(), scheduler.getTotalRules(), scheduler.getAnnotatedCost(), scheduler.getTotalCost()};
+    }
 
+    /**
+     * Cancels annotation computed at once, rules not yet annotated are
+     * annotated on demand.
+     *
+     * @throws Exception
+     */
+    public void cancelAnnotation() throws Exception {
+        if (extendRulesObj == null) {
+            throw new Exception("Rules must be first extended");
+        }
+        extendRulesObj.getAnnotationScheduler().cancel();
     }
 
     /**
@@ -115,7 +255,8 @@ public class RinterfaceExtend extends Rinterface {
         if (extendRulesObj == null) {
             throw new Exception("Rules must be first extended");
         }
-        GUHASimplifiedParser.saveRules(extendRulesObj.getExtendedRules(), path);
+        awaitAnnotation();
+        GenericRuleParser.saveRules(extendRulesObj.getExtendedRules(), path);
     }
 
     /**
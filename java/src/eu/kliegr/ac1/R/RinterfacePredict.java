@@ -19,10 +19,18 @@
 package eu.kliegr.ac1.R;
 
 import eu.kliegr.ac1.rule.CBARuleComparator;
+import eu.kliegr.ac1.rule.CompiledClassifier;
+import eu.kliegr.ac1.rule.PredictionEngine;
+import eu.kliegr.ac1.rule.RuleIndex;
+import eu.kliegr.ac1.rule.StreamingPredictor;
 import eu.kliegr.ac1.rule.TestRule;
 import eu.kliegr.ac1.rule.TestRules;
 import eu.kliegr.ac1.rule.TestingType;
 import eu.kliegr.ac1.rule.parsers.GenericRuleParser;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +41,8 @@ public class RinterfacePredict extends Rinterface {
     Comparator ruleComparator = new CBARuleComparator();
     TestRules testRulesObj;
     TestingType ttype;
+    PredictionEngine engine = PredictionEngine.ruleScan;
+    int engineThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      *
@@ -47,6 +57,17 @@ public class RinterfacePredict extends Rinterface {
 
     }
 
+    /**
+     * Selects how predict() and predictWithRulesFromFile() evaluate the rules.
+     *
+     * @param engine one of PredictionEngine values
+     * @param threads used by the compiled engines
+     */
+    public void setPredictionEngine(String engine, int threads) {
+        this.engine = PredictionEngine.valueOf(engine);
+        this.engineThreads = threads;
+    }
+
     /**
      *
      * @param path
@@ -61,6 +82,7 @@ public class RinterfacePredict extends Rinterface {
         }
 
         TestRules testRulesObj = new TestRules(GenericRuleParser.parseFileForRules(path, data), new CBARuleComparator(), data);
+        testRulesObj.setPredictionEngine(engine, engineThreads);
         testRulesObj.classifyData(ttype);
 
         String[] result = testRulesObj.getResult();
@@ -87,6 +109,7 @@ public class RinterfacePredict extends Rinterface {
         String[] result = null;
         try {
             testRulesObj = new TestRules(rules, ruleComparator, data);
+            testRulesObj.setPredictionEngine(engine, engineThreads);
             if (sort) testRulesObj.sortRules();
 
             //do some checks
@@ -119,6 +142,66 @@ public class RinterfacePredict extends Rinterface {
         LOGGER.log(Level.INFO, "Result dimensionality:{0}", result.length);
         return result;
     }
+
+    /**
+     * First-match prediction with the rules compiled to primitive arrays. The
+     * rules are fired in the order in which they were loaded, the data
+     * dictionaries are not modified.
+     *
+     * @param threads
+     * @return predicted class values, null for transactions not covered by any
+     * rule
+     * @throws Exception
+     */
+    public String[] predictCompiled(int threads) throws Exception {
+        if (data.getDataTable() == null) {
+            throw new Exception("Load data first");
+        }
+        if (rules == null) {
+            throw new Exception("Load rules first");
+        }
+        CompiledClassifier classifier = new CompiledClassifier(rules);
+        int[] classes = classifier.classify(data.getDataTable(), threads)[0];
+        String[] result = new String[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            result[i] = classifier.getClassLabel(classes[i]);
+        }
+        LOGGER.log(Level.INFO, "Result dimensionality:{0}", result.length);
+        return result;
+    }
+
+    /**
+     * Streams a csv file with header through the loaded rules and writes the
+     * predicted class and the ID of the firing rule for each row to the output
+     * file. The rows are not loaded to the data table, the data frame only has
+     * to define the attributes the rules are parsed against, it can be empty.
+     *
+     * @param inputPath
+     * @param outputPath
+     * @param separator regular expression separating values in the input file
+     * @param batchSize number of rows scored at once
+     * @return number of classified rows
+     * @throws Exception
+     */
+    public long predictFile(String inputPath, String outputPath, String separator, int batchSize) throws Exception {
+        if (rules == null) {
+            throw new Exception("Load rules first");
+        }
+        CompiledClassifier classifier = new RuleIndex(rules);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+            writer.write("prediction,firingRuleID\n");
+            return StreamingPredictor.predictCSV(classifier, inputPath, separator, batchSize, (row, classLabel, ruleIndex) -> {
+                if (ruleIndex >= 0) {
+                    writer.write(classLabel);
+                    writer.write(',');
+                    writer.write(Integer.toString(classifier.getRule(ruleIndex).getRID()));
+                } else {
+                    writer.write(',');
+                }
+                writer.write('\n');
+            });
+        }
+    }
     
     
      public String[] getFiringRuleString() throws Exception {
@@ -0,0 +1,134 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Configuration of the resident prediction service.
+ *
+ * @author tomas
+ */
+public class ServeConfig extends BaseConfig {
+
+    private final static Logger LOGGER = Logger.getLogger(ServeConfig.class.getName());
+    private final LinkedHashMap<String, String> models = new LinkedHashMap();
+    private final int port;
+    private final int batchSize;
+    private final long latencyBudgetMicros;
+    private final Comparator ruleComparator;
+    private final Level logLevel;
+
+    /**
+     *
+     * @param path
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public ServeConfig(String path) throws FileNotFoundException, IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        InputStream input = new BufferedInputStream(
+                new FileInputStream(path));
+        Properties prop = new Properties();
+        prop.loadFromXML(input);
+        input.close();
+        //the data define attributes and their values, a file with header only is sufficient
+        dataPath = prop.getProperty("DataPath");
+        if (prop.getProperty("DataTypes").contains(";")) {
+            csvSeparator = ";";
+        } else {
+            csvSeparator = ",";
+        }
+        attType = parseAttributeTypes(prop.getProperty("DataTypes").split(csvSeparator));
+        IDcolumnName = prop.getProperty("IDcolumnName");
+        targetAttribute = prop.getProperty("TargetAttribute");
+        //name=path pairs separated by semicolon
+        for (String model : prop.getProperty("Models", "").split(";")) {
+            int eq = model.indexOf('=');
+            if (eq > 0) {
+                models.put(model.substring(0, eq).trim(), model.substring(eq + 1).trim());
+            }
+        }
+        port = Integer.parseInt(prop.getProperty("Port", "0"));
+        batchSize = Integer.parseInt(prop.getProperty("BatchSize", "256"));
+        latencyBudgetMicros = Long.parseLong(prop.getProperty("LatencyBudgetMicros", "1000"));
+        ruleComparator = (Comparator) Class.forName("eu.kliegr.ac1.rule." + prop.getProperty("TestRuleSortComparator", "CBARuleComparator")).newInstance();
+        logLevel = Level.parse(prop.getProperty("LogLevel", "WARNING"));
+        LOGGER.log(Level.INFO, "Serving models {0}", models.keySet());
+    }
+
+    /**
+     *
+     * @return model names mapped to paths of the rule files
+     */
+    public LinkedHashMap<String, String> getModels() {
+        return models;
+    }
+
+    /**
+     *
+     * @return localhost port, 0 if requests are read from standard input
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     *
+     * @return maximum number of rows scored together
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     *
+     * @return how long the first request of a batch waits for other requests
+     */
+    public long getLatencyBudgetMicros() {
+        return latencyBudgetMicros;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Comparator getRuleComparator() {
+        return ruleComparator;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+}
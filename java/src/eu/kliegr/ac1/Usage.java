@@ -59,6 +59,14 @@ public enum Usage {
     /**
      *
      */
-    learnprunedrulesautoparam;
+    learnprunedrulesautoparam,
+    /**
+     *
+     */
+    benchmark,
+    /**
+     *
+     */
+    serve;
 
 }
@@ -0,0 +1,208 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.benchmark;
+
+import eu.kliegr.ac1.BenchmarkConfig;
+import eu.kliegr.ac1.data.parsers.CSVparser;
+import eu.kliegr.ac1.performance.StopWatch;
+import eu.kliegr.ac1.rule.CBARuleComparator;
+import eu.kliegr.ac1.rule.Data;
+import eu.kliegr.ac1.rule.Rule;
+import eu.kliegr.ac1.rule.TestRules;
+import eu.kliegr.ac1.rule.TestingType;
+import eu.kliegr.ac1.rule.extend.DefaultRuleOverlapPruningType;
+import eu.kliegr.ac1.rule.extend.ExtendRuleConfig;
+import eu.kliegr.ac1.rule.extend.ExtendRules;
+import eu.kliegr.ac1.rule.extend.ExtendType;
+import eu.kliegr.ac1.rule.extend.ExtensionStrategyEnum;
+import eu.kliegr.ac1.rule.extend.PostPruningType;
+import eu.kliegr.ac1.rule.parsers.GUHASimplifiedParser;
+import eu.kliegr.ac1.rule.parsers.GenericRuleParser;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+/**
+ * Measures the stages of the pipeline on synthetic data generated by SyntheticDataGenerator.
+ * Each iteration is prepared on fresh data and rules, only the stage itself is measured.
+ *
+ * @author tomas
+ */
+public class Benchmark {
+
+    private final static Logger LOGGER = Logger.getLogger(Benchmark.class.getName());
+    private final static ExtendType[] EXTEND_TYPES = {ExtendType.numericOnly, ExtendType.defaultExtend};
+
+    private final BenchmarkConfig conf;
+    private final ArrayList<String> results = new ArrayList();
+
+    /*
+    prepares the state for one iteration of a benchmark, the returned iteration is measured
+     */
+    private interface IterationFactory {
+
+        Iteration prepare() throws Exception;
+    }
+
+    private interface Iteration {
+
+        void run() throws Exception;
+    }
+
+    private Benchmark(BenchmarkConfig conf) {
+        this.conf = conf;
+    }
+
+    /**
+     *
+     * @param conf
+     * @throws Exception
+     */
+    public static void runBenchmark(BenchmarkConfig conf) throws Exception {
+        setLoggerLevelGlobaly(conf.getLogLevel());
+        Benchmark benchmark = new Benchmark(conf);
+        for (int rows : conf.getRows()) {
+            SyntheticDataGenerator generator = new SyntheticDataGenerator(rows, conf.getNumericAttributes(), conf.getNominalAttributes(), conf.getCardinality(), conf.getClasses(), conf.getSeedRules(), conf.getSeed());
+            benchmark.runStages(generator);
+        }
+        if (conf.getOutputPath() != null) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(conf.getOutputPath()), StandardCharsets.UTF_8))) {
+                out.println("benchmark,rows,iterations,min_ms,mean_ms,max_ms");
+                benchmark.results.forEach((line) -> out.println(line));
+            }
+        }
+    }
+
+    private void runStages(SyntheticDataGenerator generator) throws Exception {
+        int rows = generator.getRowCount();
+        if (conf.isStageEnabled("load")) {
+            File csv = File.createTempFile("qcba-benchmark", ".csv", new File(conf.getTempDir()));
+            csv.deleteOnExit();
+            try {
+                generator.writeCSV(csv.getPath(), conf.getCSVSeparator());
+                measure("load", rows, () -> () -> CSVparser.parseFromCSVwithHeader(csv.getPath(), generator.getTargetAttribute(), generator.getAttributeTypes(), null, conf.getCSVSeparator()));
+            } finally {
+                csv.delete();
+            }
+        }
+        if (conf.isStageEnabled("extend")) {
+            //fuzzification is not included, it requires annotation and is measured by the annotate stage
+            for (ExtendType type : EXTEND_TYPES) {
+                for (int options = 0; options < 8; options++) {
+                    boolean attributePruning = (options & 4) != 0;
+                    boolean trimming = (options & 2) != 0;
+                    boolean continuousPruning = (options & 1) != 0;
+                    String name = "extend " + type + " attributePruning=" + attributePruning + " trimming=" + trimming + " continuousPruning=" + continuousPruning;
+                    measure(name, rows, () -> {
+                        ExtendRules extendRules = newExtendRules(generator, type);
+                        return () -> extendRules.processRules(attributePruning, trimming, continuousPruning, false, PostPruningType.none, DefaultRuleOverlapPruningType.noPruning);
+                    });
+                }
+            }
+        }
+        if (conf.isStageEnabled("annotate")) {
+            measure("annotate", rows, () -> {
+                ExtendRules extendRules = newExtendRules(generator, ExtendType.numericOnly);
+                extendRules.processRules(true, true, false, false, PostPruningType.none, DefaultRuleOverlapPruningType.noPruning);
+                return () -> extendRules.annotateRules(false);
+            });
+        }
+        if (conf.isStageEnabled("postprune")) {
+            //seed rules are not extended, only the post-pruning is measured
+            for (PostPruningType postPruning : PostPruningType.values()) {
+                for (DefaultRuleOverlapPruningType overlapPruning : DefaultRuleOverlapPruningType.values()) {
+                    measure("postprune " + postPruning + " " + overlapPruning, rows, () -> {
+                        ExtendRules extendRules = newExtendRules(generator, ExtendType.noExtend);
+                        return () -> extendRules.processRules(false, false, false, false, postPruning, overlapPruning);
+                    });
+                }
+            }
+        }
+        if (conf.isStageEnabled("classify")) {
+            //mixture classification requires annotated rules, the model is saved and loaded as in RinterfacePredict
+            File model = File.createTempFile("qcba-benchmark", ".xml", new File(conf.getTempDir()));
+            model.deleteOnExit();
+            try {
+                ExtendRules extendRules = newExtendRules(generator, ExtendType.numericOnly);
+                extendRules.processRules(true, true, false, false, PostPruningType.cba, DefaultRuleOverlapPruningType.noPruning);
+                extendRules.annotateRules();
+                GUHASimplifiedParser.saveRules(extendRules.getExtendedRules(), model.getPath());
+                for (TestingType type : TestingType.values()) {
+                    measure("classify " + type, rows, () -> {
+                        Rule.resetERIDcounter();
+                        Data data = generator.newData();
+                        TestRules testRules = new TestRules(GenericRuleParser.parseFileForRules(model.getPath(), data), new CBARuleComparator(), data);
+                        return () -> testRules.classifyData(type);
+                    });
+                }
+            } finally {
+                model.delete();
+            }
+        }
+    }
+
+    private ExtendRules newExtendRules(SyntheticDataGenerator generator, ExtendType type) throws Exception {
+        Rule.resetERIDcounter();
+        Data data = generator.newData();
+        ExtendRuleConfig extendRuleConfig = new ExtendRuleConfig(0, -1, 0.5, ExtensionStrategyEnum.ConfImprovementAgainstLastConfirmedExtension);
+        ExtendRules extendRules = new ExtendRules(generator.newRules(data), new CBARuleComparator(), type, extendRuleConfig, data);
+        extendRules.sortRules();
+        extendRules.setParallelism(conf.getThreads());
+        extendRules.setAnnotationThreads(conf.getThreads());
+        return extendRules;
+    }
+
+    private void measure(String name, int rows, IterationFactory factory) throws Exception {
+        long min = Long.MAX_VALUE, max = 0, total = 0;
+        for (int i = 0; i < conf.getWarmupIterations() + conf.getIterations(); i++) {
+            Iteration iteration = factory.prepare();
+            //garbage from the previous iteration is not attributed to this one
+            System.gc();
+            StopWatch stopWatch = new StopWatch(name);
+            stopWatch.start();
+            iteration.run();
+            stopWatch.stop();
+            if (i >= conf.getWarmupIterations()) {
+                long elapsed = stopWatch.getElapsedTime();
+                min = Math.min(min, elapsed);
+                max = Math.max(max, elapsed);
+                total += elapsed;
+            }
+        }
+        int iterations = conf.getIterations();
+        String result = name + "," + rows + "," + iterations + "," + (iterations > 0 ? min : 0) + "," + (iterations > 0 ? total / iterations : 0) + "," + max;
+        results.add(result);
+        System.out.println(result);
+    }
+
+    private static void setLoggerLevelGlobaly(Level level) {
+        Logger rootLogger = LogManager.getLogManager().getLogger("");
+        rootLogger.setLevel(level);
+        for (Handler h : rootLogger.getHandlers()) {
+            h.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.benchmark;
+
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import eu.kliegr.ac1.rule.Data;
+import eu.kliegr.ac1.rule.Rule;
+import eu.kliegr.ac1.rule.RuleQuality;
+import eu.kliegr.ac1.rule.parsers.ArulesParser;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates a synthetic dataset and seed rules for benchmarks. Numeric attributes have integer
+ * values 0..cardinality-1, nominal attributes have values v0..v(cardinality-1). The class depends
+ * on the first numeric and the first nominal attribute with 15% noise. Seed rules are built from
+ * randomly chosen rows, so that each rule covers at least one transaction, and are followed by a default rule.
+ *
+ * @author tomas
+ */
+public class SyntheticDataGenerator {
+
+    private final static Logger LOGGER = Logger.getLogger(SyntheticDataGenerator.class.getName());
+    private final static String TARGET_ATTRIBUTE = "class";
+    private final static double NOISE = 0.15;
+    private final static int MAX_RULE_LENGTH = 3;
+
+    private final int rows;
+    private final int numericAttributes;
+    private final int nominalAttributes;
+    private final int cardinality;
+    private final int classes;
+    //values indexed by attribute position and row, the class is the last attribute
+    private final int[][] values;
+    private final ArrayList<String> ruleTexts;
+
+    /**
+     *
+     * @param rows
+     * @param numericAttributes
+     * @param nominalAttributes
+     * @param cardinality number of distinct values of each attribute
+     * @param classes
+     * @param seedRules
+     * @param seed
+     */
+    public SyntheticDataGenerator(int rows, int numericAttributes, int nominalAttributes, int cardinality, int classes, int seedRules, long seed) {
+        if (numericAttributes + nominalAttributes == 0) {
+            throw new UnsupportedOperationException("At least one predictor is required");
+        }
+        this.rows = rows;
+        this.numericAttributes = numericAttributes;
+        this.nominalAttributes = nominalAttributes;
+        this.cardinality = cardinality;
+        this.classes = classes;
+        Random random = new Random(seed);
+        int predictors = numericAttributes + nominalAttributes;
+        values = new int[predictors + 1][rows];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < predictors; j++) {
+                values[j][i] = random.nextInt(cardinality);
+            }
+            int cls;
+            if (random.nextDouble() < NOISE) {
+                cls = random.nextInt(classes);
+            } else {
+                int numeric = numericAttributes > 0 ? values[0][i] * classes / cardinality : 0;
+                int nominal = nominalAttributes > 0 ? values[numericAttributes][i] : 0;
+                cls = (numeric + nominal) % classes;
+            }
+            values[predictors][i] = cls;
+        }
+        ruleTexts = generateRuleTexts(seedRules, random);
+        LOGGER.log(Level.INFO, "Generated {0} rows and {1} seed rules", new Object[]{rows, ruleTexts.size()});
+    }
+
+    private ArrayList<String> generateRuleTexts(int seedRules, Random random) {
+        int predictors = numericAttributes + nominalAttributes;
+        LinkedHashSet<String> texts = new LinkedHashSet();
+        //duplicate rules are discarded, the number of attempts is limited for small datasets
+        for (int attempt = 0; texts.size() < seedRules && attempt < seedRules * 10; attempt++) {
+            int row = random.nextInt(rows);
+            int length = 1 + random.nextInt(Math.min(MAX_RULE_LENGTH, predictors));
+            ArrayList<Integer> attributes = new ArrayList();
+            while (attributes.size() < length) {
+                int attribute = random.nextInt(predictors);
+                if (!attributes.contains(attribute)) {
+                    attributes.add(attribute);
+                }
+            }
+            attributes.sort(null);
+            StringBuilder sb = new StringBuilder("{");
+            for (int attribute : attributes) {
+                if (sb.length() > 1) {
+                    sb.append(',');
+                }
+                sb.append(getColumnName(attribute)).append('=');
+                int value = values[attribute][row];
+                if (attribute < numericAttributes) {
+                    int width = random.nextInt(Math.max(1, cardinality / 10) + 1);
+                    sb.append('[').append(Math.max(0, value - width)).append(';').append(Math.min(cardinality - 1, value + width)).append(']');
+                } else {
+                    sb.append(getValue(attribute, value));
+                }
+            }
+            sb.append("} => {").append(TARGET_ATTRIBUTE).append('=').append(getValue(predictors, values[predictors][row])).append('}');
+            texts.add(sb.toString());
+        }
+        //the rule list ends with a default rule predicting the most frequent class
+        int[] classCounts = new int[classes];
+        for (int cls : values[predictors]) {
+            classCounts[cls]++;
+        }
+        int majority = 0;
+        for (int cls = 1; cls < classes; cls++) {
+            if (classCounts[cls] > classCounts[majority]) {
+                majority = cls;
+            }
+        }
+        texts.add("{} => {" + TARGET_ATTRIBUTE + "=" + getValue(predictors, majority) + "}");
+        return new ArrayList(texts);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getTargetAttribute() {
+        return TARGET_ATTRIBUTE;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String[] getColumnNames() {
+        String[] names = new String[values.length];
+        for (int j = 0; j < values.length; j++) {
+            names[j] = getColumnName(j);
+        }
+        return names;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public ArrayList<AttributeType> getAttributeTypes() {
+        ArrayList<AttributeType> types = new ArrayList();
+        for (int j = 0; j < values.length; j++) {
+            types.add(j < numericAttributes ? AttributeType.numerical : AttributeType.nominal);
+        }
+        return types;
+    }
+
+    private String getColumnName(int position) {
+        if (position == values.length - 1) {
+            return TARGET_ATTRIBUTE;
+        } else if (position < numericAttributes) {
+            return "n" + position;
+        } else {
+            return "m" + (position - numericAttributes);
+        }
+    }
+
+    private String getValue(int position, int value) {
+        if (position == values.length - 1) {
+            return "c" + value;
+        } else if (position < numericAttributes) {
+            return Integer.toString(value);
+        } else {
+            return "v" + value;
+        }
+    }
+
+    /**
+     *
+     * @return new data with all generated rows
+     * @throws Exception
+     */
+    public Data newData() throws Exception {
+        Data data = new Data();
+        DataTable dataTable = data.newDataTable(getColumnNames(), TARGET_ATTRIBUTE, getAttributeTypes(), null);
+        int[][] codes = new int[values.length][rows];
+        for (int j = 0; j < values.length; j++) {
+            int[] valueCodes = new int[Math.max(cardinality, classes)];
+            Arrays.fill(valueCodes, -1);
+            for (int i = 0; i < rows; i++) {
+                int value = values[j][i];
+                if (valueCodes[value] == -1) {
+                    valueCodes[value] = dataTable.getValueCode(j, getValue(j, value));
+                }
+                codes[j][i] = valueCodes[value];
+            }
+        }
+        dataTable.addEncodedTransactions(codes, rows);
+        return data;
+    }
+
+    /**
+     * Parses the seed rules against the data, support and confidence are computed on the data.
+     *
+     * @param data
+     * @return
+     * @throws Exception
+     */
+    public ArrayList<Rule> newRules(Data data) throws Exception {
+        ArulesParser parser = new ArulesParser(data);
+        int n = data.getDataTable().getCurrentTransactionCount();
+        ArrayList<Rule> rules = new ArrayList();
+        for (int i = 0; i < ruleTexts.size(); i++) {
+            Rule parsed = parser.parseRule(ruleTexts.get(i), 1, 1f / n, i);
+            CoverageBitmap antecedent = parsed.getAntecedent().getCover();
+            CoverageBitmap consequent = parsed.getConsequent().getCover();
+            //empty antecedent of the default rule covers all transactions
+            int covered = antecedent == null ? n : antecedent.getCardinality();
+            int correct = antecedent == null ? consequent.getCardinality() : CoverageBitmap.andCardinality(antecedent, consequent);
+            rules.add(new Rule(parsed.getAntecedent(), parsed.getConsequent(), new RuleQuality(correct, covered - correct, n), null, i, null, data));
+        }
+        return rules;
+    }
+
+    /**
+     *
+     * @param path
+     * @param separator
+     * @throws IOException
+     */
+    public void writeCSV(String path, String separator) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(String.join(separator, getColumnNames()));
+            out.newLine();
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < values.length; j++) {
+                    if (j > 0) {
+                        out.write(separator);
+                    }
+                    out.write(getValue(j, values[j][i]));
+                }
+                out.newLine();
+            }
+        }
+    }
+}
@@ -53,6 +53,12 @@ public class Attribute {
     private final String name;
     private final ConcurrentSkipListMap attributeValues = new ConcurrentSkipListMap();
     private final ConcurrentSkipListMap breakpointAttributeValues = new ConcurrentSkipListMap();
+    //values indexed by their code, the codes are stored in the columns of DataTable
+    private final ArrayList<AttributeValue> dictionary = new ArrayList();
+    //the data table the attribute belongs to, its active mask is applied to value covers
+    DataTable dataTable;
+    //values in the order of attributeValues, made on first use after a value was added
+    private volatile SortedAttributeValues sortedValues;
 
     /**
      *
@@ -127,7 +133,7 @@ public class Attribute {
      */
     public int getNumberOfValuesWithMinSupport(int minSupp) {
         int total = 0;
-        total = getAllValues().stream().filter((val) -> (val.getTransactions().size() >= minSupp)).map((_item) -> 1).reduce(total, Integer::sum);
+        total = getAllValues().stream().filter((val) -> (val.getTransactionCount() >= minSupp)).map((_item) -> 1).reduce(total, Integer::sum);
         return total;
 
     }
@@ -141,7 +147,7 @@ public class Attribute {
 
         getAllValues().stream().forEach((val) -> {
             //arraylist supports duplicates
-            list.add(val.getTransactions().size());
+            list.add(val.getTransactionCount());
         });
 
         return list;
@@ -255,6 +261,50 @@ public class Attribute {
         return copy;
     }
 
+    /**
+     *
+     * @return values in the order of getAllValues() addressable by position,
+     * the same object is returned until a new value is added
+     */
+    public SortedAttributeValues getSortedValues() {
+        SortedAttributeValues sorted = sortedValues;
+        if (sorted == null) {
+            synchronized (dictionary) {
+                sorted = sortedValues;
+                if (sorted == null) {
+                    sorted = new SortedAttributeValues(attributeValues.values(), dictionary.size());
+                    sortedValues = sorted;
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     *
+     * @param code
+     * @return
+     */
+    public AttributeValue getValueByCode(int code) {
+        return dictionary.get(code);
+    }
+
+    /**
+     *
+     * @return number of distinct values, including values not backed by data
+     */
+    public int getDictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public DataTable getDataTable() {
+        return dataTable;
+    }
+
     /**
      *
      * @param val
@@ -280,8 +330,26 @@ public class Attribute {
 
             throw new UnsupportedOperationException("TID can be null only for breakpoint values");
         }
+        return createValue(value, TID, attValtype);
+    }
 
+    /**
+     * The transactions with the new value are registered by the caller,
+     * see DataTable.addEncodedTransactions.
+     *
+     * @param value
+     * @return
+     */
+    AttributeValue addNewDataValue(String value) {
+        return createValue(value, null, AttributeValueType.dataBacked);
+    }
+
+    private AttributeValue createValue(String value, Transaction TID, AttributeValueType attValtype) {
         AttributeValue val = new AttributeValue(value, this, attValtype);
+        synchronized (dictionary) {
+            val.code = dictionary.size();
+            dictionary.add(val);
+        }
         if (TID != null) {
             val.addTransaction(TID, true);
         }
@@ -291,6 +359,9 @@ public class Attribute {
         } else {
             attributeValues.put(val.value, val);
         }
+        synchronized (dictionary) {
+            sortedValues = null;
+        }
         if (attValtype == AttributeValueType.breakpoint || attValtype == AttributeValueType.dataBackedbreakpoint) {
             setAttributeValueAsBreakpoint(val);
         }
@@ -310,7 +381,8 @@ public class Attribute {
             return at;
         }).forEach((at) -> {
             sb.append("\n##transactions:");
-            at.transactions.stream().map((t) -> String.valueOf(t.internalTID)).reduce((t, t2) -> t + "," + t2).ifPresent((transAsString) -> sb.append(transAsString));
+            String transAsString = at.cover.toString();
+            sb.append(transAsString.substring(1, transAsString.length() - 1));
         });
         return sb.toString();
     }
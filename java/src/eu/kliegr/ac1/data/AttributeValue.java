@@ -19,14 +19,15 @@
 package eu.kliegr.ac1.data;
 
 import static eu.kliegr.ac1.rule.parsers.ArulesParser.normInfinity;
-import java.util.Collections;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 
 public class AttributeValue {
 
     String value;
-    Set<Transaction> transactions = Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>());
+    //internal TIDs of the transactions currently associated with this value
+    final CoverageBitmap cover = new CoverageBitmap();
+    //position of this value in the dictionary of the attribute, used in the columnar storage of DataTable
+    int code = -1;
     Attribute attribute;
     private AttributeValueType type;
     AttributeValue(String value, Attribute attribute, AttributeValueType type) {
@@ -92,6 +93,14 @@ public class AttributeValue {
         }
     }
 
+    /**
+     *
+     * @return code of this value in the dictionary of its attribute
+     */
+    public int getCode() {
+        return code;
+    }
+
     /**
      *
      * @return
@@ -132,25 +141,45 @@ public class AttributeValue {
         if (registerAttributeValue) {
             t.registerAttributeValue(this);
         }
-        transactions.add(t);
+        synchronized (cover) {
+            cover.add(t.internalTID);
+        }
 
     }
 
     /**
+     * The returned bitmap is owned by this value and must not be modified by the caller,
+     * use the static operations of CoverageBitmap to combine covers. Transactions removed
+     * or hidden in the data table are included, see getCover.
      *
-     * @param t
+     * @return internal TIDs of all loaded transactions with this value
      */
-    public void removeTransaction(Transaction t) {
-        transactions.remove(t);
+    public CoverageBitmap getDataCover() {
+        return cover;
     }
 
+    /**
+     *
+     * @return internal TIDs of active transactions with this value
+     */
+    public CoverageBitmap getCover() {
+        DataTable table = attribute.getDataTable();
+        if (table == null) {
+            return cover.copy();
+        }
+        return CoverageBitmap.and(cover, table.getActiveTransactions());
+    }
 
     /**
      *
-     * @return
+     * @return number of active transactions with this value
      */
-    public Set<Transaction> getTransactions() {
-        return Collections.unmodifiableSet(transactions);
+    public int getTransactionCount() {
+        DataTable table = attribute.getDataTable();
+        if (table == null) {
+            return cover.getCardinality();
+        }
+        return CoverageBitmap.andCardinality(cover, table.getActiveTransactions());
     }
 
 }
@@ -18,13 +18,16 @@
  */
 package eu.kliegr.ac1.data;
 
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -42,8 +45,24 @@ public class DataTable {
      */
     private final ConcurrentHashMap<String, Attribute> attributes = new ConcurrentHashMap();
 
-    private final ArrayList<Transaction> transactions = new ArrayList();
-    private ArrayList<Transaction> hiddenTransactions = new ArrayList();
+    /* rows which have not been permanently removed; the active mask is a subset of these,
+    rows in available but not in active are hidden. Right after unhideAllTransactions both
+    fields refer to the same bitmap (activeShared), it is copied on the first subsequent hide.
+     */
+    private CoverageBitmap available = new CoverageBitmap();
+    private CoverageBitmap active = available;
+    private boolean activeShared = true;
+    //incremented on every change of the active mask
+    private long maskEpoch = 0;
+    //all loaded transactions, the position in the list corresponds to internalTID - firstTID
+    private final ArrayList<Transaction> transactionsByTID = new ArrayList();
+    /* columnar storage of the data: for each attribute (indexed by position) an array of
+    codes of attribute values (see Attribute.getValueByCode), indexed by internalTID - firstTID,
+    -1 marks a value which was not set
+     */
+    private int[][] columns;
+    //set once a transaction is added without values of all attributes
+    private boolean unsetValues = false;
     private Attribute target;
     private Attribute id;
     int loadedTransactions = 0;
@@ -74,6 +93,7 @@ public class DataTable {
             boolean targetFlag = col.equals(targetColName);
             boolean idColumnFlag = col.equals(IDcolumnName);
             Attribute att = Attribute.makeAttribute(col, targetFlag, attributeTypes.get(i), idColumnFlag, ++lastAID);
+            att.dataTable = this;
             attributes.put(att.getName(), att);
             attribute_byPosition.add(att);
             if (targetFlag) {
@@ -83,6 +103,10 @@ public class DataTable {
                 id = att;
             }
         }
+        columns = new int[attribute_byPosition.size()][16];
+        for (int[] column : columns) {
+            Arrays.fill(column, -1);
+        }
         checkDataTable(IDcolumnName, attributeTypes);
     }
 
@@ -117,37 +141,142 @@ public class DataTable {
      * @return
      */
     public int getCurrentTransactionCount() {
-        return transactions.size();
+        return active.getCardinality();
     }
 
     /**
      *
-     * @return
+     * @return transactions which are neither removed nor hidden, in the order of internal TIDs
      */
     public ArrayList<Transaction> getAllCurrentTransactions() {
-        return transactions;
+        return getTransactions(active);
     }
 
     /**
+     * The returned bitmap is owned by the data table and must not be modified.
      *
+     * @return internal TIDs of transactions which are neither removed nor hidden
      */
-    public void removeAllTransactions(boolean hide) {
-        while (transactions.size() > 0) {
-            removeTransaction(transactions.get(0), hide);
+    public CoverageBitmap getActiveTransactions() {
+        return active;
+    }
+
+    /**
+     *
+     * @return number of changes of the active transaction mask so far
+     */
+    public long getMaskEpoch() {
+        return maskEpoch;
+    }
+
+    /**
+     *
+     * @param internalTID
+     * @return transaction with the given internal TID, including removed and hidden transactions
+     */
+    public Transaction getTransaction(int internalTID) {
+        return transactionsByTID.get(internalTID - firstTID);
+    }
+
+    /**
+     *
+     * @param internalTID
+     * @param at
+     * @return value of the attribute in the transaction with the given internal TID, null if not set
+     */
+    public AttributeValue getValue(int internalTID, Attribute at) {
+        int code = columns[at.AID][internalTID - firstTID];
+        return code < 0 ? null : at.getValueByCode(code);
+    }
+
+    /**
+     *
+     * @param internalTID
+     * @param at
+     * @return code of the value of the attribute in the transaction with the given internal TID, -1 if not set
+     */
+    public int getCode(int internalTID, Attribute at) {
+        return columns[at.AID][internalTID - firstTID];
+    }
+
+    /**
+     * The returned array is the backing storage, it must not be modified and it
+     * can be longer than the number of loaded transactions.
+     *
+     * @param at
+     * @return codes of values of the attribute indexed by internalTID - firstTID, -1 for values not set
+     */
+    public int[] getColumn(Attribute at) {
+        return columns[at.AID];
+    }
+
+    /**
+     *
+     * @return codes of the target values indexed by internalTID - firstTID
+     */
+    public int[] getTargetColumn() {
+        return columns[target.AID];
+    }
+
+    /**
+     *
+     * @return true if some of the columns contain -1 for a loaded transaction
+     */
+    public boolean hasUnsetValues() {
+        return unsetValues;
+    }
+
+    /**
+     *
+     * @param internalTID
+     * @return values of attributes set in the transaction ordered by attribute position
+     */
+    public ArrayList<AttributeValue> getValues(int internalTID) {
+        ArrayList<AttributeValue> values = new ArrayList(columns.length);
+        for (Attribute at : attribute_byPosition) {
+            AttributeValue value = getValue(internalTID, at);
+            if (value != null) {
+                values.add(value);
+            }
         }
+        return values;
+    }
+
+    /**
+     *
+     * @param t
+     * @param value
+     */
+    void setValue(Transaction t, AttributeValue value) {
+        columns[value.attribute.AID][t.internalTID - firstTID] = value.code;
     }
 
     /**
      *
+     * @param cover bitmap with internal TIDs
+     * @return transactions in the order of internal TIDs
+     */
+    public ArrayList<Transaction> getTransactions(CoverageBitmap cover) {
+        ArrayList<Transaction> result = new ArrayList(cover.getCardinality());
+        cover.forEach((tid) -> result.add(getTransaction(tid)));
+        return result;
+    }
+
+    /**
+     *
+     * @param hide
+     */
+    public void removeAllTransactions(boolean hide) {
+        removeTransactions(active.copy(), hide);
+    }
+
+    /**
+     * Hidden transactions become active again, permanently removed transactions stay removed.
      */
     public void unhideAllTransactions() {
-        hiddenTransactions.stream().map((t) -> {
-            t.reregisterWithAllAttributeValues();
-            return t;
-        }).forEach((t) -> {
-            transactions.add(t);
-        });
-        hiddenTransactions = new ArrayList();
+        active = available;
+        activeShared = true;
+        maskEpoch++;
     }
 
     /**
@@ -156,10 +285,44 @@ public class DataTable {
      * @param hide
      */
     public void removeTransaction(Transaction t, Boolean hide) {
-        t.deregisterFromAllAttributeValues();
-        transactions.remove(t);
         if (hide) {
-            hiddenTransactions.add(t);
+            ownActive();
+            active.remove(t.getInternalTID());
+        } else {
+            available.remove(t.getInternalTID());
+            if (!activeShared) {
+                active.remove(t.getInternalTID());
+            }
+        }
+        maskEpoch++;
+    }
+
+    /**
+     * Removes all transactions in cover from the active mask with a single AND-NOT.
+     *
+     * @param cover internal TIDs of transactions to remove
+     * @param hide if true, the transactions are restored by unhideAllTransactions
+     * @return number of transactions which were active before the call
+     */
+    public int removeTransactions(CoverageBitmap cover, boolean hide) {
+        int before = active.getCardinality();
+        if (hide) {
+            ownActive();
+            active.andNot(cover);
+        } else {
+            available.andNot(cover);
+            if (!activeShared) {
+                active.andNot(cover);
+            }
+        }
+        maskEpoch++;
+        return before - active.getCardinality();
+    }
+
+    private void ownActive() {
+        if (activeShared) {
+            active = available.copy();
+            activeShared = false;
         }
     }
 
@@ -216,10 +379,70 @@ public class DataTable {
     }
 
     private Transaction makeTransaction(String[] vector) {
-        Transaction t = new Transaction(++lastTID, firstTID);
+        Transaction t = new Transaction(++lastTID, firstTID, this);
+        ensureCapacity(lastTID - firstTID + 1);
         return t;
     }
 
+    private void ensureCapacity(int rows) {
+        if (rows > columns[0].length) {
+            for (int i = 0; i < columns.length; i++) {
+                int length = columns[i].length;
+                columns[i] = Arrays.copyOf(columns[i], Math.max(rows, length * 2));
+                Arrays.fill(columns[i], length, columns[i].length, -1);
+            }
+        }
+    }
+
+    /**
+     * Returns the code of the value, a new data backed value is added to the attribute if it does not exist yet.
+     * Transactions with the value are registered by addEncodedTransactions.
+     *
+     * @param position
+     * @param value
+     * @return
+     * @throws NumberFormatException
+     */
+    public int getValueCode(int position, String value) throws java.lang.NumberFormatException {
+        Attribute at = getAttribute(position);
+        AttributeValue attributeValue = at.getValueByString(value);
+        if (attributeValue == null) {
+            attributeValue = at.addNewDataValue(value);
+        }
+        return attributeValue.code;
+    }
+
+    /**
+     * Appends transactions given by value codes, this is equivalent to calling addTransaction for each row.
+     *
+     * @param codes for each attribute (indexed by position) codes of values obtained from getValueCode, indexed by row
+     * @param rowCount number of rows in codes to add
+     */
+    public void addEncodedTransactions(int[][] codes, int rowCount) {
+        if (rowCount == 0) {
+            return;
+        }
+        int firstNewTID = lastTID + 1;
+        ensureCapacity(lastTID - firstTID + 1 + rowCount);
+        for (int r = 0; r < rowCount; r++) {
+            transactionsByTID.add(new Transaction(++lastTID, firstTID, this));
+        }
+        loadedTransactions += rowCount;
+        available.addRange(firstNewTID, lastTID + 1);
+        if (!activeShared) {
+            active.addRange(firstNewTID, lastTID + 1);
+        }
+        //each attribute value is modified only by the task processing its attribute
+        IntStream.range(0, columns.length).parallel().forEach((position) -> {
+            int[] column = codes[position];
+            System.arraycopy(column, 0, columns[position], firstNewTID - firstTID, rowCount);
+            Attribute at = getAttribute(position);
+            for (int r = 0; r < rowCount; r++) {
+                at.getValueByCode(column[r]).cover.add(firstNewTID + r);
+            }
+        });
+    }
+
     /**
      *
      * @param vector
@@ -227,9 +450,15 @@ public class DataTable {
      */
     public void addTransaction(String[] vector) throws java.lang.NumberFormatException {
         Transaction t = makeTransaction(vector);
-        transactions.add(t);
+        available.add(t.getInternalTID());
+        if (!activeShared) {
+            active.add(t.getInternalTID());
+        }
+        transactionsByTID.add(t);
         loadedTransactions++;
-        //transactions.add(t);
+        if (vector.length < columns.length) {
+            unsetValues = true;
+        }
         for (int i = 0; i < vector.length; i++) {
             Attribute at = getAttribute(i);
             AttributeValue attributeValue = null;
@@ -237,6 +466,7 @@ public class DataTable {
                 attributeValue = at.getValueByString(vector[i]);
             } catch (java.lang.NumberFormatException e) {
                 LOGGER.log(Level.INFO, "NumberFormatException for value {0}", vector[i]);
+                unsetValues = true;
                 throw e;
 
             }
@@ -245,6 +475,7 @@ public class DataTable {
                     at.addNewValue(vector[i], t, AttributeValueType.dataBacked);
                 } catch (java.lang.NumberFormatException e) {
                     LOGGER.log(Level.INFO, "NumberFormatException for value {0}", vector[i]);
+                    unsetValues = true;
                     at.addNewValue(vector[i], t, AttributeValueType.dataBacked);
                     throw e;
                 }
@@ -0,0 +1,84 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable snapshot of the values of an attribute in the order of
+ * Attribute.getAllValues() with the position of each value, so that adjacent
+ * values and ranges of values can be addressed by index. A new snapshot is
+ * made when a value is added to the attribute.
+ *
+ * @author tomas
+ */
+public final class SortedAttributeValues {
+
+    private final AttributeValue[] values;
+    //for each value code position of the value in values or -1
+    private final int[] positionOfCode;
+
+    SortedAttributeValues(Collection<AttributeValue> values, int dictionarySize) {
+        this.values = values.toArray(new AttributeValue[values.size()]);
+        this.positionOfCode = new int[dictionarySize];
+        Arrays.fill(positionOfCode, -1);
+        for (int i = 0; i < this.values.length; i++) {
+            positionOfCode[this.values[i].getCode()] = i;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     *
+     * @param position
+     * @return
+     */
+    public AttributeValue get(int position) {
+        return values[position];
+    }
+
+    /**
+     *
+     * @param value
+     * @return position of the value or -1 if the value is not in this snapshot
+     */
+    public int getPosition(AttributeValue value) {
+        return getPosition(value.getCode());
+    }
+
+    /**
+     *
+     * @param code
+     * @return position of the value with the code or -1 if the value is not in this snapshot
+     */
+    public int getPosition(int code) {
+        if (code < 0 || code >= positionOfCode.length) {
+            return -1;
+        }
+        return positionOfCode[code];
+    }
+}
@@ -20,9 +20,6 @@ package eu.kliegr.ac1.data;
 
 
 import eu.kliegr.ac1.rule.TestRule;
-import java.util.ArrayList;
-import java.util.Optional;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -33,18 +30,20 @@ public class Transaction implements Comparable {
    private final static Logger LOGGER = Logger.getLogger(Transaction.class.getName()); 
    private TestRule coveringRule;
     int internalTID;
-    //list of attribute values associated with this transaction
-    private final ArrayList<AttributeValue> attributeValues = new ArrayList();
+    //attribute values associated with this transaction are stored in the columns of the table
+    private final DataTable table;
     private final int firstTID;
 
     /**
      *
      * @param TID
      * @param firstTID
+     * @param table
      */
-    protected Transaction(int TID, int firstTID) {
+    protected Transaction(int TID, int firstTID, DataTable table) {
         this.internalTID = TID;
         this.firstTID = firstTID;
+        this.table = table;
     }
     
     /**
@@ -72,7 +71,7 @@ public class Transaction implements Comparable {
         StringBuilder sb = new StringBuilder();
         sb.append("T: ").append(internalTID).append(":");
         String sep ="";
-        for (AttributeValue value : attributeValues)
+        for (AttributeValue value : table.getValues(internalTID))
         {
             sb.append(sep);
             sb.append(value.getAttribute().getName()).append("=").append(value.toString());
@@ -105,14 +104,7 @@ public class Transaction implements Comparable {
      */
     public AttributeValue getTarget()
     {
-        for (AttributeValue v : attributeValues )
-        {
-            if (v.getAttribute().isTargetAttribute)
-            {
-                return v;
-            }
-        }
-        return null;
+        return table.getValue(internalTID, table.getTargetAttribute());
     }  
 
     /**
@@ -122,14 +114,7 @@ public class Transaction implements Comparable {
      */
     public AttributeValue getValue(Attribute at)
     {
-        for (AttributeValue v : attributeValues )
-        {
-            if (v.getAttribute() == at)
-            {
-                return v;
-            }
-        }
-        return null;
+        return table.getValue(internalTID, at);
     }
 
     /**
@@ -138,12 +123,10 @@ public class Transaction implements Comparable {
      */
     public String getExternalTID()
     {
-       //String extTID = attributeValues.stream().filter((a)->a.getAttribute().isIDAttribute).findFirst().ifPresent(get().value);
-       
-       Optional<AttributeValue> extTID = attributeValues.stream().filter((a)->a.getAttribute().isIDAttribute).findFirst();
-       if (extTID.isPresent())
+       Attribute idAttribute = table.getIDAttribute();
+       if (idAttribute != null)
        {
-           return extTID.get().value;
+           return table.getValue(internalTID, idAttribute).value;
        }
        else
        {
@@ -160,36 +143,9 @@ public class Transaction implements Comparable {
      */
     public void registerAttributeValue(AttributeValue value)
     {
-        attributeValues.add(value);
+        table.setValue(this, value);
     }
 
-    /**
-     *
-     */
-    protected void deregisterFromAllAttributeValues()
-    {
-        attributeValues.stream().map((value) -> {
-            LOGGER.log(Level.FINEST, "Deregistering trans with ID={0}(internal TID={1}) from values= '{'{2}'}'", new Object[]{getExternalTID(), getInternalTID(), value.toString()});
-            return value;
-        }).forEach((value) -> {
-            value.removeTransaction(this);
-        });
-    }
-
-    /**
-     *
-     */
-    protected void reregisterWithAllAttributeValues()
-    {
-        attributeValues.stream().map((value) -> {
-            LOGGER.log(Level.FINEST, "Registering trans with ID={0}(internal TID={1}) with values= '{'{2}'}'", new Object[]{getExternalTID(), getInternalTID(), value.toString()});
-            return value;
-        }).forEach((value) -> {
-            value.addTransaction(this,false);
-        });
-    }
-
-
     @Override
     public int compareTo(Object o) {
         Transaction t2 = (Transaction) o;
@@ -0,0 +1,377 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.bitmap;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Sparse container holding a sorted array of values.
+ *
+ * @author tomas
+ */
+final class ArrayContainer extends Container {
+
+    char[] content;
+    int cardinality;
+
+    ArrayContainer() {
+        this(new char[4], 0);
+    }
+
+    ArrayContainer(char[] content, int cardinality) {
+        this.content = content;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     *
+     * @param from first value, inclusive
+     * @param to last value, inclusive
+     * @return
+     */
+    static ArrayContainer range(int from, int to) {
+        char[] content = new char[to - from + 1];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (char) (from + i);
+        }
+        return new ArrayContainer(content, content.length);
+    }
+
+    private int indexOf(char x) {
+        return Arrays.binarySearch(content, 0, cardinality, x);
+    }
+
+    @Override
+    Container add(char x) {
+        int index = indexOf(x);
+        if (index >= 0) {
+            return this;
+        }
+        if (cardinality >= MAX_ARRAY_SIZE) {
+            return toBitmapContainer().add(x);
+        }
+        index = -index - 1;
+        if (cardinality == content.length) {
+            content = Arrays.copyOf(content, Math.min(MAX_ARRAY_SIZE, Math.max(8, cardinality * 2)));
+        }
+        System.arraycopy(content, index, content, index + 1, cardinality - index);
+        content[index] = x;
+        cardinality++;
+        return this;
+    }
+
+    @Override
+    Container remove(char x) {
+        int index = indexOf(x);
+        if (index >= 0) {
+            System.arraycopy(content, index + 1, content, index, cardinality - index - 1);
+            cardinality--;
+        }
+        return this;
+    }
+
+    @Override
+    boolean contains(char x) {
+        return indexOf(x) >= 0;
+    }
+
+    @Override
+    int getCardinality() {
+        return cardinality;
+    }
+
+    BitmapContainer toBitmapContainer() {
+        BitmapContainer bc = new BitmapContainer();
+        for (int i = 0; i < cardinality; i++) {
+            char x = content[i];
+            bc.words[x >>> 6] |= 1L << x;
+        }
+        bc.cardinality = cardinality;
+        return bc;
+    }
+
+    @Override
+    Container or(Container other) {
+        if (other instanceof BitmapContainer) {
+            return other.or(this);
+        }
+        ArrayContainer o = (ArrayContainer) other;
+        if (cardinality + o.cardinality > MAX_ARRAY_SIZE) {
+            BitmapContainer bc = toBitmapContainer();
+            for (int i = 0; i < o.cardinality; i++) {
+                bc.set(o.content[i]);
+            }
+            return bc.cardinality <= MAX_ARRAY_SIZE ? bc.toArrayContainer() : bc;
+        }
+        char[] result = new char[cardinality + o.cardinality];
+        int i = 0, j = 0, k = 0;
+        while (i < cardinality && j < o.cardinality) {
+            char a = content[i], b = o.content[j];
+            if (a < b) {
+                result[k++] = a;
+                i++;
+            } else if (a > b) {
+                result[k++] = b;
+                j++;
+            } else {
+                result[k++] = a;
+                i++;
+                j++;
+            }
+        }
+        while (i < cardinality) {
+            result[k++] = content[i++];
+        }
+        while (j < o.cardinality) {
+            result[k++] = o.content[j++];
+        }
+        return new ArrayContainer(result, k);
+    }
+
+    @Override
+    Container and(Container other) {
+        char[] result = new char[cardinality];
+        int k = 0;
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (o.contains(content[i])) {
+                    result[k++] = content[i];
+                }
+            }
+        } else {
+            ArrayContainer o = (ArrayContainer) other;
+            int i = 0, j = 0;
+            while (i < cardinality && j < o.cardinality) {
+                char a = content[i], b = o.content[j];
+                if (a < b) {
+                    i++;
+                } else if (a > b) {
+                    j++;
+                } else {
+                    result[k++] = a;
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return new ArrayContainer(result, k);
+    }
+
+    @Override
+    Container andNot(Container other) {
+        char[] result = new char[cardinality];
+        int k = 0;
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (!o.contains(content[i])) {
+                    result[k++] = content[i];
+                }
+            }
+        } else {
+            ArrayContainer o = (ArrayContainer) other;
+            int i = 0, j = 0;
+            while (i < cardinality) {
+                char a = content[i];
+                while (j < o.cardinality && o.content[j] < a) {
+                    j++;
+                }
+                if (j >= o.cardinality || o.content[j] != a) {
+                    result[k++] = a;
+                }
+                i++;
+            }
+        }
+        return new ArrayContainer(result, k);
+    }
+
+    @Override
+    Container ior(Container other) {
+        if (other instanceof BitmapContainer || cardinality + other.getCardinality() > MAX_ARRAY_SIZE) {
+            return or(other);
+        }
+        ArrayContainer o = (ArrayContainer) other;
+        int total = cardinality + o.cardinality;
+        if (content.length < total) {
+            content = Arrays.copyOf(content, total);
+        }
+        //own values are moved behind the space for the merged values, so the merge never overwrites unread values
+        System.arraycopy(content, 0, content, o.cardinality, cardinality);
+        int i = o.cardinality, j = 0, k = 0;
+        while (i < total && j < o.cardinality) {
+            char a = content[i], b = o.content[j];
+            if (a < b) {
+                content[k++] = a;
+                i++;
+            } else if (a > b) {
+                content[k++] = b;
+                j++;
+            } else {
+                content[k++] = a;
+                i++;
+                j++;
+            }
+        }
+        while (i < total) {
+            content[k++] = content[i++];
+        }
+        while (j < o.cardinality) {
+            content[k++] = o.content[j++];
+        }
+        cardinality = k;
+        return this;
+    }
+
+    @Override
+    Container iand(Container other) {
+        int k = 0;
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (o.contains(content[i])) {
+                    content[k++] = content[i];
+                }
+            }
+        } else {
+            ArrayContainer o = (ArrayContainer) other;
+            int i = 0, j = 0;
+            while (i < cardinality && j < o.cardinality) {
+                char a = content[i], b = o.content[j];
+                if (a < b) {
+                    i++;
+                } else if (a > b) {
+                    j++;
+                } else {
+                    content[k++] = a;
+                    i++;
+                    j++;
+                }
+            }
+        }
+        cardinality = k;
+        return this;
+    }
+
+    @Override
+    Container iandNot(Container other) {
+        int k = 0;
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (!o.contains(content[i])) {
+                    content[k++] = content[i];
+                }
+            }
+        } else {
+            ArrayContainer o = (ArrayContainer) other;
+            int j = 0;
+            for (int i = 0; i < cardinality; i++) {
+                char a = content[i];
+                while (j < o.cardinality && o.content[j] < a) {
+                    j++;
+                }
+                if (j >= o.cardinality || o.content[j] != a) {
+                    content[k++] = a;
+                }
+            }
+        }
+        cardinality = k;
+        return this;
+    }
+
+    @Override
+    int andCardinality(Container other) {
+        int count = 0;
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (o.contains(content[i])) {
+                    count++;
+                }
+            }
+        } else {
+            ArrayContainer o = (ArrayContainer) other;
+            int i = 0, j = 0;
+            while (i < cardinality && j < o.cardinality) {
+                char a = content[i], b = o.content[j];
+                if (a < b) {
+                    i++;
+                } else if (a > b) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    boolean intersects(Container other) {
+        if (other instanceof BitmapContainer) {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int i = 0; i < cardinality; i++) {
+                if (o.contains(content[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        ArrayContainer o = (ArrayContainer) other;
+        int i = 0, j = 0;
+        while (i < cardinality && j < o.cardinality) {
+            char a = content[i], b = o.content[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    Container copy() {
+        return new ArrayContainer(Arrays.copyOf(content, Math.max(cardinality, 1)), cardinality);
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+        for (int i = 0; i < cardinality; i++) {
+            consumer.accept(high | content[i]);
+        }
+    }
+
+    @Override
+    char first() {
+        return content[0];
+    }
+
+    @Override
+    char last() {
+        return content[cardinality - 1];
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.bitmap;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Dense container holding one bit for each of the 65536 possible values.
+ *
+ * @author tomas
+ */
+final class BitmapContainer extends Container {
+
+    final long[] words;
+    int cardinality;
+
+    BitmapContainer() {
+        this(new long[1024], 0);
+    }
+
+    BitmapContainer(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     *
+     * @param from first value, inclusive
+     * @param to last value, inclusive
+     * @return
+     */
+    static BitmapContainer range(int from, int to) {
+        BitmapContainer bc = new BitmapContainer();
+        int firstWord = from >>> 6;
+        int lastWord = to >>> 6;
+        for (int w = firstWord; w <= lastWord; w++) {
+            bc.words[w] = -1L;
+        }
+        bc.words[firstWord] &= -1L << from;
+        bc.words[lastWord] &= -1L >>> (63 - (to & 63));
+        bc.cardinality = to - from + 1;
+        return bc;
+    }
+
+    void set(char x) {
+        long before = words[x >>> 6];
+        long after = before | (1L << x);
+        words[x >>> 6] = after;
+        if (before != after) {
+            cardinality++;
+        }
+    }
+
+    @Override
+    Container add(char x) {
+        set(x);
+        return this;
+    }
+
+    @Override
+    Container remove(char x) {
+        long before = words[x >>> 6];
+        long after = before & ~(1L << x);
+        words[x >>> 6] = after;
+        if (before != after) {
+            cardinality--;
+            if (cardinality <= MAX_ARRAY_SIZE) {
+                return toArrayContainer();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    boolean contains(char x) {
+        return (words[x >>> 6] & (1L << x)) != 0;
+    }
+
+    @Override
+    int getCardinality() {
+        return cardinality;
+    }
+
+    ArrayContainer toArrayContainer() {
+        char[] content = new char[Math.max(cardinality, 1)];
+        int k = 0;
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                content[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(content, k);
+    }
+
+    private static Container wrap(long[] words) {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        BitmapContainer bc = new BitmapContainer(words, cardinality);
+        return cardinality <= MAX_ARRAY_SIZE ? bc.toArrayContainer() : bc;
+    }
+
+    @Override
+    Container or(Container other) {
+        if (other instanceof ArrayContainer) {
+            ArrayContainer o = (ArrayContainer) other;
+            BitmapContainer result = (BitmapContainer) copy();
+            for (int i = 0; i < o.cardinality; i++) {
+                result.set(o.content[i]);
+            }
+            return result;
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        long[] result = new long[words.length];
+        int cardinality = 0;
+        for (int w = 0; w < words.length; w++) {
+            result[w] = words[w] | o.words[w];
+            cardinality += Long.bitCount(result[w]);
+        }
+        return new BitmapContainer(result, cardinality);
+    }
+
+    @Override
+    Container and(Container other) {
+        if (other instanceof ArrayContainer) {
+            return other.and(this);
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        long[] result = new long[words.length];
+        for (int w = 0; w < words.length; w++) {
+            result[w] = words[w] & o.words[w];
+        }
+        return wrap(result);
+    }
+
+    @Override
+    Container andNot(Container other) {
+        if (other instanceof ArrayContainer) {
+            ArrayContainer o = (ArrayContainer) other;
+            Container result = copy();
+            for (int i = 0; i < o.cardinality; i++) {
+                result = result.remove(o.content[i]);
+            }
+            return result;
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        long[] result = new long[words.length];
+        for (int w = 0; w < words.length; w++) {
+            result[w] = words[w] & ~o.words[w];
+        }
+        return wrap(result);
+    }
+
+    @Override
+    Container ior(Container other) {
+        lazyOr(other);
+        cardinality = countBits();
+        return this;
+    }
+
+    @Override
+    Container iand(Container other) {
+        if (other instanceof ArrayContainer) {
+            //the result is small enough for an array container
+            return other.and(this);
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        for (int w = 0; w < words.length; w++) {
+            words[w] &= o.words[w];
+        }
+        return repairCardinality();
+    }
+
+    @Override
+    Container iandNot(Container other) {
+        if (other instanceof ArrayContainer) {
+            ArrayContainer o = (ArrayContainer) other;
+            Container result = this;
+            for (int i = 0; i < o.cardinality; i++) {
+                result = result.remove(o.content[i]);
+            }
+            return result;
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        for (int w = 0; w < words.length; w++) {
+            words[w] &= ~o.words[w];
+        }
+        return repairCardinality();
+    }
+
+    /**
+     * Sets the values of the other container without updating the
+     * cardinality, repairCardinality must be called before the container is
+     * used otherwise.
+     *
+     * @param other
+     */
+    void lazyOr(Container other) {
+        if (other instanceof ArrayContainer) {
+            ArrayContainer o = (ArrayContainer) other;
+            for (int i = 0; i < o.cardinality; i++) {
+                char x = o.content[i];
+                words[x >>> 6] |= 1L << x;
+            }
+        } else {
+            BitmapContainer o = (BitmapContainer) other;
+            for (int w = 0; w < words.length; w++) {
+                words[w] |= o.words[w];
+            }
+        }
+    }
+
+    /**
+     *
+     * @return this container with the cardinality recomputed, converted to
+     * array container if it became sparse
+     */
+    Container repairCardinality() {
+        cardinality = countBits();
+        return cardinality <= MAX_ARRAY_SIZE ? toArrayContainer() : this;
+    }
+
+    private int countBits() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    @Override
+    int andCardinality(Container other) {
+        if (other instanceof ArrayContainer) {
+            return other.andCardinality(this);
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        int count = 0;
+        for (int w = 0; w < words.length; w++) {
+            count += Long.bitCount(words[w] & o.words[w]);
+        }
+        return count;
+    }
+
+    @Override
+    boolean intersects(Container other) {
+        if (other instanceof ArrayContainer) {
+            return other.intersects(this);
+        }
+        BitmapContainer o = (BitmapContainer) other;
+        for (int w = 0; w < words.length; w++) {
+            if ((words[w] & o.words[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    Container copy() {
+        return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                consumer.accept(high | ((w << 6) + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+    }
+
+    @Override
+    char first() {
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] != 0) {
+                return (char) ((w << 6) + Long.numberOfTrailingZeros(words[w]));
+            }
+        }
+        throw new IllegalStateException("Empty container");
+    }
+
+    @Override
+    char last() {
+        for (int w = words.length - 1; w >= 0; w--) {
+            if (words[w] != 0) {
+                return (char) ((w << 6) + 63 - Long.numberOfLeadingZeros(words[w]));
+            }
+        }
+        throw new IllegalStateException("Empty container");
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.bitmap;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Set of 16-bit values stored in one chunk of a {@link CoverageBitmap}.
+ * Operations return the resulting container, which may be of a different
+ * type than the receiver (e.g. an array container growing into a bitmap).
+ * The in place operations (ior, iand, iandNot) reuse the receiver if the
+ * type of the result allows it, the receiver must not be used afterwards.
+ *
+ * @author tomas
+ */
+abstract class Container {
+
+    //containers with more values than this are stored as bitmaps
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    abstract Container add(char x);
+
+    abstract Container remove(char x);
+
+    abstract boolean contains(char x);
+
+    abstract int getCardinality();
+
+    abstract Container or(Container other);
+
+    abstract Container and(Container other);
+
+    abstract Container andNot(Container other);
+
+    abstract Container ior(Container other);
+
+    abstract Container iand(Container other);
+
+    abstract Container iandNot(Container other);
+
+    abstract int andCardinality(Container other);
+
+    abstract boolean intersects(Container other);
+
+    abstract Container copy();
+
+    /**
+     *
+     * @param high upper 16 bits of the values in this container, already shifted
+     * @param consumer
+     */
+    abstract void forEach(int high, IntConsumer consumer);
+
+    /**
+     *
+     * @return lowest value in the container
+     */
+    abstract char first();
+
+    /**
+     *
+     * @return highest value in the container
+     */
+    abstract char last();
+
+}
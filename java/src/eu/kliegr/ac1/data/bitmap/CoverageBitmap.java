@@ -0,0 +1,613 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.bitmap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of transaction IDs (internal TIDs).
+ *
+ * The value space is split into chunks of 65536 values keyed by the upper 16
+ * bits. Each chunk is stored either as a sorted array (sparse chunks) or as a
+ * plain bitmap (dense chunks), so that covers of both rare and frequent
+ * attribute values remain compact and can be combined word by word.
+ *
+ * Instances are not thread safe for modification; the static set operations
+ * (or, and, andNot) return new bitmaps and do not modify their arguments, the
+ * instance methods of the same names modify the bitmap they are called on
+ * container by container.
+ *
+ * @author tomas
+ */
+public final class CoverageBitmap {
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    /**
+     * Creates empty bitmap
+     */
+    public CoverageBitmap() {
+        this(new char[4], new Container[4], 0);
+    }
+
+    private CoverageBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    /**
+     *
+     * @param from first value, inclusive
+     * @param to last value, exclusive
+     * @return bitmap containing all values in the range
+     */
+    public static CoverageBitmap range(int from, int to) {
+        CoverageBitmap result = new CoverageBitmap();
+        result.addRange(from, to);
+        return result;
+    }
+
+    /**
+     *
+     * @param values
+     * @return bitmap containing the passed values
+     */
+    public static CoverageBitmap of(int... values) {
+        CoverageBitmap result = new CoverageBitmap();
+        for (int v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    private static char high(int x) {
+        return (char) (x >>> 16);
+    }
+
+    private static char low(int x) {
+        return (char) x;
+    }
+
+    private int indexOfKey(char key) {
+        //most additions are appended at the end
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int index, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = c;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     *
+     * @param x
+     */
+    public void add(int x) {
+        char key = high(x);
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            containers[index] = containers[index].add(low(x));
+        } else {
+            insertContainer(-index - 1, key, new ArrayContainer().add(low(x)));
+        }
+    }
+
+    /**
+     *
+     * @param from first value, inclusive
+     * @param to last value, exclusive
+     */
+    public void addRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int last = to - 1;
+        for (int key = from >>> 16; key <= (last >>> 16); key++) {
+            int chunkFrom = key == (from >>> 16) ? low(from) : 0;
+            int chunkTo = key == (last >>> 16) ? low(last) : 0xFFFF;
+            Container range = chunkTo - chunkFrom + 1 > Container.MAX_ARRAY_SIZE
+                    ? BitmapContainer.range(chunkFrom, chunkTo)
+                    : ArrayContainer.range(chunkFrom, chunkTo);
+            int index = indexOfKey((char) key);
+            if (index >= 0) {
+                containers[index] = containers[index].or(range);
+            } else {
+                insertContainer(-index - 1, (char) key, range);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param x
+     */
+    public void remove(int x) {
+        int index = indexOfKey(high(x));
+        if (index < 0) {
+            return;
+        }
+        Container c = containers[index].remove(low(x));
+        if (c.getCardinality() == 0) {
+            removeContainer(index);
+        } else {
+            containers[index] = c;
+        }
+    }
+
+    /**
+     *
+     * @param x
+     * @return
+     */
+    public boolean contains(int x) {
+        int index = indexOfKey(high(x));
+        return index >= 0 && containers[index].contains(low(x));
+    }
+
+    /**
+     *
+     * @return number of values in the bitmap
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].getCardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * @return lowest value in the bitmap
+     * @throws NoSuchElementException if the bitmap is empty
+     */
+    public int first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return (keys[0] << 16) | containers[0].first();
+    }
+
+    /**
+     *
+     * @return highest value in the bitmap
+     * @throws NoSuchElementException if the bitmap is empty
+     */
+    public int last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return (keys[size - 1] << 16) | containers[size - 1].last();
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return union of the two bitmaps
+     */
+    public static CoverageBitmap or(CoverageBitmap a, CoverageBitmap b) {
+        CoverageBitmap result = new CoverageBitmap(new char[a.size + b.size + 1], new Container[a.size + b.size + 1], 0);
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            char ka = a.keys[i], kb = b.keys[j];
+            if (ka < kb) {
+                result.append(ka, a.containers[i++].copy());
+            } else if (ka > kb) {
+                result.append(kb, b.containers[j++].copy());
+            } else {
+                result.append(ka, a.containers[i++].or(b.containers[j++]));
+            }
+        }
+        while (i < a.size) {
+            result.append(a.keys[i], a.containers[i++].copy());
+        }
+        while (j < b.size) {
+            result.append(b.keys[j], b.containers[j++].copy());
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return intersection of the two bitmaps
+     */
+    public static CoverageBitmap and(CoverageBitmap a, CoverageBitmap b) {
+        CoverageBitmap result = new CoverageBitmap(new char[Math.min(a.size, b.size) + 1], new Container[Math.min(a.size, b.size) + 1], 0);
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            char ka = a.keys[i], kb = b.keys[j];
+            if (ka < kb) {
+                i++;
+            } else if (ka > kb) {
+                j++;
+            } else {
+                Container c = a.containers[i++].and(b.containers[j++]);
+                if (c.getCardinality() > 0) {
+                    result.append(ka, c);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return values of a, which are not in b
+     */
+    public static CoverageBitmap andNot(CoverageBitmap a, CoverageBitmap b) {
+        CoverageBitmap result = new CoverageBitmap(new char[a.size + 1], new Container[a.size + 1], 0);
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            char ka = a.keys[i];
+            while (j < b.size && b.keys[j] < ka) {
+                j++;
+            }
+            Container c;
+            if (j < b.size && b.keys[j] == ka) {
+                c = a.containers[i].andNot(b.containers[j]);
+            } else {
+                c = a.containers[i].copy();
+            }
+            if (c.getCardinality() > 0) {
+                result.append(ka, c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return size of the intersection of the two bitmaps, the intersection is not materialized
+     */
+    public static int andCardinality(CoverageBitmap a, CoverageBitmap b) {
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            char ka = a.keys[i], kb = b.keys[j];
+            if (ka < kb) {
+                i++;
+            } else if (ka > kb) {
+                j++;
+            } else {
+                count += a.containers[i++].andCardinality(b.containers[j++]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @param other
+     * @return true if the two bitmaps share at least one value
+     */
+    public boolean intersects(CoverageBitmap other) {
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            char ka = keys[i], kb = other.keys[j];
+            if (ka < kb) {
+                i++;
+            } else if (ka > kb) {
+                j++;
+            } else if (containers[i++].intersects(other.containers[j++])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Union of any number of bitmaps. Containers of each chunk are merged at
+     * once, dense chunks are accumulated into a single bitmap container and
+     * their cardinality is computed only once.
+     *
+     * @param bitmaps
+     * @return union of the bitmaps
+     */
+    public static CoverageBitmap or(List<CoverageBitmap> bitmaps) {
+        int n = bitmaps.size();
+        //position of the next chunk of each bitmap
+        int[] next = new int[n];
+        CoverageBitmap result = new CoverageBitmap();
+        while (true) {
+            int key = Integer.MAX_VALUE;
+            for (int b = 0; b < n; b++) {
+                CoverageBitmap bitmap = bitmaps.get(b);
+                if (next[b] < bitmap.size) {
+                    key = Math.min(key, bitmap.keys[next[b]]);
+                }
+            }
+            if (key == Integer.MAX_VALUE) {
+                return result;
+            }
+            int count = 0;
+            int cardinality = 0;
+            Container single = null;
+            for (int b = 0; b < n; b++) {
+                CoverageBitmap bitmap = bitmaps.get(b);
+                if (next[b] < bitmap.size && bitmap.keys[next[b]] == key) {
+                    single = bitmap.containers[next[b]];
+                    cardinality += single.getCardinality();
+                    count++;
+                }
+            }
+            Container merged;
+            if (count == 1) {
+                merged = single.copy();
+            } else if (cardinality > Container.MAX_ARRAY_SIZE) {
+                BitmapContainer dense = new BitmapContainer();
+                for (int b = 0; b < n; b++) {
+                    CoverageBitmap bitmap = bitmaps.get(b);
+                    if (next[b] < bitmap.size && bitmap.keys[next[b]] == key) {
+                        dense.lazyOr(bitmap.containers[next[b]]);
+                    }
+                }
+                merged = dense.repairCardinality();
+            } else {
+                merged = new ArrayContainer();
+                for (int b = 0; b < n; b++) {
+                    CoverageBitmap bitmap = bitmaps.get(b);
+                    if (next[b] < bitmap.size && bitmap.keys[next[b]] == key) {
+                        merged = merged.ior(bitmap.containers[next[b]]);
+                    }
+                }
+            }
+            for (int b = 0; b < n; b++) {
+                CoverageBitmap bitmap = bitmaps.get(b);
+                if (next[b] < bitmap.size && bitmap.keys[next[b]] == key) {
+                    next[b]++;
+                }
+            }
+            result.append((char) key, merged);
+        }
+    }
+
+    /**
+     * In place union
+     *
+     * @param other
+     */
+    public void or(CoverageBitmap other) {
+        if (other == this) {
+            return;
+        }
+        //chunks of other missing in this bitmap
+        int missing = 0;
+        int i = 0;
+        for (int j = 0; j < other.size; j++) {
+            while (i < size && keys[i] < other.keys[j]) {
+                i++;
+            }
+            if (i >= size || keys[i] != other.keys[j]) {
+                missing++;
+            }
+        }
+        int total = size + missing;
+        if (keys.length < total) {
+            keys = Arrays.copyOf(keys, total);
+            containers = Arrays.copyOf(containers, total);
+        }
+        //merged from the end, so that the chunks of this bitmap are moved before they are overwritten
+        i = size - 1;
+        int j = other.size - 1;
+        int k = total - 1;
+        while (j >= 0) {
+            if (i >= 0 && keys[i] > other.keys[j]) {
+                keys[k] = keys[i];
+                containers[k--] = containers[i--];
+            } else if (i >= 0 && keys[i] == other.keys[j]) {
+                keys[k] = keys[i];
+                containers[k--] = containers[i--].ior(other.containers[j--]);
+            } else {
+                keys[k] = other.keys[j];
+                containers[k--] = other.containers[j--].copy();
+            }
+        }
+        size = total;
+    }
+
+    /**
+     * In place intersection
+     *
+     * @param other
+     */
+    public void and(CoverageBitmap other) {
+        if (other == this) {
+            return;
+        }
+        int k = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                Container c = containers[i].iand(other.containers[j]);
+                if (c.getCardinality() > 0) {
+                    keys[k] = keys[i];
+                    containers[k++] = c;
+                }
+            }
+        }
+        Arrays.fill(containers, k, size, null);
+        size = k;
+    }
+
+    /**
+     * In place difference
+     *
+     * @param other
+     */
+    public void andNot(CoverageBitmap other) {
+        if (other == this) {
+            Arrays.fill(containers, 0, size, null);
+            size = 0;
+            return;
+        }
+        int k = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container c = containers[i];
+            if (j < other.size && other.keys[j] == keys[i]) {
+                c = c.iandNot(other.containers[j]);
+            }
+            if (c.getCardinality() > 0) {
+                keys[k] = keys[i];
+                containers[k++] = c;
+            }
+        }
+        Arrays.fill(containers, k, size, null);
+        size = k;
+    }
+
+    private void append(char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2 + 1);
+            containers = Arrays.copyOf(containers, size * 2 + 1);
+        }
+        keys[size] = key;
+        containers[size++] = c;
+    }
+
+    /**
+     *
+     * @return deep copy of this bitmap
+     */
+    public CoverageBitmap copy() {
+        Container[] copied = new Container[Math.max(size, 1)];
+        for (int i = 0; i < size; i++) {
+            copied[i] = containers[i].copy();
+        }
+        return new CoverageBitmap(Arrays.copyOf(keys, Math.max(size, 1)), copied, size);
+    }
+
+    /**
+     * Passes values to the consumer in ascending order
+     *
+     * @param consumer
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     *
+     * @return values in ascending order
+     */
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int[] pos = new int[1];
+        forEach((x) -> result[pos[0]++] = x);
+        return result;
+    }
+
+    /**
+     *
+     * @return iterator over values in ascending order
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        int[] values = toArray();
+        return new PrimitiveIterator.OfInt() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < values.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (pos >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[pos++];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CoverageBitmap)) {
+            return false;
+        }
+        CoverageBitmap other = (CoverageBitmap) o;
+        return size == other.size && getCardinality() == other.getCardinality() && andCardinality(this, other) == getCardinality();
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = new int[]{size};
+        forEach((x) -> hash[0] = 31 * hash[0] + x);
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        String[] sep = new String[]{""};
+        forEach((x) -> {
+            sb.append(sep[0]).append(x);
+            sep[0] = ",";
+        });
+        return sb.append("}").toString();
+    }
+}
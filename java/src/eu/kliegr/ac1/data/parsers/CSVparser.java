@@ -57,7 +57,11 @@ public class CSVparser {
      * @throws Exception
      */
     public static Data parseFromCSVwithHeader(String path, String targetColName, ArrayList<AttributeType> attributeTypes, String IDcolumnName, String sep) throws FileNotFoundException, Exception {
-
+        Character literalSep = getLiteralSeparator(sep);
+        if (literalSep != null) {
+            return MappedCSVLoader.parseFromCSVwithHeader(path, targetColName, attributeTypes, IDcolumnName, literalSep, Runtime.getRuntime().availableProcessors());
+        }
+        //separators which are regular expressions are processed line by line
         DataTable dataTable;
         LOGGER.log(Level.INFO, "Parsing csv file:{0}", path);
         //read first line and init data structures
@@ -92,6 +96,26 @@ public class CSVparser {
         return rmi;
     }
 
+    /**
+     *
+     * @param sep
+     * @return the ASCII character matched by the separator regular expression, null if it does not match exactly one such character
+     */
+    public static Character getLiteralSeparator(String sep) {
+        char c;
+        if (sep.length() == 1 && ".$|()[{^?*+\\".indexOf(sep.charAt(0)) == -1) {
+            c = sep.charAt(0);
+        } else if (sep.length() == 2 && sep.charAt(0) == '\\' && !Character.isLetterOrDigit(sep.charAt(1))) {
+            c = sep.charAt(1);
+        } else {
+            return null;
+        }
+        if (c > 127 || c == '\n' || c == '\r') {
+            return null;
+        }
+        return c;
+    }
+
     /**
      *
      * @param string
@@ -0,0 +1,311 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.parsers;
+
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.rule.Data;
+import static eu.kliegr.ac1.rule.parsers.ArulesParser.normInfinity;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Loads a csv file with header into a DataTable in a single pass. The file is memory mapped
+ * and split into line aligned chunks, which are tokenized in parallel into per-chunk dictionaries
+ * of distinct tokens. The chunk dictionaries are then merged into the dictionaries of the attributes
+ * in the order of the chunks, so the value codes are the same as with the line by line parser.
+ *
+ * @author tomas
+ */
+public class MappedCSVLoader {
+
+    private final static Logger LOGGER = Logger.getLogger(MappedCSVLoader.class.getName());
+    private final static int MIN_CHUNK_SIZE = 1 << 20;
+    private final static int MAX_CHUNK_SIZE = 1 << 28;
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    /**
+     *
+     * @param path
+     * @param targetColName
+     * @param attributeTypes
+     * @param IDcolumnName
+     * @param sep separator, must be an ASCII character
+     * @param threads
+     * @return
+     * @throws IOException
+     * @throws Exception
+     */
+    public static Data parseFromCSVwithHeader(String path, String targetColName, ArrayList<AttributeType> attributeTypes, String IDcolumnName, char sep, int threads) throws IOException, Exception {
+        if (sep > 127) {
+            throw new UnsupportedOperationException("Only ASCII separators are supported");
+        }
+        LOGGER.log(Level.INFO, "Parsing csv file:{0} on {1} threads", new Object[]{path, threads});
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long headerEnd = findLineEnd(channel, 0, size);
+            String[] colNames = parseHeader(channel, headerEnd, sep);
+            Data rmi = new Data();
+            DataTable dataTable = rmi.newDataTable(colNames, targetColName, attributeTypes, IDcolumnName);
+            boolean[] numerical = new boolean[colNames.length];
+            for (int i = 0; i < colNames.length; i++) {
+                numerical[i] = dataTable.getAttribute(i).getType() == AttributeType.numerical;
+            }
+            long[] bounds = getChunkBounds(channel, Math.min(headerEnd + 1, size), size, threads);
+            Chunk[] chunks = new Chunk[bounds.length - 1];
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> IntStream.range(0, chunks.length).parallel().forEach((i) -> {
+                    try {
+                        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                        chunks[i] = tokenize(buf, sep, numerical);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                })).get();
+                //attributes have independent dictionaries, chunks are merged in their order within each attribute
+                pool.submit(() -> IntStream.range(0, colNames.length).parallel().forEach((position) -> {
+                    for (Chunk chunk : chunks) {
+                        chunk.resolveCodes(dataTable, position);
+                    }
+                })).get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) ex.getCause()).getCause();
+                }
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            for (Chunk chunk : chunks) {
+                dataTable.addEncodedTransactions(chunk.codes, chunk.rows);
+            }
+            LOGGER.log(Level.INFO, "Loaded transactions:{0}", dataTable.getLoadedTransactionCount());
+            return rmi;
+        }
+    }
+
+    private static String[] parseHeader(FileChannel channel, long headerEnd, char sep) throws IOException {
+        if (headerEnd > Integer.MAX_VALUE) {
+            throw new IOException("Header line is too long");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) headerEnd);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        String line = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        String[] colNames = line.replaceAll(CSVparser.weirdCharacter, "").split(Pattern.quote(String.valueOf(sep)));
+        for (int i = 0; i < colNames.length; i++) {
+            colNames[i] = CSVparser.removeEnclosingQuotes(colNames[i]);
+        }
+        return colNames;
+    }
+
+    /**
+     *
+     * @return position of the first line feed at or after from, size if there is none
+     */
+    private static long findLineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = from;
+        while (pos < size) {
+            buf.clear();
+            int read = channel.read(buf, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    private static long[] getChunkBounds(FileChannel channel, long start, long size, int threads) throws IOException {
+        long chunkSize = (size - start) / ((long) threads * CHUNKS_PER_THREAD);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        ArrayList<Long> bounds = new ArrayList();
+        bounds.add(start);
+        long pos = start;
+        while (pos < size) {
+            long next = pos + chunkSize;
+            if (next >= size) {
+                next = size;
+            } else {
+                //the chunk ends after the line feed terminating the line it would otherwise split
+                next = Math.min(size, findLineEnd(channel, next, size) + 1);
+            }
+            bounds.add(next);
+            pos = next;
+        }
+        return bounds.stream().mapToLong((b) -> b).toArray();
+    }
+
+    private static Chunk tokenize(ByteBuffer buf, char sep, boolean[] numerical) {
+        Chunk chunk = new Chunk(numerical.length);
+        int end = buf.limit();
+        int pos = 0;
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < end && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > pos && buf.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (contentEnd > pos) {
+                chunk.addLine(buf, pos, contentEnd, (byte) sep, numerical);
+            }
+            pos = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     *
+     * @param token
+     * @return value as it would be obtained by the line by line parser
+     */
+    static String decode(byte[] token) {
+        String value = new String(token, StandardCharsets.UTF_8);
+        if (value.contains(CSVparser.weirdCharacter)) {
+            value = value.replaceAll(CSVparser.weirdCharacter, "");
+        }
+        return CSVparser.removeEnclosingQuotes(value);
+    }
+
+    /*
+    rows of one chunk with codes from the chunk dictionaries, after resolveCodes the codes
+    of the attribute are replaced with the codes in the dictionary of the attribute
+     */
+    private static class Chunk {
+
+        final TokenDictionary[] dictionaries;
+        //local codes of tokens which cannot be parsed as numbers
+        final BitSet[] invalid;
+        int[][] codes;
+        int rows = 0;
+
+        Chunk(int columnCount) {
+            dictionaries = new TokenDictionary[columnCount];
+            invalid = new BitSet[columnCount];
+            codes = new int[columnCount][1024];
+            for (int i = 0; i < columnCount; i++) {
+                dictionaries[i] = new TokenDictionary();
+                invalid[i] = new BitSet();
+            }
+        }
+
+        void addLine(ByteBuffer buf, int from, int to, byte sep, boolean[] numerical) {
+            if (rows == codes[0].length) {
+                for (int i = 0; i < codes.length; i++) {
+                    codes[i] = Arrays.copyOf(codes[i], rows * 2);
+                }
+            }
+            int position = 0;
+            int fieldStart = from;
+            boolean valid = true;
+            for (int i = from; i <= to && valid; i++) {
+                if (i < to && buf.get(i) != sep) {
+                    continue;
+                }
+                if (position == codes.length) {
+                    LOGGER.severe("Skipping transaction - more values than attributes");
+                    return;
+                }
+                valid = addField(buf, fieldStart, i, position, numerical[position]);
+                position++;
+                fieldStart = i + 1;
+            }
+            //missing trailing values are treated as empty values
+            for (; position < codes.length && valid; position++) {
+                valid = addField(buf, to, to, position, numerical[position]);
+            }
+            if (!valid) {
+                LOGGER.severe("Skipping transaction - possibly missing value");
+                return;
+            }
+            rows++;
+        }
+
+        private boolean addField(ByteBuffer buf, int from, int to, int position, boolean numerical) {
+            TokenDictionary dictionary = dictionaries[position];
+            int size = dictionary.size();
+            int code = dictionary.getCode(buf, from, to);
+            if (numerical && code == size) {
+                String value = decode(dictionary.getToken(code));
+                if (!value.isEmpty()) {
+                    try {
+                        Float.parseFloat(normInfinity(value));
+                    } catch (java.lang.NumberFormatException e) {
+                        LOGGER.log(Level.INFO, "NumberFormatException for value {0}", value);
+                        invalid[position].set(code);
+                    }
+                }
+            }
+            codes[position][rows] = code;
+            return !invalid[position].get(code);
+        }
+
+        void resolveCodes(DataTable dataTable, int position) {
+            TokenDictionary dictionary = dictionaries[position];
+            int[] global = new int[dictionary.size()];
+            Arrays.fill(global, -1);
+            int[] column = codes[position];
+            //codes are resolved in the order of rows, so that new values are added in the order of their first occurrence
+            for (int r = 0; r < rows; r++) {
+                int local = column[r];
+                if (global[local] == -1) {
+                    global[local] = dataTable.getValueCode(position, decode(dictionary.getToken(local)));
+                }
+                column[r] = global[local];
+            }
+        }
+    }
+
+    private MappedCSVLoader() {
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.data.parsers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Assigns local codes to distinct tokens of one column of a chunk of a csv file,
+ * the tokens are compared as bytes so that no string is created for repeated values.
+ *
+ * @author tomas
+ */
+class TokenDictionary {
+
+    private int[] table = new int[64];
+    private int[] hashes = new int[16];
+    private byte[][] tokens = new byte[16][];
+    private int size = 0;
+
+    TokenDictionary() {
+        Arrays.fill(table, -1);
+    }
+
+    /**
+     *
+     * @param buf
+     * @param from first byte of the token, inclusive
+     * @param to last byte of the token, exclusive
+     * @return code of the token, new tokens get the next free code
+     */
+    int getCode(ByteBuffer buf, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf.get(i);
+        }
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != -1) {
+            int code = table[slot];
+            if (hashes[code] == hash && equals(tokens[code], buf, from, to)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == tokens.length) {
+            tokens = Arrays.copyOf(tokens, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        byte[] token = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            token[i - from] = buf.get(i);
+        }
+        tokens[size] = token;
+        hashes[size] = hash;
+        table[slot] = size;
+        size++;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     *
+     * @param code
+     * @return
+     */
+    byte[] getToken(int code) {
+        return tokens[code];
+    }
+
+    /**
+     *
+     * @return number of distinct tokens
+     */
+    int size() {
+        return size;
+    }
+
+    private static boolean equals(byte[] token, ByteBuffer buf, int from, int to) {
+        if (token.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (token[i] != buf.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = mix(hashes[code]) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code;
+        }
+    }
+}
@@ -18,11 +18,10 @@
  */
 package eu.kliegr.ac1.rule;
 
-import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
-import java.util.Optional;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -75,21 +74,32 @@ public class Antecedent {
      *
      * @return @throws NoSuchElementException
      */
-    public Set<Transaction> getSupportingTransactions() throws NoSuchElementException {
+    public CoverageBitmap getCover() throws NoSuchElementException {
 
-        LOGGER.log(Level.FINE, "Computing supporting transaction for rule with {0} items and {1} values", new Object[]{getItems().size(), getItems().stream().mapToInt((x) -> x.getAttributeValues().size()).sum()});
+        LOGGER.log(Level.FINE, "Computing supporting transaction for rule with {0} items and {1} values", new Object[]{getItems().size(), getItems().stream().mapToInt((x) -> x.getValueCount()).sum()});
 
         if (getItems().isEmpty()) {
             return null;
         }
 
-        Optional<Set<Transaction>> result = getItems().parallelStream().map((item) -> item.getSupportingTransactions()).reduce((s, s1)
-                -> {
-            s.retainAll(s1);
-            return s;
-        });
-
-        return result.get();
+        CoverageBitmap result = null;
+        DataTable table = null;
+        for (RuleMultiItem item : getItems()) {
+            if (result == null) {
+                result = item.getDataCover();
+                table = item.getAttribute().getDataTable();
+            } else {
+                result.and(item.getDataCover());
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        if (table != null) {
+            //the active mask is applied once to the intersection of item covers
+            result.and(table.getActiveTransactions());
+        }
+        return result;
 
     }
 
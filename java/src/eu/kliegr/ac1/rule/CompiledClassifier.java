@@ -0,0 +1,462 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+import eu.kliegr.ac1.data.Attribute;
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import static eu.kliegr.ac1.rule.parsers.ArulesParser.normInfinity;
+
+/**
+ * First-match classifier compiled from an ordered rule list into primitive
+ * arrays. Numeric literals with an interval or with a contiguous run of values
+ * of the attribute are stored as closed intervals, other literals as bitsets
+ * over dictionaries owned by the classifier, so scoring neither allocates nor
+ * touches the dictionaries of the data the rules were parsed against.
+ *
+ * @author tomas
+ */
+public class CompiledClassifier {
+
+    private final static Logger LOGGER = Logger.getLogger(CompiledClassifier.class.getName());
+    private final static int BLOCK_SIZE = 4096;
+
+    private final List<? extends RuleInt> rules;
+    //attributes used in the rules, literals refer to them by slot
+    final ArrayList<String> slotNames = new ArrayList();
+    final ArrayList<Boolean> slotNumeric = new ArrayList();
+    //value dictionaries of the slots, numeric values are keyed by numericKey
+    final ArrayList<HashMap<String, Integer>> slotDictionaries = new ArrayList();
+    private final ArrayList<String> classLabels = new ArrayList();
+    private final HashMap<String, Integer> classCodes = new HashMap();
+
+    //literals of rule r are at positions ruleOffsets[r] .. ruleOffsets[r+1]-1
+    final int[] ruleOffsets;
+    final int[] consequents;
+    final int[] literalSlots;
+    final float[] lowerBounds;
+    final float[] upperBounds;
+    //nominal literal l occupies bitsetLengths[l] words of nominalBits from bitsetOffsets[l]
+    final int[] bitsetOffsets;
+    final int[] bitsetLengths;
+    final long[] nominalBits;
+
+    /**
+     *
+     * @param rules rules in the order in which they are fired
+     */
+    public CompiledClassifier(List<? extends RuleInt> rules) {
+        this.rules = rules;
+        ruleOffsets = new int[rules.size() + 1];
+        consequents = new int[rules.size()];
+        int literalCount = 0;
+        for (RuleInt rule : rules) {
+            literalCount += rule.getAntecedent().getItems().size();
+        }
+        literalSlots = new int[literalCount];
+        lowerBounds = new float[literalCount];
+        upperBounds = new float[literalCount];
+        bitsetOffsets = new int[literalCount];
+        bitsetLengths = new int[literalCount];
+        ArrayList<long[]> bitsets = new ArrayList();
+        int bitsetWords = 0;
+        int l = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            RuleInt rule = rules.get(r);
+            ruleOffsets[r] = l;
+            ArrayList<AttributeValue> consequentValues = rule.getConsequent().getItems().getAttributeValues();
+            if (consequentValues.size() != 1) {
+                throw new UnsupportedOperationException("Rule " + rule.getRID() + " does not have exactly one consequent value");
+            }
+            consequents[r] = getClassCode(consequentValues.get(0).getValue(), true);
+            //literals covering fewer transactions are tested first to reject rows early
+            ArrayList<RuleMultiItem> items = new ArrayList(rule.getAntecedent().getItems());
+            items.sort(Comparator.comparingInt((RuleMultiItem item) -> item.getDataCover().getCardinality()));
+            for (RuleMultiItem item : items) {
+                int slot = getSlot(item.getAttribute());
+                literalSlots[l] = slot;
+                if (slotNumeric.get(slot) && item.hasInterval()) {
+                    lowerBounds[l] = item.getIntervalLower();
+                    upperBounds[l] = item.getIntervalUpper();
+                    bitsetOffsets[l] = -1;
+                } else if (slotNumeric.get(slot) && isRange(item)) {
+                    //no other value of the attribute lies between the first and the last value
+                    lowerBounds[l] = item.getFirstValue().getNumericalValue();
+                    upperBounds[l] = item.getLastValue().getNumericalValue();
+                    bitsetOffsets[l] = -1;
+                } else {
+                    HashMap<String, Integer> dictionary = slotDictionaries.get(slot);
+                    int[] codes = new int[item.getAttributeValues().size()];
+                    int maxCode = -1;
+                    for (int i = 0; i < codes.length; i++) {
+                        AttributeValue val = item.getAttributeValues().get(i);
+                        String key = slotNumeric.get(slot) ? numericKey(val.getNumericalValue()) : val.getValue();
+                        codes[i] = dictionary.computeIfAbsent(key, (k) -> dictionary.size());
+                        maxCode = Math.max(maxCode, codes[i]);
+                    }
+                    long[] bits = new long[(maxCode >> 6) + 1];
+                    for (int code : codes) {
+                        bits[code >> 6] |= 1L << code;
+                    }
+                    bitsets.add(bits);
+                    bitsetOffsets[l] = bitsetWords;
+                    bitsetLengths[l] = bits.length;
+                    bitsetWords += bits.length;
+                }
+                l++;
+            }
+        }
+        ruleOffsets[rules.size()] = l;
+        nominalBits = new long[bitsetWords];
+        int offset = 0;
+        for (long[] bits : bitsets) {
+            System.arraycopy(bits, 0, nominalBits, offset, bits.length);
+            offset += bits.length;
+        }
+        LOGGER.log(Level.INFO, "Compiled {0} rules with {1} literals over {2} attributes", new Object[]{rules.size(), literalCount, slotNames.size()});
+    }
+
+    //NaN is sorted after all numbers, so it can only be the first or the last value
+    private static boolean isRange(RuleMultiItem item) {
+        return item.isAdjacent() && item.getValueCount() > 0 && !Float.isNaN(item.getFirstValue().getNumericalValue()) && !Float.isNaN(item.getLastValue().getNumericalValue());
+    }
+
+    //-0.0 and 0.0 are the same value
+    static String numericKey(float f) {
+        return Float.toString(f + 0.0f);
+    }
+
+    private int getSlot(Attribute at) {
+        int slot = slotNames.indexOf(at.getName());
+        if (slot < 0) {
+            slot = slotNames.size();
+            slotNames.add(at.getName());
+            boolean numeric = at.getType() == AttributeType.numerical;
+            slotNumeric.add(numeric);
+            slotDictionaries.add(new HashMap());
+        }
+        return slot;
+    }
+
+    private int getClassCode(String label, boolean create) {
+        Integer code = classCodes.get(label);
+        if (code == null) {
+            if (!create) {
+                return -1;
+            }
+            code = classLabels.size();
+            classLabels.add(label);
+            classCodes.put(label, code);
+        }
+        return code;
+    }
+
+    /**
+     *
+     * @param classCode
+     * @return class value assigned to the code, null for -1
+     */
+    public String getClassLabel(int classCode) {
+        return classCode < 0 ? null : classLabels.get(classCode);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getClassCount() {
+        return classLabels.size();
+    }
+
+    /**
+     *
+     * @param ruleIndex
+     * @return rule at the position in the firing order
+     */
+    public RuleInt getRule(int ruleIndex) {
+        return rules.get(ruleIndex);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRuleCount() {
+        return consequents.length;
+    }
+
+    /**
+     * Translates value codes of a data table to the representation used by the
+     * classifier. The translation is computed once per distinct value, the
+     * binding is valid until new values or transactions are added to the
+     * table.
+     *
+     * @param table
+     * @return
+     * @throws AttributeNotFoundException
+     */
+    public Binding bind(DataTable table) throws AttributeNotFoundException {
+        int slots = slotNames.size();
+        Binding binding = new Binding(slots, table.getLoadedTransactionCount());
+        for (int s = 0; s < slots; s++) {
+            Attribute at = table.getAttribute(slotNames.get(s));
+            if (at == null) {
+                throw new AttributeNotFoundException("Attribute " + slotNames.get(s) + " used in rules not found in data");
+            }
+            boolean numeric = at.getType() == AttributeType.numerical;
+            if (numeric != slotNumeric.get(s)) {
+                throw new UnsupportedOperationException("Attribute " + slotNames.get(s) + " has a different type in rules and in data");
+            }
+            int size = at.getDictionarySize();
+            int[] column = table.getColumn(at);
+            if (table.hasUnsetValues()) {
+                //values which are not set get code size, which does not match any literal
+                column = Arrays.copyOf(column, binding.rowCount);
+                for (int row = 0; row < column.length; row++) {
+                    if (column[row] < 0) {
+                        column[row] = size;
+                    }
+                }
+            }
+            binding.columns[s] = column;
+            HashMap<String, Integer> dictionary = slotDictionaries.get(s);
+            if (numeric) {
+                float[] byCode = new float[size + 1];
+                for (int code = 0; code < size; code++) {
+                    byCode[code] = at.getValueByCode(code).getNumericalValue();
+                }
+                byCode[size] = Float.NaN;
+                binding.numericByCode[s] = byCode;
+            }
+            //numeric slots need it for literals stored as bitsets
+            int[] byCode = new int[size + 1];
+            for (int code = 0; code < size; code++) {
+                AttributeValue val = at.getValueByCode(code);
+                byCode[code] = dictionary.getOrDefault(numeric ? numericKey(val.getNumericalValue()) : val.getValue(), -1);
+            }
+            byCode[size] = -1;
+            binding.nominalByCode[s] = byCode;
+        }
+        return binding;
+    }
+
+    /**
+     * Creates a binding for rows which are not stored in a data table. Each row
+     * has its own code, the values are set with setValue.
+     *
+     * @param capacity number of rows
+     * @return
+     */
+    public Binding newBatch(int capacity) {
+        int slots = slotNames.size();
+        Binding batch = new Binding(slots, capacity);
+        int[] rows = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            rows[i] = i;
+        }
+        for (int s = 0; s < slots; s++) {
+            batch.columns[s] = rows;
+            if (slotNumeric.get(s)) {
+                batch.numericByCode[s] = new float[capacity];
+            }
+            batch.nominalByCode[s] = new int[capacity];
+            batch.segmentByCode[s] = new int[capacity];
+        }
+        return batch;
+    }
+
+    /**
+     * Sets value of an attribute in a row of a batch created with newBatch.
+     * Missing and unparseable numeric values do not match any literal.
+     *
+     * @param batch
+     * @param slot see getSlotName
+     * @param row
+     * @param value
+     */
+    public void setValue(Binding batch, int slot, int row, String value) {
+        if (slotNumeric.get(slot)) {
+            float f = Float.NaN;
+            int code = -1;
+            if (value != null && !value.isEmpty()) {
+                try {
+                    f = Float.parseFloat(normInfinity(value));
+                    code = slotDictionaries.get(slot).getOrDefault(numericKey(f), -1);
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.FINE, "Value {0} of {1} is not a number", new Object[]{value, slotNames.get(slot)});
+                }
+            }
+            batch.numericByCode[slot][row] = f;
+            batch.nominalByCode[slot][row] = code;
+        } else {
+            batch.nominalByCode[slot][row] = slotDictionaries.get(slot).getOrDefault(value, -1);
+        }
+        updateSegment(batch, slot, row);
+    }
+
+    //hook for classifiers which translate values further, called after the value with the code was set
+    void updateSegment(Binding binding, int slot, int code) {
+    }
+
+    /**
+     *
+     * @return number of attributes used in the rules
+     */
+    public int getSlotCount() {
+        return slotNames.size();
+    }
+
+    /**
+     *
+     * @param slot
+     * @return name of the attribute
+     */
+    public String getSlotName(int slot) {
+        return slotNames.get(slot);
+    }
+
+    /**
+     * Classifies rows from (inclusive) to to (exclusive) of the bound table
+     * without allocating. Rows not covered by any rule get -1.
+     *
+     * @param binding
+     * @param from
+     * @param to
+     * @param classOut receives class codes, indexed by row
+     * @param ruleOut receives indexes of the firing rules, indexed by row, can
+     * be null
+     */
+    public void score(Binding binding, int from, int to, int[] classOut, int[] ruleOut) {
+        int[][] columns = binding.columns;
+        float[][] numericByCode = binding.numericByCode;
+        int[][] nominalByCode = binding.nominalByCode;
+        int ruleCount = consequents.length;
+        for (int row = from; row < to; row++) {
+            int firing = -1;
+            for (int r = 0; r < ruleCount && firing < 0; r++) {
+                int end = ruleOffsets[r + 1];
+                int l = ruleOffsets[r];
+                for (; l < end; l++) {
+                    int slot = literalSlots[l];
+                    int code = columns[slot][row];
+                    int offset = bitsetOffsets[l];
+                    if (offset < 0) {
+                        float v = numericByCode[slot][code];
+                        //NaN fails both comparisons
+                        if (!(v >= lowerBounds[l] && v <= upperBounds[l])) {
+                            break;
+                        }
+                    } else {
+                        int c = nominalByCode[slot][code];
+                        if (c < 0 || (c >> 6) >= bitsetLengths[l] || (nominalBits[offset + (c >> 6)] & (1L << c)) == 0) {
+                            break;
+                        }
+                    }
+                }
+                if (l == end) {
+                    firing = r;
+                }
+            }
+            classOut[row] = firing < 0 ? -1 : consequents[firing];
+            if (ruleOut != null) {
+                ruleOut[row] = firing;
+            }
+        }
+    }
+
+    /**
+     * Classifies all loaded transactions of the table, blocks of rows are
+     * scored in parallel.
+     *
+     * @param table
+     * @param threads
+     * @return class codes and indexes of firing rules, both indexed by row
+     * (internalTID - firstTID)
+     * @throws AttributeNotFoundException
+     */
+    public int[][] classify(DataTable table, int threads) throws AttributeNotFoundException {
+        Binding binding = bind(table);
+        int n = binding.rowCount;
+        int[] classes = new int[n];
+        int[] firingRules = new int[n];
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (threads <= 1 || blocks <= 1) {
+            score(binding, 0, n, classes, firingRules);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> IntStream.range(0, blocks).parallel().forEach((b) -> {
+                    score(binding, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE), classes, firingRules);
+                })).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while classifying", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new int[][]{classes, firingRules};
+    }
+
+    /**
+     * Data table columns with their values translated to the classifier
+     * representation.
+     */
+    public static class Binding {
+
+        final int rowCount;
+        final int[][] columns;
+        final float[][] numericByCode;
+        final int[][] nominalByCode;
+        //used by RuleIndex
+        final int[][] segmentByCode;
+
+        Binding(int slots, int rowCount) {
+            this.rowCount = rowCount;
+            columns = new int[slots][];
+            numericByCode = new float[slots][];
+            nominalByCode = new int[slots][];
+            segmentByCode = new int[slots][];
+        }
+
+        /**
+         *
+         * @return
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+    }
+}
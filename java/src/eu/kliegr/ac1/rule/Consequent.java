@@ -18,9 +18,8 @@
  */
 package eu.kliegr.ac1.rule;
 
-import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import java.util.NoSuchElementException;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -51,8 +50,8 @@ public class Consequent {
      *
      * @return @throws NoSuchElementException
      */
-    public Set<Transaction> getSupportingTransactions() throws NoSuchElementException {
-        return getItems().getSupportingTransactions();
+    public CoverageBitmap getCover() throws NoSuchElementException {
+        return getItems().getCover();
 
     }
 
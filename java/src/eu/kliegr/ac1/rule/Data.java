@@ -103,6 +103,29 @@ public class Data {
         return rmi;
     }
 
+    /**
+     * Makes item for values parsed from an interval. The interval is kept in
+     * the item, items are cached per attribute and interval.
+     *
+     * @param values
+     * @param attributeName
+     * @param leftMargin
+     * @param fromInclusive
+     * @param rightMargin
+     * @param toInclusive
+     * @return
+     */
+    public RuleMultiItem makeRuleItem(ArrayList<AttributeValue> values, String attributeName, float leftMargin, boolean fromInclusive, float rightMargin, boolean toInclusive) {
+        String qualifier = attributeName + (fromInclusive ? "[" : "(") + leftMargin + ";" + rightMargin + (toInclusive ? "]" : ")");
+        RuleMultiItem rmi = cache.get(values, qualifier);
+        if (rmi == null) {
+            rmi = new RuleMultiItem(values, dt.getAttribute(attributeName));
+            rmi.setInterval(leftMargin, fromInclusive, rightMargin, toInclusive);
+            cache.put(rmi, qualifier);
+        }
+        return rmi;
+    }
+
     /*
     this method is intended for run time derivation of rule multi items and does not use caching
     since rmis with the same underlying attribute values can have e.g. different origin properties
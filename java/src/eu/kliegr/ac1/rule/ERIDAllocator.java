@@ -0,0 +1,76 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+/**
+ * Source of placeholder extended rule IDs (ERIDs) for one task in parallel
+ * processing of seed rules.
+ *
+ * The allocator hands out negative placeholder ERIDs -3, -4, ..., which are
+ * replaced by final ERIDs once it is known in which order the results of the
+ * tasks are committed (see {@link #resolveProvisional(int, int)}). Resolving
+ * the tasks in the order of seed rules gives the same ERIDs as sequential
+ * processing, regardless of thread scheduling.
+ *
+ * @author tomas
+ */
+public final class ERIDAllocator {
+
+    //placeholder ERIDs start below -2, which is used for the default rule
+    private static final int FIRST_PROVISIONAL = -3;
+    private int allocated = 0;
+
+    /**
+     *
+     * @return next placeholder ERID for this task
+     */
+    public int next() {
+        return Math.subtractExact(FIRST_PROVISIONAL, allocated++);
+    }
+
+    /**
+     *
+     * @return number of ERIDs returned by this allocator
+     */
+    public int getAllocatedCount() {
+        return allocated;
+    }
+
+    /**
+     *
+     * @param erid
+     * @return true if the ERID is a placeholder returned by an allocator
+     */
+    public static boolean isProvisional(int erid) {
+        return erid <= FIRST_PROVISIONAL;
+    }
+
+    /**
+     *
+     * @param erid
+     * @param base final ERID for the first placeholder of the allocator
+     * @return final ERID for a placeholder ERID, other ERIDs are returned unchanged
+     */
+    public static int resolveProvisional(int erid, int base) {
+        if (!isProvisional(erid)) {
+            return erid;
+        }
+        return base + (FIRST_PROVISIONAL - erid);
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+import eu.kliegr.ac1.data.Attribute;
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import eu.kliegr.ac1.rule.extend.Distribution;
+import eu.kliegr.ac1.rule.extend.DistributionFactory;
+import eu.kliegr.ac1.rule.extend.TestRuleAnnotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Mixture classification over primitive tables. The class distribution of
+ * each value matched by each rule item is computed once from the rule
+ * annotations, the rules matching each row are stored in a flat array and the
+ * rows are scored in parallel with per-thread scratch buffers. Produces the
+ * same predictions as TestRules.classifyDataMixture with one prediction per
+ * transaction.
+ *
+ * @author tomas
+ */
+public class MixtureClassifier {
+
+    private final static Logger LOGGER = Logger.getLogger(MixtureClassifier.class.getName());
+    private final static int BLOCK_SIZE = 1024;
+
+    /**
+     * row is covered by several rules and classified by their mixture
+     */
+    public final static int MIXTURE = -1;
+
+    /**
+     * row is not covered by any rule
+     */
+    public final static int UNCOVERED = -2;
+
+    private final ArrayList<TestRule> rules;
+    private final Data data;
+    private final DataTable table;
+    private final DistributionFactory distributionFactory = new DistributionFactory();
+    private final int classCount;
+    //attributes used in the rules indexed by AID
+    private final Attribute[] attributes;
+    private final int attributeCount;
+    private final float[] ruleWeights;
+    //literals of rule r are at positions ruleOffsets[r] .. ruleOffsets[r+1]-1
+    private final int[] ruleOffsets;
+    private final int[] literalAttributes;
+    //sorted codes of the values of literal l are at positions valueOffsets[l] .. valueOffsets[l+1]-1
+    private final int[] valueOffsets;
+    private final int[] valueCodes;
+    //class distribution of the value at position p starts at p * classCount
+    private final float[] distributions;
+    private final boolean[] hasDistribution;
+    private final boolean[] fuzzyBorder;
+
+    private int[][] columns;
+    //results indexed by row (internalTID - firstTID)
+    private int[] firingRules;
+    private int[] classes;
+    private float[] trusts;
+
+    /**
+     *
+     * @param rules annotated rules
+     * @param data
+     */
+    public MixtureClassifier(ArrayList<TestRule> rules, Data data) {
+        this.rules = rules;
+        this.data = data;
+        this.table = data.getDataTable();
+        int maxAID = -1;
+        for (TestRule rule : rules) {
+            for (RuleMultiItem item : rule.getAntecedent().getItems()) {
+                maxAID = Math.max(maxAID, item.getAttribute().AID);
+            }
+        }
+        attributeCount = maxAID + 1;
+        attributes = new Attribute[attributeCount];
+        ruleWeights = new float[rules.size()];
+        ruleOffsets = new int[rules.size() + 1];
+        int literalCount = 0;
+        for (TestRule rule : rules) {
+            literalCount += rule.getAntecedent().getItems().size();
+        }
+        literalAttributes = new int[literalCount];
+        valueOffsets = new int[literalCount + 1];
+        ArrayList<Integer> codes = new ArrayList();
+        ArrayList<float[]> valueDistributions = new ArrayList();
+        ArrayList<Boolean> fuzzy = new ArrayList();
+        int l = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            TestRule rule = rules.get(r);
+            if (!(rule.getAnnotation() instanceof TestRuleAnnotation)) {
+                throw new UnsupportedOperationException("Mixture classification requires annotated rules, rule " + rule.getRID() + " has no annotation");
+            }
+            TestRuleAnnotation annotation = (TestRuleAnnotation) rule.getAnnotation();
+            ruleWeights[r] = (float) rule.getSupport();
+            ruleOffsets[r] = l;
+            for (RuleMultiItem item : rule.getAntecedent().getItems()) {
+                literalAttributes[l] = item.getAttribute().AID;
+                attributes[item.getAttribute().AID] = item.getAttribute();
+                valueOffsets[l] = codes.size();
+                AttributeValue[] values = item.getAttributeValues().toArray(new AttributeValue[0]);
+                Arrays.sort(values, (v1, v2) -> Integer.compare(v1.getCode(), v2.getCode()));
+                for (AttributeValue val : values) {
+                    codes.add(val.getCode());
+                    //values without transactions are never looked up
+                    if (val.getDataCover().isEmpty()) {
+                        valueDistributions.add(null);
+                        fuzzy.add(false);
+                        continue;
+                    }
+                    Distribution distr = annotation.getDistributionForValue(val, distributionFactory);
+                    valueDistributions.add(distr == null ? null : distr.getProbs());
+                    fuzzy.add(rule.isInFuzzyBorder(item, val));
+                }
+                l++;
+            }
+        }
+        ruleOffsets[rules.size()] = l;
+        valueOffsets[literalCount] = codes.size();
+        classCount = distributionFactory.getConsequentCount();
+        valueCodes = new int[codes.size()];
+        distributions = new float[codes.size() * classCount];
+        hasDistribution = new boolean[codes.size()];
+        fuzzyBorder = new boolean[codes.size()];
+        for (int p = 0; p < valueCodes.length; p++) {
+            valueCodes[p] = codes.get(p);
+            fuzzyBorder[p] = fuzzy.get(p);
+            float[] probs = valueDistributions.get(p);
+            if (probs != null) {
+                hasDistribution[p] = true;
+                System.arraycopy(probs, 0, distributions, p * classCount, classCount);
+            }
+        }
+        LOGGER.log(Level.INFO, "Compiled {0} rules with {1} literal values and {2} classes", new Object[]{rules.size(), valueCodes.length, classCount});
+    }
+
+    /**
+     * Classifies all loaded transactions.
+     *
+     * @param threads
+     */
+    public void classify(int threads) {
+        int n = table.getLoadedTransactionCount();
+        int firstTID = table.firstTID;
+        columns = new int[attributeCount][];
+        for (int a = 0; a < attributeCount; a++) {
+            if (attributes[a] != null) {
+                columns[a] = table.getColumn(attributes[a]);
+            }
+        }
+        //rules matching row i are matches[matchOffsets[i]] .. matches[matchOffsets[i+1]-1] in the rule order
+        CoverageBitmap[] covers = new CoverageBitmap[rules.size()];
+        int[] matchOffsets = new int[n + 1];
+        for (int r = 0; r < rules.size(); r++) {
+            covers[r] = rules.get(r).fireRuleAgainstData(false, data);
+            covers[r].forEach((internalTID) -> matchOffsets[internalTID - firstTID + 1]++);
+        }
+        int maxMatches = 0;
+        for (int i = 0; i < n; i++) {
+            maxMatches = Math.max(maxMatches, matchOffsets[i + 1]);
+            matchOffsets[i + 1] += matchOffsets[i];
+        }
+        int[] matches = new int[matchOffsets[n]];
+        int[] fill = Arrays.copyOf(matchOffsets, n);
+        for (int r = 0; r < rules.size(); r++) {
+            final int rule = r;
+            covers[r].forEach((internalTID) -> matches[fill[internalTID - firstTID]++] = rule);
+        }
+        firingRules = new int[n];
+        classes = new int[n];
+        trusts = new float[n];
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int scratchSize = maxMatches;
+        if (threads <= 1 || blocks <= 1) {
+            Scratch scratch = new Scratch(scratchSize);
+            for (int row = 0; row < n; row++) {
+                scoreRow(row, matches, matchOffsets, scratch);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(() -> new Scratch(scratchSize));
+        try {
+            pool.submit(() -> IntStream.range(0, blocks).parallel().forEach((b) -> {
+                Scratch scratch = scratches.get();
+                for (int row = b * BLOCK_SIZE; row < Math.min(n, (b + 1) * BLOCK_SIZE); row++) {
+                    scoreRow(row, matches, matchOffsets, scratch);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while classifying", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void scoreRow(int row, int[] matches, int[] matchOffsets, Scratch scratch) {
+        int from = matchOffsets[row];
+        int to = matchOffsets[row + 1];
+        if (from == to) {
+            firingRules[row] = UNCOVERED;
+            return;
+        }
+        int[] candidates = scratch.candidates;
+        int count = 0;
+        if (to - from > 1) {
+            //rules which match in the fuzzy border region are not used if there are other rules
+            for (int i = from; i < to; i++) {
+                if (!isInFuzzyBorder(matches[i], row)) {
+                    candidates[count++] = matches[i];
+                }
+            }
+        }
+        if (count == 0) {
+            count = to - from;
+            System.arraycopy(matches, from, candidates, 0, count);
+        }
+        if (count > 1 && scoreMixture(row, candidates, count, scratch)) {
+            firingRules[row] = MIXTURE;
+            return;
+        }
+        firingRules[row] = candidates[0];
+    }
+
+    private int getValuePosition(int literal, int row) {
+        int code = columns[literalAttributes[literal]][row];
+        return Arrays.binarySearch(valueCodes, valueOffsets[literal], valueOffsets[literal + 1], code);
+    }
+
+    private boolean isInFuzzyBorder(int rule, int row) {
+        for (int l = ruleOffsets[rule]; l < ruleOffsets[rule + 1]; l++) {
+            int p = getValuePosition(l, row);
+            if (p >= 0 && fuzzyBorder[p]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //distributions are averaged within attribute weighted by rule support, then across attributes
+    private boolean scoreMixture(int row, int[] candidates, int count, Scratch scratch) {
+        float[] sums = scratch.sums;
+        float[] weightSums = scratch.weightSums;
+        int[] touched = scratch.touched;
+        int touchedCount = 0;
+        for (int i = 0; i < count; i++) {
+            int r = candidates[i];
+            float w = ruleWeights[r];
+            for (int l = ruleOffsets[r]; l < ruleOffsets[r + 1]; l++) {
+                int p = getValuePosition(l, row);
+                if (p < 0 || !hasDistribution[p]) {
+                    continue;
+                }
+                int a = literalAttributes[l];
+                if (!scratch.isTouched[a]) {
+                    scratch.isTouched[a] = true;
+                    touched[touchedCount++] = a;
+                    weightSums[a] = 0;
+                    Arrays.fill(sums, a * classCount, (a + 1) * classCount, 0);
+                }
+                weightSums[a] += w;
+                for (int k = 0; k < classCount; k++) {
+                    sums[a * classCount + k] += distributions[p * classCount + k] * w;
+                }
+            }
+        }
+        if (touchedCount == 0) {
+            return false;
+        }
+        float[] result = scratch.result;
+        Arrays.fill(result, 0);
+        float attributeWeight = 1.0f / touchedCount;
+        for (int i = 0; i < touchedCount; i++) {
+            int a = touched[i];
+            scratch.isTouched[a] = false;
+            for (int k = 0; k < classCount; k++) {
+                result[k] += sums[a * classCount + k] / weightSums[a] * attributeWeight;
+            }
+        }
+        //same as DistributionFactory.getMax
+        float max = Float.MIN_VALUE;
+        int maxIndex = -1;
+        for (int k = 0; k < classCount; k++) {
+            if (result[k] > max) {
+                max = result[k];
+                maxIndex = k;
+            }
+        }
+        if (maxIndex < 0) {
+            LOGGER.severe("Distribution has all probabilities set to zero. Picking class at random to avoid failure");
+            maxIndex = ThreadLocalRandom.current().nextInt(0, classCount);
+        }
+        classes[row] = maxIndex;
+        trusts[row] = max;
+        return true;
+    }
+
+    /**
+     *
+     * @param row internalTID - firstTID
+     * @return index of the rule which classified the row, MIXTURE or UNCOVERED
+     */
+    public int getFiringRule(int row) {
+        return firingRules[row];
+    }
+
+    /**
+     *
+     * @param row internalTID - firstTID
+     * @return prediction for the row, null if the row is not covered
+     */
+    public Prediction getPrediction(int row) {
+        int r = firingRules[row];
+        if (r == UNCOVERED) {
+            return null;
+        } else if (r == MIXTURE) {
+            return new Prediction(distributionFactory.getConsequent(classes[row]), trusts[row]);
+        }
+        return new Prediction(rules.get(r).getConsequent(), rules.get(r).getConfidence());
+    }
+
+    //buffers reused across rows scored by one thread
+    private class Scratch {
+
+        final int[] candidates;
+        final float[] sums = new float[attributeCount * classCount];
+        final float[] weightSums = new float[attributeCount];
+        final boolean[] isTouched = new boolean[attributeCount];
+        final int[] touched = new int[attributeCount];
+        final float[] result = new float[classCount];
+
+        Scratch(int maxMatches) {
+            candidates = new int[maxMatches];
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+/**
+ * How rules are evaluated in classification. For mixture classification
+ * both compiled and ruleIndex select MixtureClassifier.
+ *
+ * @author tomas
+ */
+public enum PredictionEngine {
+
+    /**
+     * rules are fired one by one against the data, covered transactions are
+     * removed
+     */
+    ruleScan,
+    /**
+     * rows are scored against rules compiled to primitive arrays, see
+     * CompiledClassifier
+     */
+    compiled,
+    /**
+     * rows are scored against the per-attribute rule index, see RuleIndex
+     */
+    ruleIndex;
+}
@@ -0,0 +1,39 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+import java.io.IOException;
+
+/**
+ * Receives predictions of StreamingPredictor in the order of the rows.
+ *
+ * @author tomas
+ */
+public interface PredictionSink {
+
+    /**
+     *
+     * @param row number of the row starting from 0
+     * @param classLabel predicted class, null if no rule covers the row
+     * @param ruleIndex position of the firing rule in the rule list, -1 if no
+     * rule covers the row
+     * @throws IOException
+     */
+    void accept(long row, String classLabel, int ruleIndex) throws IOException;
+}
@@ -20,6 +20,7 @@ package eu.kliegr.ac1.rule;
 
 import eu.kliegr.ac1.data.AttributeValue;
 import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.performance.StopWatches;
 import eu.kliegr.ac1.rule.extend.ExtendRule;
 import eu.kliegr.ac1.rule.extend.ExtendType;
@@ -33,11 +34,14 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -49,6 +53,12 @@ public class PruneRules {
     private List<ExtendRule> rules;
     private Comparator ruleComparator;
     private PruneType type;
+    //number of threads computing covers of rules
+    private int parallelism = 1;
+    //number of rules per thread whose covers are held in memory at once
+    private final static int BLOCK_SIZE_PER_THREAD = 256;
+    //transactions are checked one by one once fewer than 1/SCAN_RATIO of the loaded transactions remain
+    private final static int SCAN_RATIO = 64;
     
 
     /**
@@ -79,43 +89,144 @@ public class PruneRules {
     }
 
     /**
-     *
-     * @param hideTransaction
+     * Removes rules which do not cover any transaction not covered by the
+     * rules above them, the covered transactions are removed from the data.
+     * The covers of a block of rules are computed in parallel, the block is
+     * then swept sequentially against the transactions not yet covered.
      */
      public void pruneRules() {
         LOGGER.info("STARTED Pruning");
-        for (Iterator<ExtendRule> it = rules.iterator(); it.hasNext();) {
+        if (type == PruneType.antecedentOnly) {
+            throw new UnsupportedOperationException("Antecedent only pruning type no longer supported");
+        }
+        if (rules.isEmpty()) {
+            LOGGER.info("FINISHED Removing rules with zero coverage");
+            return;
+        }
+        DataTable table = rules.get(0).getRule().getData().getDataTable();
+        CoverageBitmap remaining = table.getActiveTransactions().copy();
+        ArrayList<ExtendRule> keptRules = new ArrayList();
+        int blockSize = BLOCK_SIZE_PER_THREAD * Math.max(1, parallelism);
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            for (int blockStart = 0; blockStart < rules.size(); blockStart += blockSize) {
+                int blockEnd = Math.min(rules.size(), blockStart + blockSize);
+                CoverageBitmap[] covers = computeCovers(blockStart, blockEnd, remaining, table, pool);
+                for (int i = blockStart; i < blockEnd; i++) {
+                    ExtendRule rule = rules.get(i);
 
-            ExtendRule rule = it.next();
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "#Rule {0}", rule.toString());
+                    }
 
-            if (LOGGER.isLoggable(Level.FINE)) {
-                LOGGER.log(Level.FINE, "#Rule {0}", rule.toString());
-            }
+                    if (rule.getAntecedentLength() == 0) {
+                        LOGGER.info("Skipping default rule");
+                        keptRules.add(rule);
+                        continue;
+                    }
 
-            if (type == PruneType.antecedentOnly) {
-                throw new UnsupportedOperationException("Antecedent only pruning type no longer supported");
-            }
+                    CoverageBitmap cover = covers[i - blockStart];
+                    cover.and(remaining);
+                    int supportingTransactions = cover.getCardinality();
 
-            if (rule.getAntecedentLength() == 0) {
-                LOGGER.info("Skipping default rule");
-                continue;
+                    if (supportingTransactions == 0) {
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("0 transactions, REMOVED");
+                        }
+                        continue;
+                    }
+                    remaining.andNot(cover);
+                    keptRules.add(rule);
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "{0} transactions, RULE {1} KEPT", new Object[]{supportingTransactions, rule.getRID()});
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while pruning rules", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
             }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        CoverageBitmap covered = CoverageBitmap.andNot(table.getActiveTransactions(), remaining);
+        if (!covered.isEmpty()) {
+            table.removeTransactions(covered, false);
+        }
+        rules = Collections.synchronizedList(keptRules);
+        
+        LOGGER.info("FINISHED Removing rules with zero coverage");
+    }
 
-            int supportingTransactions = rule.removeTransactionsCoveredByAntecedent(false);
+    /* covers of the antecedents of rules in the block among the transactions not
+    covered by the preceding blocks, null for rules with empty antecedent. Once only few
+    transactions remain, the values of these transactions are checked instead of
+    intersecting the covers of the values in the rule
+     */
+    private CoverageBitmap[] computeCovers(int blockStart, int blockEnd, CoverageBitmap remaining, DataTable table, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+        CoverageBitmap[] covers = new CoverageBitmap[blockEnd - blockStart];
+        int remainingCount = remaining.getCardinality();
+        boolean scan = remainingCount < table.getLoadedTransactionCount() / SCAN_RATIO;
+        IntConsumer computeCover = (i) -> {
+            Antecedent antecedent = rules.get(i).getAntecedent();
+            if (antecedent.getItems().isEmpty()) {
+                covers[i - blockStart] = null;
+            } else if (remainingCount == 0) {
+                covers[i - blockStart] = new CoverageBitmap();
+            } else if (scan) {
+                covers[i - blockStart] = scanCover(antecedent, remaining, table);
+            } else {
+                covers[i - blockStart] = antecedent.getCover();
+            }
+        };
+        if (pool == null || remainingCount == 0) {
+            IntStream.range(blockStart, blockEnd).forEach(computeCover);
+        } else {
+            pool.submit(() -> IntStream.range(blockStart, blockEnd).parallel().forEach(computeCover)).get();
+        }
+        return covers;
+    }
 
-            if (supportingTransactions == 0) {
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.fine("0 transactions, REMOVED");
+    //transactions matching all items of the antecedent, checked one by one
+    private static CoverageBitmap scanCover(Antecedent antecedent, CoverageBitmap transactions, DataTable table) {
+        ArrayList<RuleMultiItem> items = antecedent.getItems();
+        int[][] columns = new int[items.size()][];
+        boolean[][] isItemValue = new boolean[items.size()][];
+        for (int j = 0; j < items.size(); j++) {
+            RuleMultiItem item = items.get(j);
+            columns[j] = table.getColumn(item.getAttribute());
+            isItemValue[j] = new boolean[item.getAttributeValues().stream().mapToInt((val) -> val.getCode()).max().orElse(-1) + 1];
+            for (AttributeValue val : item.getAttributeValues()) {
+                isItemValue[j][val.getCode()] = true;
+            }
+        }
+        CoverageBitmap cover = new CoverageBitmap();
+        transactions.forEach((tid) -> {
+            int row = tid - table.firstTID;
+            for (int j = 0; j < columns.length; j++) {
+                int code = columns[j][row];
+                if (code < 0 || code >= isItemValue[j].length || !isItemValue[j][code]) {
+                    return;
                 }
-                it.remove();
-            } else if (LOGGER.isLoggable(Level.FINE)) {
-                LOGGER.log(Level.FINE, "{0} transactions, RULE {1} KEPT", new Object[]{supportingTransactions, rule.getRID()});
             }
+            cover.add(tid);
+        });
+        return cover;
+    }
 
-        }
-        
-        
-        LOGGER.info("FINISHED Removing rules with zero coverage");
+    /**
+     * Number of threads computing covers of rules, values lower than 2 mean sequential processing.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
     }
      
     /**
@@ -21,6 +21,7 @@ package eu.kliegr.ac1.rule;
 import eu.kliegr.ac1.rule.extend.ExtendRule;
 import eu.kliegr.ac1.rule.extend.ExtendRuleAnnotation;
 import eu.kliegr.ac1.rule.parsers.GUHASerializerWithAnnotationSupport;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -35,21 +36,60 @@ import org.w3c.dom.Node;
 public class Rule implements RuleInt {
 
     private final static Logger LOGGER = Logger.getLogger(Rule.class.getName());
-    private static int lastERID = -1;
+    private static final AtomicInteger lastERID = new AtomicInteger(-1);
+    //when set, ERIDs for rules created by the current thread are taken from this allocator
+    private static final ThreadLocal<ERIDAllocator> threadERIDAllocator = new ThreadLocal();
 
     /**
      *
      * @return
      */
     public static int getNextERID() {
-        return ++lastERID;
+        ERIDAllocator allocator = threadERIDAllocator.get();
+        if (allocator != null) {
+            return allocator.next();
+        }
+        return lastERID.incrementAndGet();
     }
 
     /**
      *
      */
     public static void resetERIDcounter() {
-        lastERID = -1;
+        lastERID.set(-1);
+    }
+
+    /**
+     *
+     * @return last ERID assigned from the global counter
+     */
+    public static int getLastERID() {
+        return lastERID.get();
+    }
+
+    /**
+     * Makes sure that the global counter does not assign ERIDs lower or equal
+     * to erid, this must be called when placeholder ERIDs from an ERIDAllocator are resolved.
+     *
+     * @param erid
+     */
+    public static void advanceERIDcounter(int erid) {
+        lastERID.accumulateAndGet(erid, Math::max);
+    }
+
+    /**
+     *
+     * @param allocator allocator for the current thread, null to use the global counter
+     * @return previously set allocator
+     */
+    public static ERIDAllocator setThreadERIDAllocator(ERIDAllocator allocator) {
+        ERIDAllocator previous = threadERIDAllocator.get();
+        if (allocator == null) {
+            threadERIDAllocator.remove();
+        } else {
+            threadERIDAllocator.set(allocator);
+        }
+        return previous;
     }
 
     /**
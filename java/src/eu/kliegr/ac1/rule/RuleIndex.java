@@ -0,0 +1,239 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+import eu.kliegr.ac1.data.DataTable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * First-match classifier which indexes the compiled rules by attribute. The
+ * values of each attribute are split into segments by the interval bounds of
+ * all literals on the attribute and by the values of numeric literals stored
+ * as bitsets (for nominal attributes each value is a segment), every segment
+ * has a bitset of the rules compatible with it. The rules covering a row are
+ * the AND of one bitset per attribute and the firing rule is the lowest set
+ * bit.
+ *
+ * @author tomas
+ */
+public class RuleIndex extends CompiledClassifier {
+
+    private final static Logger LOGGER = Logger.getLogger(RuleIndex.class.getName());
+
+    //number of words of one rule bitset
+    private final int words;
+    //sorted distinct literal bounds of numeric slots, null for nominal slots
+    private final float[][] breakpoints;
+    //rule bitsets of the segments of each slot, segment i starts at i * words
+    private final long[][] segmentBits;
+
+    /**
+     *
+     * @param rules rules in the order in which they are fired
+     */
+    public RuleIndex(List<? extends RuleInt> rules) {
+        super(rules);
+        int ruleCount = getRuleCount();
+        words = (ruleCount + 63) >> 6;
+        int slots = slotNames.size();
+        breakpoints = new float[slots][];
+        segmentBits = new long[slots][];
+        for (int s = 0; s < slots; s++) {
+            int segments;
+            if (slotNumeric.get(s)) {
+                TreeSet<Float> bounds = new TreeSet();
+                for (int l = 0; l < literalSlots.length; l++) {
+                    if (literalSlots[l] == s && bitsetOffsets[l] < 0 && lowerBounds[l] <= upperBounds[l]) {
+                        bounds.add(normalize(lowerBounds[l]));
+                        bounds.add(normalize(upperBounds[l]));
+                    }
+                }
+                //values of literals stored as bitsets are point segments
+                for (String key : slotDictionaries.get(s).keySet()) {
+                    float f = Float.parseFloat(key);
+                    if (!Float.isNaN(f)) {
+                        bounds.add(f);
+                    }
+                }
+                breakpoints[s] = new float[bounds.size()];
+                int i = 0;
+                for (Float f : bounds) {
+                    breakpoints[s][i++] = f;
+                }
+                //a point segment for each breakpoint, open segments around them, a segment for missing values
+                //and a segment for NaN which is a value of a literal
+                segments = 2 * bounds.size() + 3;
+            } else {
+                //a segment for each value in the rules and a segment for all other values
+                segments = slotDictionaries.get(s).size() + 1;
+            }
+            long[] bits = new long[segments * words];
+            for (int seg = 0; seg < segments; seg++) {
+                for (int r = 0; r < ruleCount; r++) {
+                    bits[seg * words + (r >> 6)] |= 1L << r;
+                }
+            }
+            segmentBits[s] = bits;
+        }
+        for (int r = 0; r < ruleCount; r++) {
+            for (int l = ruleOffsets[r]; l < ruleOffsets[r + 1]; l++) {
+                int s = literalSlots[l];
+                long[] bits = segmentBits[s];
+                int segments = bits.length / words;
+                for (int seg = 0; seg < segments; seg++) {
+                    if (!isCompatible(l, seg)) {
+                        bits[seg * words + (r >> 6)] &= ~(1L << r);
+                    }
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "Indexed {0} rules, {1} words per segment", new Object[]{ruleCount, words});
+    }
+
+    //-0.0 and 0.0 must fall to the same segment
+    private static float normalize(float f) {
+        return f + 0.0f;
+    }
+
+    private boolean isCompatible(int literal, int segment) {
+        int s = literalSlots[literal];
+        if (breakpoints[s] == null) {
+            int offset = bitsetOffsets[literal];
+            return (segment >> 6) < bitsetLengths[literal] && (nominalBits[offset + (segment >> 6)] & (1L << segment)) != 0;
+        }
+        float[] b = breakpoints[s];
+        if (bitsetOffsets[literal] >= 0) {
+            //only the point segments of the values of the literal and NaN if it is one of them
+            float value;
+            if (segment == 2 * b.length + 2) {
+                value = Float.NaN;
+            } else if (segment == 2 * b.length + 1) {
+                return false;
+            } else if ((segment & 1) == 1) {
+                value = b[segment >> 1];
+            } else {
+                return false;
+            }
+            Integer c = slotDictionaries.get(s).get(numericKey(value));
+            int offset = bitsetOffsets[literal];
+            return c != null && (c >> 6) < bitsetLengths[literal] && (nominalBits[offset + (c >> 6)] & (1L << c)) != 0;
+        }
+        float lower = lowerBounds[literal];
+        float upper = upperBounds[literal];
+        if (segment > 2 * b.length) {
+            //missing values
+            return false;
+        }
+        if ((segment & 1) == 1) {
+            float point = b[segment >> 1];
+            return lower <= point && point <= upper;
+        }
+        int i = segment >> 1;
+        float low = i == 0 ? Float.NEGATIVE_INFINITY : b[i - 1];
+        float high = i == b.length ? Float.POSITIVE_INFINITY : b[i];
+        return lower < high && upper > low;
+    }
+
+    private int getSegment(int slot, float value) {
+        float[] b = breakpoints[slot];
+        if (Float.isNaN(value)) {
+            return 2 * b.length + 1;
+        }
+        int i = Arrays.binarySearch(b, normalize(value));
+        return i >= 0 ? 2 * i + 1 : 2 * (-i - 1);
+    }
+
+    /**
+     *
+     * @param table
+     * @return
+     * @throws AttributeNotFoundException
+     */
+    @Override
+    public Binding bind(DataTable table) throws AttributeNotFoundException {
+        Binding binding = super.bind(table);
+        for (int s = 0; s < binding.columns.length; s++) {
+            int size = breakpoints[s] != null ? binding.numericByCode[s].length : binding.nominalByCode[s].length;
+            binding.segmentByCode[s] = new int[size];
+            for (int code = 0; code < size; code++) {
+                updateSegment(binding, s, code);
+            }
+        }
+        return binding;
+    }
+
+    @Override
+    void updateSegment(Binding binding, int slot, int code) {
+        int segment;
+        if (breakpoints[slot] != null) {
+            float value = binding.numericByCode[slot][code];
+            segment = getSegment(slot, value);
+            if (Float.isNaN(value) && binding.nominalByCode[slot][code] >= 0) {
+                segment = 2 * breakpoints[slot].length + 2;
+            }
+        } else {
+            int c = binding.nominalByCode[slot][code];
+            segment = c < 0 ? slotDictionaries.get(slot).size() : c;
+        }
+        binding.segmentByCode[slot][code] = segment;
+    }
+
+    /**
+     * Classifies rows from (inclusive) to to (exclusive) of the bound table.
+     * Rows not covered by any rule get -1.
+     *
+     * @param binding
+     * @param from
+     * @param to
+     * @param classOut receives class codes, indexed by row
+     * @param ruleOut receives indexes of the firing rules, indexed by row, can
+     * be null
+     */
+    @Override
+    public void score(Binding binding, int from, int to, int[] classOut, int[] ruleOut) {
+        int[][] columns = binding.columns;
+        int[][] segmentByCode = binding.segmentByCode;
+        int slots = columns.length;
+        //start of the segment bitset of each slot for the current row, allocated once per call
+        int[] base = new int[slots];
+        for (int row = from; row < to; row++) {
+            for (int s = 0; s < slots; s++) {
+                base[s] = segmentByCode[s][columns[s][row]] * words;
+            }
+            int firing = -1;
+            for (int w = 0; w < words && firing < 0; w++) {
+                long candidates = -1L;
+                for (int s = 0; s < slots && candidates != 0; s++) {
+                    candidates &= segmentBits[s][base[s] + w];
+                }
+                if (candidates != 0) {
+                    firing = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                }
+            }
+            classOut[row] = firing < 0 ? -1 : consequents[firing];
+            if (ruleOut != null) {
+                ruleOut[row] = firing;
+            }
+        }
+    }
+}
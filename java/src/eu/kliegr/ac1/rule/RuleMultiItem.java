@@ -21,17 +21,25 @@ package eu.kliegr.ac1.rule;
 import eu.kliegr.ac1.data.Attribute;
 import eu.kliegr.ac1.data.AttributeType;
 import eu.kliegr.ac1.data.AttributeValue;
-import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.SortedAttributeValues;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.rule.extend.ValueOrigin;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Literal of a rule: attribute and a set of its values.
+ *
+ * Items derived by extension share the values of the item they were derived
+ * from and keep only the values added at the borders, so an extension takes
+ * constant time regardless of the number of values. Values of numerical items
+ * are additionally kept as a range of positions in the sorted values of the
+ * attribute, values of nominal items as a bitset of value codes.
  *
  * @author tomas
  */
@@ -43,14 +51,57 @@ public class RuleMultiItem {
      *
      */
     public static final String INTERVAL_SEPARATOR = ";";
-    private ArrayList<AttributeValue> attributeValues;
-    private ArrayList<ValueOrigin> valueOrigin;
+    //values of the item the extensions were derived from, shared by the derived items
+    private final ArrayList<AttributeValue> coreValues;
+    private final ArrayList<ValueOrigin> coreOrigins;
+    //values added below the core values, the top is the lowest value
+    private final Border lowerBorder;
+    //values added above (after for nominal attributes) the core values, the top is the last value
+    private final Border higherBorder;
+    private final int size;
+    //sorted values of attribute the range of positions refers to, null if the values are not adjacent or the attribute is nominal
+    private final SortedAttributeValues sortedValues;
+    private final int lowIndex;
+    private final int highIndex;
+    //codes of values of nominal item, null for numerical attributes
+    private final long[] valueCodes;
+    //all values and origins in order, created on first use
+    private volatile ArrayList<AttributeValue> attributeValues;
+    private volatile ArrayList<ValueOrigin> valueOrigin;
 
     /**
      *
      */
     public ValueOrigin lastModificationType;
     private Attribute attribute;
+    //closed bounds of the interval the item was parsed from, NaN if the item is defined only by its values
+    private float intervalLower = Float.NaN;
+    private float intervalUpper = Float.NaN;
+
+    //value added by extension with its origin
+    private static final class Border {
+
+        final AttributeValue value;
+        final ValueOrigin origin;
+        final Border next;
+        //number of values from this one to the bottom of the stack
+        final int depth;
+
+        Border(AttributeValue value, ValueOrigin origin, Border next) {
+            this.value = value;
+            this.origin = origin;
+            this.next = next;
+            this.depth = next == null ? 1 : next.depth + 1;
+        }
+
+        Border get(int index) {
+            Border b = this;
+            for (int i = 0; i < index; i++) {
+                b = b.next;
+            }
+            return b;
+        }
+    }
 
     /**
      *
@@ -58,13 +109,7 @@ public class RuleMultiItem {
      * @param attribute
      */
     protected RuleMultiItem(ArrayList<AttributeValue> attributeValues, Attribute attribute) {
-        this.lastModificationType = null;
-        this.attribute = attribute;
-        this.attributeValues = attributeValues;
-        valueOrigin = new ArrayList();
-        attributeValues.stream().forEach((value) -> {
-            valueOrigin.add(ValueOrigin.core);
-        });
+        this(attributeValues, new ArrayList(Collections.nCopies(attributeValues.size(), ValueOrigin.core)), attribute, null);
     }
 
     /**
@@ -79,6 +124,53 @@ public class RuleMultiItem {
         this.attribute = attribute;
         this.attributeValues = attributeValues;
         this.valueOrigin = valueOrigin;
+        this.coreValues = attributeValues;
+        this.coreOrigins = valueOrigin;
+        this.lowerBorder = null;
+        this.higherBorder = null;
+        this.size = attributeValues.size();
+        if (attribute.getType() == AttributeType.numerical) {
+            SortedAttributeValues sorted = attribute.getSortedValues();
+            int first = attributeValues.isEmpty() ? -1 : sorted.getPosition(attributeValues.get(0));
+            boolean adjacent = first >= 0 && first + size <= sorted.size();
+            for (int i = 1; i < size && adjacent; i++) {
+                adjacent = sorted.get(first + i) == attributeValues.get(i);
+            }
+            this.sortedValues = adjacent ? sorted : null;
+            this.lowIndex = adjacent ? first : -1;
+            this.highIndex = adjacent ? first + size - 1 : -1;
+            this.valueCodes = null;
+        } else {
+            this.sortedValues = null;
+            this.lowIndex = -1;
+            this.highIndex = -1;
+            long[] codes = new long[0];
+            for (AttributeValue val : attributeValues) {
+                codes = withCode(codes, val.getCode());
+            }
+            this.valueCodes = codes;
+        }
+    }
+
+    //item derived by extension of the base item
+    private RuleMultiItem(RuleMultiItem base, Border lowerBorder, Border higherBorder, int size, SortedAttributeValues sortedValues, int lowIndex, int highIndex, long[] valueCodes, ValueOrigin lastModificationType) {
+        this.lastModificationType = lastModificationType;
+        this.attribute = base.attribute;
+        this.coreValues = base.coreValues;
+        this.coreOrigins = base.coreOrigins;
+        this.lowerBorder = lowerBorder;
+        this.higherBorder = higherBorder;
+        this.size = size;
+        this.sortedValues = sortedValues;
+        this.lowIndex = lowIndex;
+        this.highIndex = highIndex;
+        this.valueCodes = valueCodes;
+    }
+
+    private static long[] withCode(long[] codes, int code) {
+        long[] result = Arrays.copyOf(codes, Math.max(codes.length, (code >> 6) + 1));
+        result[code >> 6] |= 1L << code;
+        return result;
     }
 
     /**
@@ -90,16 +182,37 @@ public class RuleMultiItem {
     }
 
     /**
+     * Values of the core are answered in constant time, values added by
+     * extension by walking their border from its outer end.
      *
      * @param val
      * @return
      */
     public ValueOrigin getValueOrigin(AttributeValue val) {
-        int index = attributeValues.indexOf(val);
+        if (sortedValues != null) {
+            int pos = sortedValues.getPosition(val);
+            if (pos < lowIndex || pos > highIndex) {
+                return null;
+            }
+            ArrayList<ValueOrigin> origins = valueOrigin;
+            if (origins != null) {
+                return origins.get(pos - lowIndex);
+            }
+            int lowerCount = lowerBorder == null ? 0 : lowerBorder.depth;
+            int higherCount = higherBorder == null ? 0 : higherBorder.depth;
+            if (pos < lowIndex + lowerCount) {
+                return lowerBorder.get(pos - lowIndex).origin;
+            }
+            if (pos > highIndex - higherCount) {
+                return higherBorder.get(highIndex - pos).origin;
+            }
+            return coreOrigins.get(pos - lowIndex - lowerCount);
+        }
+        int index = getAttributeValues().indexOf(val);
         if (index < 0) {
             return null;
         }
-        return valueOrigin.get(index);
+        return getValueOrigin().get(index);
     }
 
     /**
@@ -107,7 +220,150 @@ public class RuleMultiItem {
      * @return
      */
     public ArrayList<AttributeValue> getAttributeValues() {
-        return attributeValues;
+        ArrayList<AttributeValue> values = attributeValues;
+        if (values == null) {
+            materialize();
+            values = attributeValues;
+        }
+        return values;
+    }
+
+    /**
+     *
+     * @return number of values, does not require the list of values
+     */
+    public int getValueCount() {
+        return size;
+    }
+
+    /**
+     *
+     * @return first value or null if the item has no values
+     */
+    public AttributeValue getFirstValue() {
+        if (lowerBorder != null) {
+            return lowerBorder.value;
+        } else if (!coreValues.isEmpty()) {
+            return coreValues.get(0);
+        }
+        return size == 0 ? null : getAttributeValues().get(0);
+    }
+
+    /**
+     *
+     * @return last value or null if the item has no values
+     */
+    public AttributeValue getLastValue() {
+        if (higherBorder != null) {
+            return higherBorder.value;
+        } else if (!coreValues.isEmpty()) {
+            return coreValues.get(coreValues.size() - 1);
+        }
+        return size == 0 ? null : getAttributeValues().get(size - 1);
+    }
+
+    /**
+     *
+     * @return true if the item is numerical and its values are adjacent values of the attribute
+     */
+    public boolean isAdjacent() {
+        return sortedValues != null;
+    }
+
+    /**
+     *
+     * @param val
+     * @return true if val is one of the values of the item
+     */
+    public boolean hasValue(AttributeValue val) {
+        if (valueCodes != null) {
+            int code = val.getCode();
+            return (code >> 6) < valueCodes.length && (valueCodes[code >> 6] & (1L << code)) != 0;
+        } else if (sortedValues != null) {
+            int pos = sortedValues.getPosition(val);
+            return pos >= lowIndex && pos <= highIndex && pos >= 0;
+        }
+        return getAttributeValues().contains(val);
+    }
+
+    /**
+     * The returned array must not be modified.
+     *
+     * @return bitset of codes of values (bit code % 64 of word code / 64), null for numerical attributes
+     */
+    public long[] getValueCodes() {
+        return valueCodes;
+    }
+
+    private void materialize() {
+        ArrayList<AttributeValue> values = new ArrayList(size);
+        ArrayList<ValueOrigin> origins = new ArrayList(size);
+        for (Border b = lowerBorder; b != null; b = b.next) {
+            values.add(b.value);
+            origins.add(b.origin);
+        }
+        values.addAll(coreValues);
+        origins.addAll(coreOrigins);
+        int higherFrom = values.size();
+        for (Border b = higherBorder; b != null; b = b.next) {
+            values.add(b.value);
+            origins.add(b.origin);
+        }
+        //the higher border is stored from the last value
+        Collections.reverse(values.subList(higherFrom, values.size()));
+        Collections.reverse(origins.subList(higherFrom, origins.size()));
+        valueOrigin = origins;
+        attributeValues = values;
+    }
+
+    private void forEachValue(Consumer<AttributeValue> action) {
+        for (Border b = lowerBorder; b != null; b = b.next) {
+            action.accept(b.value);
+        }
+        coreValues.forEach(action);
+        for (Border b = higherBorder; b != null; b = b.next) {
+            action.accept(b.value);
+        }
+    }
+    /**
+     * Records the interval the item was parsed from, so that it can be matched
+     * against values which are not in the data. Open margins are converted to
+     * the adjacent float, infinite margins are inclusive.
+     *
+     * @param leftMargin
+     * @param fromInclusive
+     * @param rightMargin
+     * @param toInclusive
+     */
+    void setInterval(float leftMargin, boolean fromInclusive, float rightMargin, boolean toInclusive) {
+        intervalLower = fromInclusive || Float.isInfinite(leftMargin) ? leftMargin : Math.nextUp(leftMargin);
+        intervalUpper = toInclusive || Float.isInfinite(rightMargin) ? rightMargin : Math.nextDown(rightMargin);
+    }
+
+    /**
+     *
+     * @return true if the item was parsed from an interval
+     */
+    public boolean hasInterval() {
+        return !Float.isNaN(intervalLower);
+    }
+
+    /**
+     *
+     * @return inclusive lower bound of the interval, NaN if the item has no
+     * interval
+     */
+    public float getIntervalLower() {
+        return intervalLower;
+    }
+
+    /**
+     *
+     * @return inclusive upper bound of the interval, NaN if the item has no
+     * interval
+     */
+    public float getIntervalUpper() {
+        return intervalUpper;
     }
 
     /**
@@ -115,7 +371,12 @@ public class RuleMultiItem {
      * @return
      */
     public ArrayList<ValueOrigin> getValueOrigin() {
-        return valueOrigin;
+        ArrayList<ValueOrigin> origins = valueOrigin;
+        if (origins == null) {
+            materialize();
+            origins = valueOrigin;
+        }
+        return origins;
     }
 
     /**
@@ -146,22 +407,18 @@ public class RuleMultiItem {
      */
     public ArrayList<RuleMultiItem> getExtended_Nominal_Greedy() {
         ArrayList<RuleMultiItem> rmiCandidates = new ArrayList();
-        Collection<AttributeValue> candidates = attribute.getAllValues();
-        candidates.removeAll(attributeValues);
-        if (candidates.isEmpty()) {
+        SortedAttributeValues candidates = attribute.getSortedValues();
+        for (int i = 0; i < candidates.size(); i++) {
+            AttributeValue candidate = candidates.get(i);
+            if (hasValue(candidate)) {
+                continue;
+            }
+            Border added = new Border(candidate, ValueOrigin.extend_greedy, higherBorder);
+            rmiCandidates.add(new RuleMultiItem(this, lowerBorder, added, size + 1, null, -1, -1, valueCodes == null ? null : withCode(valueCodes, candidate.getCode()), ValueOrigin.extend_greedy));
+        }
+        if (rmiCandidates.isEmpty() && LOGGER.isLoggable(Level.FINE)) {
             LOGGER.log(Level.FINE, "Cannot perform greedy nominal extension, no values remaining on item:{0}", toString(true, true, false));
-            return rmiCandidates;
         }
-
-        ArrayList<ValueOrigin> copyValOrigin = new ArrayList(valueOrigin);
-        copyValOrigin.add(ValueOrigin.extend_greedy);
-
-        candidates.forEach((candidate) -> {
-            ArrayList<AttributeValue> copy = new ArrayList(attributeValues);
-            copy.add(candidate);
-            rmiCandidates.add(new RuleMultiItem(copy, copyValOrigin, attribute, ValueOrigin.extend_greedy));
-        });
-
         return rmiCandidates;
 
     }
@@ -178,52 +435,76 @@ public class RuleMultiItem {
             return null;
 
         }
+        if (!(extensionType == ValueOrigin.extend_lower || extensionType == ValueOrigin.extend_higher || extensionType == ValueOrigin.fuzzy_border)) {
+            throw new UnsupportedOperationException("Unsupported extension operation");
+        }
         AttributeValue toBeAddedLower = null;
         AttributeValue toBeAddedHigher = null;
-        if (extensionType == ValueOrigin.extend_lower || extensionType == ValueOrigin.fuzzy_border) {
-            if (attributeValues.isEmpty()) {
-                LOGGER.severe("Rule with zero values");
-            } else {
-
-                toBeAddedLower = attribute.getAdjacentLower(attributeValues.get(0));
+        //positions of the values in the current sorted values of the attribute, -1 if the values are not adjacent
+        SortedAttributeValues sorted = attribute.getSortedValues();
+        int low = -1;
+        int high = -1;
+        if (sortedValues == sorted) {
+            low = lowIndex;
+            high = highIndex;
+        } else if (sortedValues != null) {
+            //values were added to the attribute since the item was created
+            int first = sorted.getPosition(getFirstValue());
+            int last = sorted.getPosition(getLastValue());
+            if (first >= 0 && last - first + 1 == size) {
+                low = first;
+                high = last;
             }
-
         }
-        if (extensionType == ValueOrigin.extend_higher || extensionType == ValueOrigin.fuzzy_border) {
-            if (attributeValues.isEmpty()) {
-                LOGGER.severe("Rule with zero values");
-            } else {
-                toBeAddedHigher = attribute.getAdjacentHigher(attributeValues.get(attributeValues.size() - 1));
+        if (size == 0) {
+            LOGGER.severe("Rule with zero values");
+        } else {
+            if (extensionType == ValueOrigin.extend_lower || extensionType == ValueOrigin.fuzzy_border) {
+                if (low < 0) {
+                    toBeAddedLower = attribute.getAdjacentLower(getFirstValue());
+                } else if (low > 0) {
+                    toBeAddedLower = sorted.get(low - 1);
+                }
+            }
+            if (extensionType == ValueOrigin.extend_higher || extensionType == ValueOrigin.fuzzy_border) {
+                if (high < 0) {
+                    toBeAddedHigher = attribute.getAdjacentHigher(getLastValue());
+                } else if (high + 1 < sorted.size() && !sorted.get(high + 1).getNumericalValue().isNaN()) {
+                    //missing value is not adjacent to any value
+                    toBeAddedHigher = sorted.get(high + 1);
+                }
             }
-
-        }
-        if (!(extensionType == ValueOrigin.extend_lower || extensionType == ValueOrigin.extend_higher || extensionType == ValueOrigin.fuzzy_border)) {
-            throw new UnsupportedOperationException("Unsupported extension operation");
         }
+        //the item is printed with all values, only if it is logged
         if (toBeAddedLower == null && toBeAddedHigher == null) {
-            LOGGER.log(Level.FINE, "Cannot perform ''{0}'', no values remaining on item:{1}", new Object[]{extensionType, toString(true, true, false)});
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Cannot perform ''{0}'', no values remaining on item:{1}", new Object[]{extensionType, toString(true, true, false)});
+            }
             return null;
-        } else {
+        } else if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.log(Level.FINE, "Performing ''{0}'' on multiitem:{1}", new Object[]{extensionType, toString(true, true, false)});
         }
         /*else if(extensionState.get(toBeAdded)==ExtensionState.rejected)
         {
             System.out.println(toString()  + ": cannot extend, rejected");
         }*/
-        ArrayList<AttributeValue> copy = new ArrayList(attributeValues);
-        ArrayList<ValueOrigin> copyValOrigin = new ArrayList(valueOrigin);
+        Border lower = lowerBorder;
+        Border higher = higherBorder;
+        int newSize = size;
         if (toBeAddedLower != null) {
-            copy.add(0, toBeAddedLower);
-            copyValOrigin.add(0, extensionType);
-
+            lower = new Border(toBeAddedLower, extensionType, lower);
+            newSize++;
+            low--;
         }
         if (toBeAddedHigher != null) {
-            //order of these two commands matters
-            copyValOrigin.add(copy.size(), extensionType);
-            copy.add(copy.size(), toBeAddedHigher);
-
+            higher = new Border(toBeAddedHigher, extensionType, higher);
+            newSize++;
+            high++;
         }
-        return new RuleMultiItem(copy, copyValOrigin, attribute, extensionType);
+        if (low < 0) {
+            return new RuleMultiItem(this, lower, higher, newSize, null, -1, -1, null, extensionType);
+        }
+        return new RuleMultiItem(this, lower, higher, newSize, sorted, low, high, null, extensionType);
 
     }
 
@@ -241,14 +522,14 @@ public class RuleMultiItem {
         }
         String del = "";
 
-        if (succint & attribute.getType() == AttributeType.numerical & attributeValues.size() > 1) {
+        if (succint & attribute.getType() == AttributeType.numerical & size > 1) {
             sb.append("[");
-            sb.append(attributeValues.get(0));
+            sb.append(getFirstValue());
             sb.append(INTERVAL_SEPARATOR);
-            sb.append(attributeValues.get(attributeValues.size() - 1));
+            sb.append(getLastValue());
             sb.append("]");
         } else {
-            for (AttributeValue value : attributeValues) {
+            for (AttributeValue value : getAttributeValues()) {
                 sb.append(del);
                 sb.append(value.toString(false, valueOrigin));
 
@@ -268,15 +549,25 @@ public class RuleMultiItem {
      *
      * @return
      */
-    public Set<Transaction> getSupportingTransactions() {
-        //merges transactions supporting all values into one set
-
-        return attributeValues.parallelStream().map((value)
-                -> value.getTransactions()).
-                reduce(Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>()), (set, set2) -> {
-                    set.addAll(set2);
-                    return set;
-                });
+    public CoverageBitmap getCover() {
+        CoverageBitmap cover = getDataCover();
+        DataTable table = getAttribute().getDataTable();
+        if (table != null) {
+            //the active mask of the data table is applied once for the merged cover
+            cover.and(table.getActiveTransactions());
+        }
+        return cover;
+    }
+
+    /**
+     *
+     * @return internal TIDs of all loaded transactions supporting any of the values, including removed and hidden transactions
+     */
+    public CoverageBitmap getDataCover() {
+        //merges transactions supporting all values into one bitmap at once
+        ArrayList<CoverageBitmap> covers = new ArrayList(size);
+        forEachValue((value) -> covers.add(value.getDataCover()));
+        return CoverageBitmap.or(covers);
 
     }
 
@@ -37,8 +37,18 @@ public class RuleMultiItemCache {
      * @param rmi
      */
     public void put(RuleMultiItem rmi) {
+        put(rmi, "");
+    }
+
+    /**
+     *
+     * @param rmi
+     * @param qualifier distinguishes items with the same values, e.g. parsed
+     * from different intervals
+     */
+    public void put(RuleMultiItem rmi, String qualifier) {
         ArrayList<AttributeValue> values = rmi.getAttributeValues();
-        String hash = getHashCode(values);
+        String hash = qualifier + getHashCode(values);
 
         cache.put(hash, rmi);
     }
@@ -68,7 +78,17 @@ public class RuleMultiItemCache {
      * @return
      */
     public RuleMultiItem get(ArrayList<AttributeValue> av) {
-        String hash = getHashCode(av);
+        return get(av, "");
+    }
+
+    /**
+     *
+     * @param av
+     * @param qualifier
+     * @return
+     */
+    public RuleMultiItem get(ArrayList<AttributeValue> av, String qualifier) {
+        String hash = qualifier + getHashCode(av);
         return cache.get(hash);
     }
     private static final Logger LOG = Logger.getLogger(RuleMultiItemCache.class.getName());
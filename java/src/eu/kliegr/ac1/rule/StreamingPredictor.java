@@ -0,0 +1,172 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule;
+
+import eu.kliegr.ac1.data.parsers.CSVparser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies rows passed one at a time without loading them to a data table.
+ * Rows are buffered to a fixed size batch, which is scored when full and its
+ * predictions passed to the sink, so memory does not depend on the number of
+ * rows. The values are resolved against the dictionaries of the compiled
+ * classifier, the training data are not modified.
+ *
+ * @author tomas
+ */
+public class StreamingPredictor {
+
+    private final static Logger LOGGER = Logger.getLogger(StreamingPredictor.class.getName());
+    private final CompiledClassifier classifier;
+    private final PredictionSink sink;
+    //slot of the attribute in each input column, -1 for columns not used in the rules
+    private final int[] slotOfColumn;
+    private final CompiledClassifier.Binding batch;
+    private final int[] classes;
+    private final int[] firingRules;
+    private int batchRows = 0;
+    private long rowCount = 0;
+
+    /**
+     *
+     * @param classifier
+     * @param columnNames names of the values in the rows
+     * @param batchSize number of rows scored at once
+     * @param sink
+     * @throws AttributeNotFoundException if an attribute used in the rules is
+     * not among the columns
+     */
+    public StreamingPredictor(CompiledClassifier classifier, String[] columnNames, int batchSize, PredictionSink sink) throws AttributeNotFoundException {
+        this.classifier = classifier;
+        this.sink = sink;
+        slotOfColumn = new int[columnNames.length];
+        boolean[] mapped = new boolean[classifier.getSlotCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            slotOfColumn[i] = -1;
+            for (int s = 0; s < mapped.length; s++) {
+                if (classifier.getSlotName(s).equals(columnNames[i])) {
+                    slotOfColumn[i] = s;
+                    mapped[s] = true;
+                }
+            }
+        }
+        for (int s = 0; s < mapped.length; s++) {
+            if (!mapped[s]) {
+                throw new AttributeNotFoundException("Attribute " + classifier.getSlotName(s) + " used in rules not found in columns");
+            }
+        }
+        batch = classifier.newBatch(batchSize);
+        classes = new int[batchSize];
+        firingRules = new int[batchSize];
+    }
+
+    /**
+     * Adds a row, predictions are passed to the sink when the batch is full.
+     *
+     * @param values values ordered as the columns, missing trailing values are
+     * treated as missing
+     * @throws IOException
+     */
+    public void addRow(String[] values) throws IOException {
+        for (int i = 0; i < slotOfColumn.length; i++) {
+            if (slotOfColumn[i] >= 0) {
+                classifier.setValue(batch, slotOfColumn[i], batchRows, i < values.length ? values[i] : "");
+            }
+        }
+        batchRows++;
+        if (batchRows == classes.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Scores the buffered rows and passes their predictions to the sink.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        classifier.score(batch, 0, batchRows, classes, firingRules);
+        for (int i = 0; i < batchRows; i++) {
+            sink.accept(rowCount++, classifier.getClassLabel(classes[i]), firingRules[i]);
+        }
+        batchRows = 0;
+    }
+
+    /**
+     *
+     * @return number of rows passed to the sink
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Classifies a csv file with header line by line.
+     *
+     * @param classifier
+     * @param path
+     * @param sep regular expression separating the values
+     * @param batchSize
+     * @param sink
+     * @return number of classified rows
+     * @throws IOException
+     * @throws AttributeNotFoundException
+     */
+    public static long predictCSV(CompiledClassifier classifier, String path, String sep, int batchSize, PredictionSink sink) throws IOException, AttributeNotFoundException {
+        LOGGER.log(Level.INFO, "Streaming prediction of csv file:{0}", path);
+        Pattern separator = Pattern.compile(sep);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return 0;
+            }
+            StreamingPredictor predictor = new StreamingPredictor(classifier, tokenize(line, separator), batchSize, sink);
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    predictor.addRow(tokenize(line, separator));
+                }
+            }
+            predictor.flush();
+            LOGGER.log(Level.INFO, "Classified rows:{0}", predictor.getRowCount());
+            return predictor.getRowCount();
+        }
+    }
+
+    /**
+     * Splits csv line to values, enclosing quotes are removed.
+     *
+     * @param line
+     * @param separator
+     * @return
+     */
+    public static String[] tokenize(String line, Pattern separator) {
+        String[] items = separator.split(line.replace(CSVparser.weirdCharacter, ""));
+        for (int i = 0; i < items.length; i++) {
+            items[i] = CSVparser.removeEnclosingQuotes(items[i]);
+        }
+        return items;
+    }
+}
@@ -20,14 +20,11 @@ package eu.kliegr.ac1.rule;
 
 import eu.kliegr.ac1.data.AttributeValue;
 import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.rule.extend.ExtendRuleAnnotation;
 import eu.kliegr.ac1.rule.extend.TestRuleAnnotation;
 import eu.kliegr.ac1.rule.extend.ValueOrigin;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.NoSuchElementException;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.w3c.dom.Node;
@@ -71,20 +68,18 @@ public class TestRule implements RuleInt {
      * @param rmi
      * @return
      */
-    public Set<Transaction> fireRuleAgainstData(boolean removeCoveredTransaction, Data rmi) {
+    public CoverageBitmap fireRuleAgainstData(boolean removeCoveredTransaction, Data rmi) {
         int a_plus_b;
 
-        Set<Transaction> antecedentMatch = Collections.newSetFromMap(new HashMap<Transaction, Boolean>());
-
-        Set<Transaction> antConOverlap = null;
+        CoverageBitmap antecedentMatch = null;
         try {
-            antConOverlap = this.getAntecedent().getSupportingTransactions();
-            if (antConOverlap == null) {
+            antecedentMatch = this.getAntecedent().getCover();
+            if (antecedentMatch == null) {
                 //antecedent is empty - it has no items, and is supported by all transactions
                 a_plus_b = rmi.getDataTable().getCurrentTransactionCount();
                 LOGGER.log(Level.FINE, "Default rule coverage:{0}", a_plus_b);
             } else {
-                a_plus_b = antConOverlap.size();
+                a_plus_b = antecedentMatch.getCardinality();
             }
 
         } catch (NoSuchElementException e) {
@@ -92,35 +87,32 @@ public class TestRule implements RuleInt {
         }
         if (a_plus_b == 0) {
             testQuality = new RuleQuality(0, 0);
-            return antecedentMatch;
+            return new CoverageBitmap();
 
         }
 
+        int a;
         try {
-            if (antConOverlap != null) {
-                antecedentMatch.addAll(antConOverlap);
-                antConOverlap.retainAll(getConsequent().getSupportingTransactions());
+            if (antecedentMatch != null) {
+                a = CoverageBitmap.andCardinality(antecedentMatch, getConsequent().getCover());
             } else {
-                //if antConOverlap is null, antecedent is empty and matches all transactions
-                antConOverlap = getConsequent().getSupportingTransactions();
-                //TODO the following line may be very uneffective
-                antecedentMatch = new HashSet(rmi.getDataTable().getAllCurrentTransactions());
+                //if antecedentMatch is null, antecedent is empty and matches all transactions
+                a = getConsequent().getCover().getCardinality();
+                antecedentMatch = rmi.getDataTable().getActiveTransactions().copy();
             }
-            if (removeCoveredTransaction) {
-                //parallel stream on the following line results in inconsistency in number of false negatives
-                antecedentMatch.stream().forEach((t) -> rmi.getDataTable().removeTransaction(t, false));
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.log(Level.FINE, "Deregistered transactions: {0}", antecedentMatch.size());
-                }
-
+        } catch (NoSuchElementException e) {
+            a = 0;
+        }
+        if (removeCoveredTransaction) {
+            //parallel stream on the following line results in inconsistency in number of false negatives
+            rmi.getDataTable().removeTransactions(antecedentMatch, false);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Deregistered transactions: {0}", a_plus_b);
             }
-            int a = antConOverlap.size();
-            int b = a_plus_b - a;
-            testQuality = new RuleQuality(a, b);
 
-        } catch (NoSuchElementException e) {
-            testQuality = new RuleQuality(0, a_plus_b);
         }
+        int b = a_plus_b - a;
+        testQuality = new RuleQuality(a, b);
         return antecedentMatch;
     }
 
@@ -198,36 +190,47 @@ public class TestRule implements RuleInt {
      */
     public boolean isMatchesInFuzzyBorder(Transaction t) {
         for (RuleMultiItem rmi : rule.getAntecedent().getItems()) {
-            AttributeValue atVal = t.getValue(rmi.getAttribute());
-
-            TestRuleAnnotation annot = (TestRuleAnnotation) rule.getAnnotation();
-
-            //TODO find closest values with annotation and check if one of them has fuzzy border
-            ValueOrigin valOrig = annot.getValueOrigin(atVal);
-
-            if (valOrig == null) {
-                //for this value there is not annotation (did not appear in training data), it lies between two values
-                //that appeared in the tranining data, this will have annotation
-                AttributeValue lower = atVal.getAttribute().getAdjacentLower(atVal, true);
-                AttributeValue higher = atVal.getAttribute().getAdjacentHigher(atVal, true);
-                ValueOrigin valOrigHigher = annot.getValueOrigin(higher);
-                ValueOrigin valOrigLower = annot.getValueOrigin(lower);
-                if (valOrigHigher == null || valOrigLower == null) {
-                    LOGGER.log(Level.SEVERE, "Transaction {0} is out of bounds of rule {1} for rule item {2}", new Object[]{t, rule, rmi.toString(true, true, false)});
-                } else if (valOrigHigher == ValueOrigin.fuzzy_border || valOrigLower == ValueOrigin.fuzzy_border) {
-                    if (LOGGER.isLoggable(Level.FINE)) {
-                        LOGGER.log(Level.FINE, "Rule {0} matches in the fuzzy border region for {1}", new Object[]{this, rmi});
-                    }
-                    return true;
-                }
-            } else if (valOrig == ValueOrigin.fuzzy_border) {
+            if (isInFuzzyBorder(rmi, t.getValue(rmi.getAttribute()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param rmi item of the rule
+     * @param atVal value of the item attribute matched by the item
+     * @return true if the value lies in the fuzzy border region of the item
+     */
+    public boolean isInFuzzyBorder(RuleMultiItem rmi, AttributeValue atVal) {
+        TestRuleAnnotation annot = (TestRuleAnnotation) rule.getAnnotation();
+
+        //TODO find closest values with annotation and check if one of them has fuzzy border
+        ValueOrigin valOrig = annot.getValueOrigin(atVal);
+
+        if (valOrig == null) {
+            //for this value there is not annotation (did not appear in training data), it lies between two values
+            //that appeared in the tranining data, this will have annotation
+            AttributeValue lower = atVal.getAttribute().getAdjacentLower(atVal, true);
+            AttributeValue higher = atVal.getAttribute().getAdjacentHigher(atVal, true);
+            ValueOrigin valOrigHigher = annot.getValueOrigin(higher);
+            ValueOrigin valOrigLower = annot.getValueOrigin(lower);
+            if (valOrigHigher == null || valOrigLower == null) {
+                LOGGER.log(Level.SEVERE, "Value {0} is out of bounds of rule {1} for rule item {2}", new Object[]{atVal, rule, rmi.toString(true, true, false)});
+            } else if (valOrigHigher == ValueOrigin.fuzzy_border || valOrigLower == ValueOrigin.fuzzy_border) {
                 if (LOGGER.isLoggable(Level.FINE)) {
                     LOGGER.log(Level.FINE, "Rule {0} matches in the fuzzy border region for {1}", new Object[]{this, rmi});
                 }
                 return true;
-            } else if (LOGGER.isLoggable(Level.FINE)) {
-                LOGGER.log(Level.FINE, "Rule {0} matches in {1} region", new Object[]{this, valOrig});
             }
+        } else if (valOrig == ValueOrigin.fuzzy_border) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Rule {0} matches in the fuzzy border region for {1}", new Object[]{this, rmi});
+            }
+            return true;
+        } else if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Rule {0} matches in {1} region", new Object[]{this, valOrig});
         }
         return false;
     }
@@ -20,7 +20,9 @@ package eu.kliegr.ac1.rule;
 
 import eu.kliegr.ac1.data.Attribute;
 import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
 import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.performance.StopWatches;
 import eu.kliegr.ac1.rule.extend.Distribution;
 import eu.kliegr.ac1.rule.extend.DistributionFactory;
@@ -35,7 +37,6 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,6 +58,8 @@ public class TestRules {
     private int uncovered;
     private final Comparator ruleComparator;
     private final Data rmi;
+    private PredictionEngine engine = PredictionEngine.ruleScan;
+    private int engineThreads = 1;
 
     /**
      *
@@ -80,6 +83,17 @@ public class TestRules {
         return rules;
     }
 
+    /**
+     * Sets how first-match classification evaluates the rules.
+     *
+     * @param engine
+     * @param threads used by the compiled engines
+     */
+    public void setPredictionEngine(PredictionEngine engine, int threads) {
+        this.engine = engine;
+        this.engineThreads = threads;
+    }
+
     /**
      *
      */
@@ -96,10 +110,18 @@ public class TestRules {
         LOGGER.log(Level.INFO, "Number of rules {0}", this.rules.size());
         switch (type) {
             case mixture:
-                classifyDataMixture(1);
+                if (engine == PredictionEngine.ruleScan) {
+                    classifyDataMixture(1);
+                } else {
+                    classifyDataMixtureCompiled();
+                }
                 break;
             case firstMatch:
-                classifyDataFirstMatch();
+                if (engine == PredictionEngine.ruleScan) {
+                    classifyDataFirstMatch();
+                } else {
+                    classifyDataFirstMatchCompiled();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("This testing type is not supported");
@@ -132,7 +154,7 @@ public class TestRules {
             LOGGER.log(Level.INFO, "#{0}\n", rule);
             return rule;
         }).forEach((rule) -> {
-            Set<Transaction> covered = rule.fireRuleAgainstData(true, rmi);
+            ArrayList<Transaction> covered = rmi.getDataTable().getTransactions(rule.fireRuleAgainstData(true, rmi));
             LOGGER.log(Level.INFO, "test conf={0}\n", rule.testQuality.getConfidence());
             LOGGER.log(Level.INFO, "true positives: {0}, false positives: {1}\n", new Object[]{rule.testQuality.a, rule.testQuality.b});
             totalCorrect += rule.testQuality.a;
@@ -148,6 +170,48 @@ public class TestRules {
 
     }
 
+    /**
+     * First-match classification with the rules compiled by the selected
+     * engine. Literals match the same values as in classifyDataFirstMatch, but
+     * each rule must have exactly one consequent value and the covered
+     * transactions are not removed from the data.
+     */
+    public void classifyDataFirstMatchCompiled() {
+        allCovered = new ConcurrentSkipListMap();
+        LOGGER.info("#Begin classify\n");
+        totalCorrect = 0;
+        totalIncorrect = 0;
+        CompiledClassifier classifier = engine == PredictionEngine.ruleIndex ? new RuleIndex(rules) : new CompiledClassifier(rules);
+        int[] firingRules;
+        try {
+            firingRules = classifier.classify(rmi.getDataTable(), engineThreads)[1];
+        } catch (AttributeNotFoundException ex) {
+            throw new RuntimeException(ex);
+        }
+        CoverageBitmap[] covers = new CoverageBitmap[rules.size()];
+        for (int i = 0; i < covers.length; i++) {
+            covers[i] = new CoverageBitmap();
+        }
+        int firstTID = rmi.getDataTable().firstTID;
+        rmi.getDataTable().getActiveTransactions().forEach((internalTID) -> {
+            int r = firingRules[internalTID - firstTID];
+            if (r >= 0) {
+                covers[r].add(internalTID);
+            }
+        });
+        for (int i = 0; i < covers.length; i++) {
+            TestRule rule = rules.get(i);
+            int a = CoverageBitmap.andCardinality(covers[i], rule.getConsequent().getCover());
+            rule.testQuality = new RuleQuality(a, covers[i].getCardinality() - a);
+            totalCorrect += rule.testQuality.a;
+            totalIncorrect += rule.testQuality.b;
+            for (Transaction t : rmi.getDataTable().getTransactions(covers[i])) {
+                t.setCoveringRule(rule);
+                allCovered.put(t, new Prediction[]{new Prediction(rule.getConsequent(), rule.getConfidence())});
+            }
+        }
+    }
+
     private HashMap<Transaction, ArrayList<TestRule>> createIndexTransRule() {
         HashMap<Transaction, ArrayList<TestRule>> transWmatchingRules = new HashMap();
         rules.stream().map((rule) -> {
@@ -156,7 +220,7 @@ public class TestRules {
             }
             return rule;
         }).forEach((rule) -> {
-            Set<Transaction> covered = rule.fireRuleAgainstData(false, rmi);
+            ArrayList<Transaction> covered = rmi.getDataTable().getTransactions(rule.fireRuleAgainstData(false, rmi));
             /* build inverted index, where each transaction is associated with matching rules*/
             covered.stream().forEach((trans) -> {
                 ArrayList<TestRule> exRules = transWmatchingRules.get(trans);
@@ -230,6 +294,42 @@ public class TestRules {
         return distributionsByAttribute;
     }
 
+    /**
+     * Mixture classification with one prediction per transaction computed by
+     * MixtureClassifier.
+     */
+    public void classifyDataMixtureCompiled() {
+        oneRuleClassifications = 0;
+        mixtureClassifications = 0;
+        allCovered = new ConcurrentSkipListMap();
+        LOGGER.info("#Begin classify\n");
+        totalCorrect = 0;
+        totalIncorrect = 0;
+        MixtureClassifier classifier = new MixtureClassifier(rules, rmi);
+        classifier.classify(engineThreads);
+        DataTable dataTable = rmi.getDataTable();
+        for (int row = 0; row < dataTable.getLoadedTransactionCount(); row++) {
+            Prediction prediction = classifier.getPrediction(row);
+            if (prediction == null) {
+                continue;
+            }
+            Transaction t = dataTable.getTransaction(row + dataTable.firstTID);
+            int r = classifier.getFiringRule(row);
+            if (r == MixtureClassifier.MIXTURE) {
+                mixtureClassifications++;
+            } else {
+                oneRuleClassifications++;
+                t.setCoveringRule(rules.get(r));
+            }
+            if (prediction.consequent.getItems().getAttributeValues().contains(t.getTarget())) {
+                totalCorrect++;
+            } else {
+                totalIncorrect++;
+            }
+            allCovered.put(t, new Prediction[]{prediction});
+        }
+    }
+
     /**
      *
      * @param predictionsPerTransaction
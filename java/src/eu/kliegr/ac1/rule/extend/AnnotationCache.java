@@ -0,0 +1,167 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of annotations of rule items computed on demand. The least
+ * recently used annotations are evicted when the capacity is exceeded and
+ * computed again if they are needed later.
+ *
+ * @author tomas
+ */
+public class AnnotationCache {
+
+    private final static Logger LOGGER = Logger.getLogger(AnnotationCache.class.getName());
+
+    /**
+     * Default maximum number of cached item annotations.
+     */
+    public final static int DEFAULT_CAPACITY = 10000;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Annotation of one rule item with its values indexed.
+     */
+    static class Entry {
+
+        final RuleMultiItemAnnotation annotation;
+        final HashMap<AttributeValue, AttributeValueAnnotation> byValue = new HashMap();
+
+        Entry(RuleMultiItemAnnotation annotation) {
+            this.annotation = annotation;
+            annotation.getAnnotations().forEach((annot) -> byValue.put(annot.getValue(), annot));
+        }
+    }
+
+    //the same item can be shared by several rules, the owner is part of the key
+    private static class Key {
+
+        final TestRuleAnnotation owner;
+        final RuleMultiItem item;
+
+        Key(TestRuleAnnotation owner, RuleMultiItem item) {
+            this.owner = owner;
+            this.item = item;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).owner == owner && ((Key) o).item == item;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + System.identityHashCode(item);
+        }
+    }
+
+    /**
+     *
+     * @param capacity maximum number of cached item annotations
+     */
+    public AnnotationCache(int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            //inside LinkedHashMap the simple name Entry refers to the inherited LinkedHashMap.Entry
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, AnnotationCache.Entry> eldest) {
+                if (size() > AnnotationCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the annotation of the item, computing it if it is not cached.
+     * Annotations are computed outside of the lock, concurrent requests for
+     * the same item may compute it more than once.
+     *
+     * @param owner
+     * @param item
+     * @return
+     */
+    Entry get(TestRuleAnnotation owner, RuleMultiItem item) {
+        Key key = new Key(owner, item);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        Entry entry = new Entry(owner.compute(item));
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     *
+     * @return maximum number of cached item annotations
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     *
+     * @return number of annotations found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     *
+     * @return number of computed annotations
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     *
+     * @return number of annotations removed from the cache
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Annotation cache: %d entries, %d hits, %d misses, %d evictions", entries.size(), hits, misses, evictions);
+    }
+}
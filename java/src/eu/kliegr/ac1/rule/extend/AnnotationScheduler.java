@@ -0,0 +1,208 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.rule.Consequent;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Annotates extended rules on a dedicated pool. The rules are dispatched in
+ * the order of decreasing estimated cost, so that the most expensive rules do
+ * not end up running alone at the end. Progress can be read and the
+ * annotation cancelled from other threads, e.g. from R.
+ *
+ * @author tomas
+ */
+public class AnnotationScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(AnnotationScheduler.class.getName());
+
+    private final int threads;
+    private volatile boolean cancelled = false;
+    private volatile int totalRules = 0;
+    private volatile long totalCost = 0;
+    private final AtomicInteger annotatedRules = new AtomicInteger(0);
+    private final AtomicLong annotatedCost = new AtomicLong(0);
+
+    /**
+     *
+     * @param threads number of threads, values lower than 1 mean one thread
+     */
+    public AnnotationScheduler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Estimated cost of annotating the rule. Each item requires intersecting
+     * the covers of the other items and filling in one count per value and
+     * consequent.
+     *
+     * @param rule
+     * @param consequentCount
+     * @return
+     */
+    public static long estimateCost(ExtendRule rule, int consequentCount) {
+        ArrayList<RuleMultiItem> items = rule.getAntecedent().getItems();
+        long cost = 0;
+        for (RuleMultiItem item : items) {
+            cost += items.size() + (long) item.getValueCount() * consequentCount;
+        }
+        return cost;
+    }
+
+    /**
+     * Annotates the rules, most expensive first. If the annotation is
+     * cancelled, the rules not yet started are left without annotation.
+     *
+     * @param rules
+     * @param consequents
+     * @return rules left without annotation, empty unless cancelled
+     */
+    public List<ExtendRule> annotate(List<ExtendRule> rules, ArrayList<Consequent> consequents) {
+        int n = rules.size();
+        long[] costs = new long[n];
+        ArrayList<Integer> order = new ArrayList();
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            costs[i] = estimateCost(rules.get(i), consequents.size());
+            sum += costs[i];
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong((Integer i) -> costs[i]).reversed());
+        totalRules = n;
+        totalCost = sum;
+        annotatedRules.set(0);
+        annotatedCost.set(0);
+        boolean[] started = new boolean[n];
+        AtomicInteger next = new AtomicInteger(0);
+        //progress is logged about every tenth of the rules
+        int logStep = Math.max(1, n / 10);
+        LOGGER.log(Level.INFO, "Annotating {0} rules with estimated cost {1} on {2} threads", new Object[]{n, sum, threads});
+        Runnable worker = () -> {
+            int position;
+            while (!cancelled && (position = next.getAndIncrement()) < n) {
+                int i = order.get(position);
+                started[i] = true;
+                rules.get(i).generateAnnotation(consequents);
+                annotatedCost.addAndGet(costs[i]);
+                int done = annotatedRules.incrementAndGet();
+                if (done % logStep == 0) {
+                    LOGGER.log(Level.INFO, "Rules already annotated:{0} ; out of {1}", new Object[]{done, n});
+                }
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask> tasks = new ArrayList();
+            for (int t = 0; t < Math.min(threads, n); t++) {
+                tasks.add(pool.submit(worker));
+            }
+            for (ForkJoinTask task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while annotating rules", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        List<ExtendRule> remaining = new ArrayList();
+        for (int i = 0; i < n; i++) {
+            if (!started[i]) {
+                remaining.add(rules.get(i));
+            }
+        }
+        if (!remaining.isEmpty()) {
+            LOGGER.log(Level.WARNING, "Annotation cancelled, {0} out of {1} rules not annotated", new Object[]{remaining.size(), n});
+        }
+        cancelled = false;
+        return remaining;
+    }
+
+    /**
+     * Requests cancellation of the current run, or of the next one if none is
+     * running. Rules already being annotated are finished.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     *
+     * @return number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     *
+     * @return number of rules in the current or last run
+     */
+    public int getTotalRules() {
+        return totalRules;
+    }
+
+    /**
+     *
+     * @return number of rules annotated so far
+     */
+    public int getAnnotatedRules() {
+        return annotatedRules.get();
+    }
+
+    /**
+     *
+     * @return estimated cost of all rules in the current or last run
+     */
+    public long getTotalCost() {
+        return totalCost;
+    }
+
+    /**
+     *
+     * @return estimated cost of the rules annotated so far
+     */
+    public long getAnnotatedCost() {
+        return annotatedCost.get();
+    }
+}
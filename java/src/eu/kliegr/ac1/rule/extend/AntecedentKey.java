@@ -0,0 +1,121 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.rule.Antecedent;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Canonical representation of an antecedent, which does not depend on the
+ * order of the literals or on the objects representing them. A numerical
+ * literal with adjacent values is represented by the codes of its lowest and
+ * highest value and the number of values, which identifies it, other literals
+ * by the set of codes of their values. ExtendRule.isExtendable accepts also
+ * numerical literals with values which are not adjacent, e.g. {1,2,5} and
+ * {1,4,5}, these share the lowest and highest value and the number of values.
+ *
+ * @author tomas
+ */
+final class AntecedentKey {
+
+    private final static int RANGE = 0;
+    private final static int SET = 1;
+    private final int[] literals;
+    private final int hash;
+
+    private AntecedentKey(int[] literals) {
+        this.literals = literals;
+        this.hash = Arrays.hashCode(literals);
+    }
+
+    /**
+     *
+     * @param antecedent
+     * @param replacement literal replacing the literal on the same attribute
+     * @return key of the antecedent with the literal replaced
+     */
+    static AntecedentKey of(Antecedent antecedent, RuleMultiItem replacement) {
+        ArrayList<RuleMultiItem> items = new ArrayList(antecedent.getItems());
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getAttribute() == replacement.getAttribute()) {
+                items.set(i, replacement);
+            }
+        }
+        items.sort((a, b) -> Integer.compare(a.getAttribute().AID, b.getAttribute().AID));
+        int length = 0;
+        int[][] encoded = new int[items.size()][];
+        for (int i = 0; i < items.size(); i++) {
+            encoded[i] = encode(items.get(i));
+            length += encoded[i].length;
+        }
+        int[] literals = new int[length];
+        int pos = 0;
+        for (int[] literal : encoded) {
+            System.arraycopy(literal, 0, literals, pos, literal.length);
+            pos += literal.length;
+        }
+        return new AntecedentKey(literals);
+    }
+
+    private static int[] encode(RuleMultiItem item) {
+        if (item.getAttribute().getType() == AttributeType.numerical && item.getValueCount() > 0 && item.isAdjacent()) {
+            return new int[]{item.getAttribute().AID, RANGE, item.getFirstValue().getCode(), item.getLastValue().getCode(), item.getValueCount()};
+        }
+        long[] codes = item.getValueCodes();
+        if (codes == null) {
+            //numerical item without values or with values which are not adjacent
+            codes = new long[0];
+            for (AttributeValue val : item.getAttributeValues()) {
+                int code = val.getCode();
+                if ((code >> 6) >= codes.length) {
+                    codes = Arrays.copyOf(codes, (code >> 6) + 1);
+                }
+                codes[code >> 6] |= 1L << code;
+            }
+        }
+        //trailing empty words are left out, so that equal sets have equal keys
+        int words = codes.length;
+        while (words > 0 && codes[words - 1] == 0) {
+            words--;
+        }
+        int[] literal = new int[3 + 2 * words];
+        literal[0] = item.getAttribute().AID;
+        literal[1] = SET;
+        literal[2] = 2 * words;
+        for (int w = 0; w < words; w++) {
+            literal[3 + 2 * w] = (int) codes[w];
+            literal[4 + 2 * w] = (int) (codes[w] >>> 32);
+        }
+        return literal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AntecedentKey && ((AntecedentKey) o).hash == hash && Arrays.equals(((AntecedentKey) o).literals, literals);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
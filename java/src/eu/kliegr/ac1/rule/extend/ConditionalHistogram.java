@@ -0,0 +1,316 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.Attribute;
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.SortedAttributeValues;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import eu.kliegr.ac1.rule.RuleQuality;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class histogram of one attribute conditioned on the other literals of a rule.
+ *
+ * The histogram counts transactions that satisfy all literals of the rule
+ * except the literal on the selected attribute, broken down by value of the
+ * selected attribute (in the order of Attribute.getAllValues()) and by class.
+ * Any literal on the selected attribute can then be evaluated without
+ * recomputing the rule coverage: numeric intervals in constant time using
+ * prefix sums, sets of nominal values by summing the counts of the values.
+ *
+ * The histogram reflects the transactions that were current when it was
+ * created, it must not be reused after transactions are removed from the data
+ * table.
+ *
+ * @author tomas
+ */
+public final class ConditionalHistogram {
+
+    private final static Logger LOGGER = Logger.getLogger(ConditionalHistogram.class.getName());
+    private final Attribute attribute;
+    private final int loadedTransactions;
+    //values of the attribute ordered as in the attribute, the histogram has one bin per position
+    private final SortedAttributeValues sortedValues;
+    private final int classCount;
+    /* number of transactions for each value position and class code, indexed by position * classCount + class,
+    the last class counts transactions without a target value
+     */
+    private final int[] classCounts;
+    //prefixCoverage[i] number of transactions with value at position lower than i
+    private final int[] prefixCoverage;
+    //prefixSupport[i] number of transactions with value at position lower than i and class from the consequent
+    private final int[] prefixSupport;
+    //transactions meeting the condition, null if all current transactions meet the condition or if not recording
+    private final CoverageBitmap condition;
+    private final DataTable dataTable;
+    //positions read by evaluation methods, tracked only when TouchedTransactions recording is active
+    private final boolean[] queried;
+
+    /**
+     *
+     * @param rule the histogram is conditioned on all literals of this rule except the literal on attribute
+     * @param attribute
+     */
+    public ConditionalHistogram(ExtendRule rule, Attribute attribute) {
+        this(rule, attribute, TouchedTransactions.get() != null);
+        if (queried != null) {
+            TouchedTransactions.record(this);
+        }
+    }
+
+    /**
+     * Histogram, which can be created on other thread than the one processing
+     * the seed rule, it is not recorded in TouchedTransactions.
+     *
+     * @param rule the histogram is conditioned on all literals of this rule except the literal on attribute
+     * @param attribute
+     * @param recording if true, the transactions read by evaluation methods are tracked
+     */
+    ConditionalHistogram(ExtendRule rule, Attribute attribute, boolean recording) {
+        this.attribute = attribute;
+        DataTable dataTable = rule.getRule().getData().getDataTable();
+        Attribute target = dataTable.getTargetAttribute();
+        this.loadedTransactions = dataTable.getLoadedTransactionCount();
+        this.sortedValues = attribute.getSortedValues();
+        this.classCount = target.getDictionarySize() + 1;
+        this.classCounts = new int[sortedValues.size() * classCount];
+
+        int[] column = dataTable.getColumn(attribute);
+        int[] targetColumn = dataTable.getTargetColumn();
+        int firstTID = dataTable.firstTID;
+        CoverageBitmap condition = null;
+        for (RuleMultiItem rmi : rule.getAntecedent().getItems()) {
+            if (rmi.getAttribute() == attribute) {
+                continue;
+            }
+            if (condition == null) {
+                condition = rmi.getDataCover();
+            } else {
+                condition.and(rmi.getDataCover());
+            }
+        }
+        if (condition != null) {
+            condition.and(dataTable.getActiveTransactions());
+        }
+        //the condition is kept only to resolve touched transactions
+        this.condition = recording ? condition : null;
+        this.dataTable = dataTable;
+        if (condition == null) {
+            //there are no other literals, all active transactions meet the condition
+            dataTable.getActiveTransactions().forEach((tid) -> count(tid - firstTID, column, targetColumn));
+        } else {
+            condition.forEach((tid) -> count(tid - firstTID, column, targetColumn));
+        }
+
+        boolean[] consequentClass = new boolean[classCount];
+        rule.getConsequent().getItems().getAttributeValues().stream().forEach((val) -> consequentClass[val.getCode()] = true);
+        prefixCoverage = new int[sortedValues.size() + 1];
+        prefixSupport = new int[sortedValues.size() + 1];
+        for (int pos = 0; pos < sortedValues.size(); pos++) {
+            int coverage = 0;
+            int support = 0;
+            for (int c = 0; c < classCount; c++) {
+                int count = classCounts[pos * classCount + c];
+                coverage += count;
+                if (consequentClass[c]) {
+                    support += count;
+                }
+            }
+            prefixCoverage[pos + 1] = prefixCoverage[pos] + coverage;
+            prefixSupport[pos + 1] = prefixSupport[pos] + support;
+        }
+        if (recording) {
+            queried = new boolean[sortedValues.size()];
+        } else {
+            queried = null;
+        }
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.log(Level.FINEST, "Histogram for attribute {0}: {1} values, {2} transactions meet the condition", new Object[]{attribute.getName(), sortedValues.size(), prefixCoverage[sortedValues.size()]});
+        }
+    }
+
+    private void count(int row, int[] column, int[] targetColumn) {
+        int pos = sortedValues.getPosition(column[row]);
+        if (pos >= 0) {
+            int classCode = targetColumn[row];
+            classCounts[pos * classCount + (classCode < 0 ? classCount - 1 : classCode)]++;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Attribute getAttribute() {
+        return attribute;
+    }
+
+    /**
+     *
+     * @param val
+     * @return position of the value in the histogram or -1 if the value is not known to the histogram
+     */
+    public int getPosition(AttributeValue val) {
+        return sortedValues.getPosition(val);
+    }
+
+    /**
+     *
+     * @param position
+     * @return
+     */
+    public AttributeValue getValue(int position) {
+        return sortedValues.get(position);
+    }
+
+    /**
+     *
+     * @param position
+     * @param classCode code of the target value
+     * @return number of transactions meeting the condition with given value and class
+     */
+    public int getClassCount(int position, int classCode) {
+        markQueried(position, position);
+        return classCounts[position * classCount + classCode];
+    }
+
+    /**
+     *
+     * @param position
+     * @return number of transactions meeting the condition and with the given value, which have class from the consequent
+     */
+    public int getSupport(int position) {
+        markQueried(position, position);
+        return prefixSupport[position + 1] - prefixSupport[position];
+    }
+
+    /**
+     *
+     * @param fromPosition inclusive
+     * @param toPosition inclusive
+     * @return quality of the rule with the literal covering values at the positions in the range
+     */
+    public RuleQuality evaluateInterval(int fromPosition, int toPosition) {
+        markQueried(fromPosition, toPosition);
+        int coverage = prefixCoverage[toPosition + 1] - prefixCoverage[fromPosition];
+        int support = prefixSupport[toPosition + 1] - prefixSupport[fromPosition];
+        return new RuleQuality(support, coverage - support, loadedTransactions);
+    }
+
+    /**
+     *
+     * @param literal literal on the attribute of this histogram
+     * @return quality of the rule with the literal replaced by the passed literal
+     */
+    public RuleQuality evaluate(RuleMultiItem literal) {
+        if (literal.getValueCount() == 0) {
+            return new RuleQuality(0, 0, loadedTransactions);
+        }
+        if (attribute.getType() == AttributeType.numerical) {
+            //values of numerical literals are ascending and adjacent
+            int first = getPosition(literal.getFirstValue());
+            int last = getPosition(literal.getLastValue());
+            if (first >= 0 && last - first + 1 == literal.getValueCount()) {
+                return evaluateInterval(first, last);
+            }
+        }
+        int coverage = 0;
+        int support = 0;
+        for (AttributeValue val : literal.getAttributeValues()) {
+            int pos = getPosition(val);
+            if (pos >= 0) {
+                markQueried(pos, pos);
+                coverage += prefixCoverage[pos + 1] - prefixCoverage[pos];
+                support += prefixSupport[pos + 1] - prefixSupport[pos];
+            }
+        }
+        return new RuleQuality(support, coverage - support, loadedTransactions);
+    }
+
+    /**
+     * Evaluates literals, which extend the base literal with one value
+     * (as created by RuleMultiItem.getExtended_Nominal_Greedy()) reusing the
+     * counts of the base literal.
+     *
+     * @param base
+     * @param candidates
+     * @return quality for each candidate
+     */
+    public ArrayList<RuleQuality> evaluateGreedy(RuleMultiItem base, ArrayList<RuleMultiItem> candidates) {
+        RuleQuality baseQuality = evaluate(base);
+        int baseSize = base.getValueCount();
+        ArrayList<RuleQuality> result = new ArrayList(candidates.size());
+        for (RuleMultiItem candidate : candidates) {
+            if (candidate.getValueCount() != baseSize + 1) {
+                result.add(evaluate(candidate));
+                continue;
+            }
+            //the value added by the extension is the last one
+            int pos = getPosition(candidate.getLastValue());
+            int coverage = baseQuality.getA() + baseQuality.getB();
+            int support = baseQuality.getA();
+            if (pos >= 0) {
+                markQueried(pos, pos);
+                coverage += prefixCoverage[pos + 1] - prefixCoverage[pos];
+                support += prefixSupport[pos + 1] - prefixSupport[pos];
+            }
+            result.add(new RuleQuality(support, coverage - support, loadedTransactions));
+        }
+        return result;
+    }
+
+    private void markQueried(int fromPosition, int toPosition) {
+        if (queried != null) {
+            Arrays.fill(queried, fromPosition, toPosition + 1, true);
+        }
+    }
+
+    /**
+     *
+     * @return transactions meeting the condition with a value at one of the positions read through the evaluation methods
+     */
+    CoverageBitmap getTouchedTransactions() {
+        CoverageBitmap touched = new CoverageBitmap();
+        if (queried == null) {
+            return touched;
+        }
+        int[] column = dataTable.getColumn(attribute);
+        int firstTID = dataTable.firstTID;
+        if (condition == null) {
+            dataTable.getActiveTransactions().forEach((tid) -> addIfQueried(touched, tid, column, firstTID));
+        } else {
+            condition.forEach((tid) -> addIfQueried(touched, tid, column, firstTID));
+        }
+        return touched;
+    }
+
+    private void addIfQueried(CoverageBitmap touched, int tid, int[] column, int firstTID) {
+        int pos = sortedValues.getPosition(column[tid - firstTID]);
+        if (pos >= 0 && queried[pos]) {
+            touched.add(tid);
+        }
+    }
+}
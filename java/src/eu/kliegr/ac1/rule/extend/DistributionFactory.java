@@ -52,6 +52,24 @@ public class DistributionFactory {
 
     }
 
+    /**
+     *
+     * @return number of consequents in the distributions, 0 before the first
+     * conversion
+     */
+    public int getConsequentCount() {
+        return consequents == null ? 0 : consequents.size();
+    }
+
+    /**
+     *
+     * @param index position in the distributions
+     * @return
+     */
+    public Consequent getConsequent(int index) {
+        return consequents.get(index);
+    }
+
     /**
      *
      * @param finalDistr
@@ -21,7 +21,7 @@ package eu.kliegr.ac1.rule.extend;
 import eu.kliegr.ac1.data.Attribute;
 import eu.kliegr.ac1.data.AttributeType;
 import eu.kliegr.ac1.data.AttributeValue;
-import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.rule.*;
 import eu.kliegr.ac1.rule.parsers.GUHASerializerWithAnnotationSupport;
 import java.util.ArrayList;
@@ -31,10 +31,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.w3c.dom.Document;
@@ -99,6 +102,8 @@ public final class ExtendRule implements RuleInt {
      *
      */
     public RuleMultiItem lastExtension;
+    //histogram of the attribute of lastExtension conditioned on the other literals, used to evaluate enlargements
+    private ConditionalHistogram lastExtensionHistogram;
     //private ExtendRuleAnnotation annot;
     //contains IDs of rules from which this rule is derived
     private History history;
@@ -130,7 +135,7 @@ public final class ExtendRule implements RuleInt {
             this.history = history;
         }
         this.history.addRuleIdentifiers(this.rule.getERID(), this.rule.toArray());
-        LOGGER.fine(rule.toString());
+        LOGGER.log(Level.FINE, "{0}", rule);
     }
 
     /** 
@@ -149,7 +154,7 @@ public final class ExtendRule implements RuleInt {
 
         lastExtension=null;
 
-        LOGGER.fine(rule.toString());
+        LOGGER.log(Level.FINE, "{0}", rule);
         this.rule.setQuality(computeQuality());
 
         if (history == null) {
@@ -168,7 +173,7 @@ public final class ExtendRule implements RuleInt {
 
         lastExtension=null;
 
-        LOGGER.fine(rule.toString());
+        LOGGER.log(Level.FINE, "{0}", rule);
         this.rule.setQuality(computeQuality());
 
         if (history == null) {
@@ -182,15 +187,34 @@ public final class ExtendRule implements RuleInt {
     
     
         public ExtendRule(Rule rule, RuleMultiItem extension, History history, ExtendType type,ExtendRuleConfig extensionConfig, float seedRuleConfidence) {
+        this(rule, extension, history, type, extensionConfig, seedRuleConfidence, null, null);
+    }
+
+    /**
+     * constructor for rule derived from seed rule, with quality already evaluated on a histogram
+     * @param rule
+     * @param extension
+     * @param history
+     * @param type
+     * @param extensionConfig
+     * @param seedRuleConfidence
+     * @param histogram histogram of extension attribute conditioned on the other literals of rule, can be null
+     * @param quality quality of the new rule evaluated on the histogram, if null the quality is computed from the data
+     */
+    public ExtendRule(Rule rule, RuleMultiItem extension, History history, ExtendType type,ExtendRuleConfig extensionConfig, float seedRuleConfidence, ConditionalHistogram histogram, RuleQuality quality) {
         this.rule = new Rule(constructNewAntecedent(rule.getAntecedent(), extension), rule.getConsequent(), null, null, rule.getRID(), Rule.getNextERID(), rule.getData());
         this.extendType = type;
         this.extensionConfig = extensionConfig;
         this.confidenceOfSeedRule = seedRuleConfidence;
 
         lastExtension=extension;
+        lastExtensionHistogram = histogram;
 
-        LOGGER.fine(rule.toString());
-        this.rule.setQuality(computeQuality());
+        LOGGER.log(Level.FINE, "{0}", rule);
+        if (quality == null && histogram != null) {
+            quality = histogram.evaluate(extension);
+        }
+        this.rule.setQuality(quality == null ? computeQuality() : quality);
 
         if (history == null) {
             this.history = new History(this.getRID());
@@ -221,7 +245,7 @@ public final class ExtendRule implements RuleInt {
             this.history = history;
         }
         this.history.addRuleIdentifiers(this.rule.getERID(), this.rule.toArray());
-        LOGGER.fine(rule.toString());
+        LOGGER.log(Level.FINE, "{0}", rule);
     }
 
     /**
@@ -238,13 +262,35 @@ public final class ExtendRule implements RuleInt {
      * @return
      */
     public ExtendRule enlargeLastExtension() {
+        return enlargeLastExtension(null);
+    }
+
+    /**
+     *
+     * @param memo qualities of antecedents already evaluated, can be null
+     * @return
+     */
+    ExtendRule enlargeLastExtension(ExtensionMemo memo) {
         RuleMultiItem nextExtension = lastExtension.getExtended(lastExtension.lastModificationType);
         if (nextExtension == null) {
             LOGGER.fine("No more values");
             //try to extend attribute
             return null;
         }
-        return new ExtendRule(rule, nextExtension, this.copyHistory(), extendType,extensionConfig, this.getConfidenceOfSeedRule());
+        RuleQuality quality = null;
+        if (memo != null && memo.isEnabled()) {
+            AntecedentKey key = AntecedentKey.of(getAntecedent(), nextExtension);
+            quality = memo.get(key);
+            if (quality == null) {
+                if (lastExtensionHistogram == null) {
+                    //the quality of this rule was memoized, the histogram was not needed so far
+                    lastExtensionHistogram = new ConditionalHistogram(this, nextExtension.getAttribute());
+                }
+                quality = lastExtensionHistogram.evaluate(nextExtension);
+                memo.put(key, quality);
+            }
+        }
+        return new ExtendRule(rule, nextExtension, this.copyHistory(), extendType,extensionConfig, this.getConfidenceOfSeedRule(), lastExtensionHistogram, quality);
     }
 
     /**
@@ -252,13 +298,24 @@ public final class ExtendRule implements RuleInt {
      * @param consequents
      */
     public void generateAnnotation(ArrayList<Consequent> consequents) {
-        LOGGER.log(Level.INFO, "Generate annotation started for rule {0}", this);
+        LOGGER.log(Level.FINE, "Generate annotation started for rule {0}", this);
         ExtendRuleAnnotation annot = new ExtendRuleAnnotation();
         annot.generate(this, consequents);
         rule.setAnnotation(annot);
 
-        LOGGER.info("Generate annotation finished");
-        LOGGER.fine(this.toString());
+        LOGGER.fine("Generate annotation finished");
+        LOGGER.log(Level.FINE, "{0}", this);
+    }
+
+    /**
+     * Sets annotation, which is computed when it is first read.
+     *
+     * @param consequents
+     * @param transactions transactions the annotation is computed on
+     * @param cache
+     */
+    public void generateAnnotationOnDemand(ArrayList<Consequent> consequents, CoverageBitmap transactions, AnnotationCache cache) {
+        rule.setAnnotation(new TestRuleAnnotation(this, consequents, transactions, cache));
     }
 
     /**
@@ -274,6 +331,16 @@ public final class ExtendRule implements RuleInt {
      * @return
      */
     public ExtendRule extend() {
+        return extend(new ExtensionMemo(ExtensionMemo.DEFAULT_CAPACITY), -1);
+    }
+
+    /**
+     *
+     * @param memo qualities of antecedents evaluated during the extension of this rule
+     * @param parallelThreshold see getNeighourhood(ExtensionMemo, long)
+     * @return
+     */
+    ExtendRule extend(ExtensionMemo memo, long parallelThreshold) {
         if (!isExtendable()) {
             return this;
         }
@@ -287,7 +354,7 @@ public final class ExtendRule implements RuleInt {
             LOGGER.finest("*************************************");
             //new extension candidates: neighbours of the currently best extension
             LOGGER.log(Level.FINEST, "Computing neigbourhood for seed rule:{0}\n", curAcceptedExtension);
-            ArrayList<ExtendRule> curNeighbourhood = curAcceptedExtension.getNeighourhood();
+            ArrayList<ExtendRule> curNeighbourhood = curAcceptedExtension.getNeighourhood(memo, parallelThreshold);
             LOGGER.log(Level.FINEST, "Candidate rules:{0}", curNeighbourhood.size());
             LOGGER.finest("Finished computing neigbourhood");
             //the candidates will be processed from the best to worst
@@ -310,7 +377,7 @@ public final class ExtendRule implements RuleInt {
 
                     ExtendRule candExtEnlargement = candExt;
                     do {
-                        candExtEnlargement = candExtEnlargement.enlargeLastExtension();
+                        candExtEnlargement = candExtEnlargement.enlargeLastExtension(memo);
                         if (candExtEnlargement == null) {
                             LOGGER.finest("-->Exhausted all values on this attribute in this direction, without finding acceptable candidate<--");
                             break;
@@ -351,6 +418,8 @@ public final class ExtendRule implements RuleInt {
             
         }
         curAcceptedExtension.addItselfToHistory();
+        //the histogram is valid only for the data at the time of extension
+        curAcceptedExtension.lastExtensionHistogram = null;
         return curAcceptedExtension;
     }
 
@@ -379,6 +448,16 @@ public final class ExtendRule implements RuleInt {
         return withfuzzyBorders;
     }
 
+    /**
+     * Replaces placeholder ERIDs assigned by a provisional ERIDAllocator in this rule and its history
+     *
+     * @param base first final ERID
+     */
+    void resolveProvisionalERIDs(int base) {
+        rule.setERID(ERIDAllocator.resolveProvisional(rule.getERID(), base));
+        history.resolveProvisionalERIDs(base);
+    }
+
     /**
      *
      * @return
@@ -403,17 +482,10 @@ public final class ExtendRule implements RuleInt {
         for (RuleMultiItem rmi : rule.getAntecedent().getItems()) {
 
             Attribute at = rmi.getAttribute();
-            AttributeValue lastVal = null;
-            for (AttributeValue val : rmi.getAttributeValues()) {
-                if (lastVal != null) {
-                    if (at.getAdjacentHigher(lastVal) != val) {
-
-                        LOGGER.log(Level.SEVERE, "Problem found for attribute {0}", at);
-                        LOGGER.log(Level.SEVERE, "Value {0} is not higher than {1}", new Object[]{val, lastVal});
-                        throw new UnsupportedOperationException(
-                                "Rule contains values, which are not adjacent. This is not supported."); //To change body of generated methods, choose Tools | Templates.                
-                    }
-                }
+            //the adjacency of values is kept by the item, the values are not walked
+            //items with values which are not adjacent are extended from their first and last value
+            if (at.getType() == AttributeType.numerical && rmi.getValueCount() > 1 && !rmi.isAdjacent() && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Values of {0} are not adjacent", rmi);
             }
         }
         LOGGER.log(Level.FINE, "Rule {0} meets extensibility criteria", rule);
@@ -427,6 +499,15 @@ public final class ExtendRule implements RuleInt {
         rule.setQuality(computeQuality());
     }
 
+    /**
+     * Sets quality computed outside of the rule, e.g. by post-pruning.
+     *
+     * @param ruleQuality
+     */
+    void setRuleQuality(RuleQuality ruleQuality) {
+        rule.setQuality(ruleQuality);
+    }
+
     /**
      *
      * @return
@@ -452,14 +533,86 @@ public final class ExtendRule implements RuleInt {
      * @return
      */
     public ArrayList<ExtendRule> getNeighourhood() {
-        ArrayList<ExtendRule> neighborhood = new ArrayList();
+        return getNeighourhood(null, -1);
+    }
+
+    /**
+     * The histograms of attributes are computed in parallel in the current
+     * fork join pool if the estimated work reaches parallelThreshold. Callers
+     * which are not workers of the intended pool should pass a negative
+     * threshold, otherwise the common pool is used. The candidates are
+     * created on the calling thread in the same order as in serial
+     * computation.
+     *
+     * @param memo qualities of antecedents already evaluated, can be null
+     * @param parallelThreshold minimum number of transactions read by all histograms to compute them in parallel, negative value disables parallel computation
+     * @return
+     */
+    ArrayList<ExtendRule> getNeighourhood(ExtensionMemo memo, long parallelThreshold) {
+        boolean memoEnabled = memo != null && memo.isEnabled();
         //streaming version
         //neighborhood.addAll(ruleConstituent.getNeighbourhood().stream().map((multiitem)->new ExtendRule(rule,multiitem)).collect(Collectors.toCollection(ArrayList::new)));
-        this.getAntecedent().getItems().stream().filter((ruleConstituent) -> !(extendType == ExtendType.numericOnly && ruleConstituent.getAttribute().getType() == AttributeType.nominal)).map((ruleConstituent) -> ruleConstituent.getNeighbourhood()).forEach((neighbourhood) -> {
-            neighbourhood.stream().forEach((multiitem) -> {
-                neighborhood.add(new ExtendRule(rule, multiitem, this.copyHistory(), extendType,extensionConfig, this.getConfidenceOfSeedRule()));
-            });
-        });
+        List<RuleMultiItem> constituents = this.getAntecedent().getItems().stream().filter((ruleConstituent) -> !(extendType == ExtendType.numericOnly && ruleConstituent.getAttribute().getType() == AttributeType.nominal)).collect(Collectors.toList());
+        int n = constituents.size();
+        ArrayList<RuleMultiItem>[] neighbourhoods = new ArrayList[n];
+        AntecedentKey[][] keys = new AntecedentKey[n][];
+        RuleQuality[][] qualities = new RuleQuality[n][];
+        ConditionalHistogram[] histograms = new ConditionalHistogram[n];
+        //constituents, whose neighbours are not all memoized
+        ArrayList<Integer> missing = new ArrayList();
+        for (int c = 0; c < n; c++) {
+            neighbourhoods[c] = constituents.get(c).getNeighbourhood();
+            keys[c] = new AntecedentKey[neighbourhoods[c].size()];
+            qualities[c] = new RuleQuality[neighbourhoods[c].size()];
+            boolean isMissing = false;
+            for (int i = 0; i < neighbourhoods[c].size(); i++) {
+                if (memoEnabled) {
+                    keys[c][i] = AntecedentKey.of(getAntecedent(), neighbourhoods[c].get(i));
+                    qualities[c][i] = memo.get(keys[c][i]);
+                }
+                isMissing |= qualities[c][i] == null;
+            }
+            if (isMissing) {
+                missing.add(c);
+            }
+        }
+        //all candidates on one attribute share the other literals and are evaluated on one histogram
+        boolean recording = TouchedTransactions.get() != null;
+        IntConsumer evaluate = (m) -> {
+            int c = missing.get(m);
+            RuleMultiItem constituent = constituents.get(c);
+            ConditionalHistogram histogram = new ConditionalHistogram(this, constituent.getAttribute(), recording);
+            ArrayList<RuleQuality> evaluated = null;
+            if (constituent.getAttribute().getType() == AttributeType.nominal) {
+                evaluated = histogram.evaluateGreedy(constituent, neighbourhoods[c]);
+            }
+            for (int i = 0; i < neighbourhoods[c].size(); i++) {
+                if (qualities[c][i] == null) {
+                    qualities[c][i] = evaluated != null ? evaluated.get(i) : histogram.evaluate(neighbourhoods[c].get(i));
+                }
+            }
+            histograms[c] = histogram;
+        };
+        long work = (long) missing.size() * getRule().getData().getDataTable().getCurrentTransactionCount();
+        if (parallelThreshold >= 0 && missing.size() > 1 && work >= parallelThreshold) {
+            //the tasks only read the data and write to their own slots
+            IntStream.range(0, missing.size()).parallel().forEach(evaluate);
+        } else {
+            IntStream.range(0, missing.size()).forEach(evaluate);
+        }
+
+        ArrayList<ExtendRule> neighborhood = new ArrayList();
+        for (int c = 0; c < n; c++) {
+            if (histograms[c] != null) {
+                TouchedTransactions.record(histograms[c]);
+            }
+            for (int i = 0; i < neighbourhoods[c].size(); i++) {
+                if (memoEnabled && histograms[c] != null) {
+                    memo.put(keys[c][i], qualities[c][i]);
+                }
+                neighborhood.add(new ExtendRule(rule, neighbourhoods[c].get(i), this.copyHistory(), extendType,extensionConfig, this.getConfidenceOfSeedRule(), histograms[c], qualities[c][i]));
+            }
+        }
         return neighborhood;
     }
 
@@ -491,17 +644,16 @@ public final class ExtendRule implements RuleInt {
          int pruningCoverage = 0;
         try {
   
-            Set<Transaction> supportingTransactions = getAntecedent().getSupportingTransactions();
-            if (getAntecedent() == null) {
+            CoverageBitmap supportingTransactions = getAntecedent().getCover();
+            if (supportingTransactions == null) {
                 //antecedent is empty (no items), the antecedent matches all transactions
-                pruningCoverage= rule.getData().getDataTable().getAllCurrentTransactions().size();
+                pruningCoverage= rule.getData().getDataTable().getCurrentTransactionCount();
                 rule.getData().getDataTable().removeAllTransactions(hide);                
             } 
             else {
-                pruningCoverage = supportingTransactions.size();
+                pruningCoverage = supportingTransactions.getCardinality();
                 if (pruningCoverage > 0) {
-                    //TODO: add support for parallel stream
-                    supportingTransactions.stream().forEach((t) -> rule.getData().getDataTable().removeTransaction(t, hide));
+                    rule.getData().getDataTable().removeTransactions(supportingTransactions, hide);
                 }
 
             }            
@@ -515,22 +667,21 @@ public final class ExtendRule implements RuleInt {
     public int removeCorrectlyClassifiedTransactions(Boolean hide) {
          int pruningCoverage = 0;
         try {
-            Set<Transaction> supportingTransactions;
+            CoverageBitmap supportingTransactions;
 
-            Set<Transaction> antConOverlap = getAntecedent().getSupportingTransactions();
-            Set<Transaction> conTran = getConsequent().getSupportingTransactions();
+            CoverageBitmap antConOverlap = getAntecedent().getCover();
+            CoverageBitmap conTran = getConsequent().getCover();
             if (antConOverlap == null) {
                 //antecedent is empty (no items), the transactions supported by the rule are determined only by consequent
                 antConOverlap = conTran;
             } else {
-                antConOverlap.retainAll(conTran);
+                antConOverlap.and(conTran);
             }
 
             supportingTransactions = antConOverlap;
-            pruningCoverage = supportingTransactions.size();
+            pruningCoverage = supportingTransactions.getCardinality();
             if (pruningCoverage > 0) {
-                //TODO: add support for parallel stream
-                supportingTransactions.stream().forEach((t) -> rule.getData().getDataTable().removeTransaction(t, hide));
+                rule.getData().getDataTable().removeTransactions(supportingTransactions, hide);
             }
             return pruningCoverage;
             //this should delete all references to the transaction
@@ -543,14 +694,15 @@ public ExtendRule removeRedundantAttributes(){
         boolean ruleChanged =false;
         LOGGER.log(Level.INFO, "STARTED REMOVING REDUNDANT ATTRIBUTES on rule: {0}\n", rule);
         //determine correctly covered transactions in the current rule
-        Set<Transaction> correctlyCoveredTrans = getAntecedent().getSupportingTransactions();
-        Set<Transaction> conTran = getConsequent().getSupportingTransactions();        
+        CoverageBitmap correctlyCoveredTrans = getAntecedent().getCover();
+        CoverageBitmap conTran = getConsequent().getCover();        
+        TouchedTransactions.record(correctlyCoveredTrans);
         ExtendRule newRule = this;
         // at this point correctlyCoveredTrans holds covered transactions (not only correctly covered)
         if (correctlyCoveredTrans == null| correctlyCoveredTrans.isEmpty()) {
             LOGGER.info("Rule does not cover any transactions, leaving as is");     
         } else {            
-            correctlyCoveredTrans.retainAll(conTran);                
+            correctlyCoveredTrans.and(conTran);                
             if (correctlyCoveredTrans.isEmpty()) {
                 LOGGER.info("Rule does not CORRECTLY cover any transactions, leaving as is");     
             }
@@ -607,14 +759,15 @@ public ExtendRule removeRedundantAttributes(){
         boolean ruleChanged =false;
         LOGGER.log(Level.INFO, "STARTED TRIMMING on rule: {0}\n", rule);
         //determine correctly covered transactions in the current rule
-        Set<Transaction> correctlyCoveredTrans = getAntecedent().getSupportingTransactions();
-        Set<Transaction> conTran = getConsequent().getSupportingTransactions();        
+        CoverageBitmap correctlyCoveredTrans = getAntecedent().getCover();
+        CoverageBitmap conTran = getConsequent().getCover();        
+        TouchedTransactions.record(correctlyCoveredTrans);
         HashMap<Attribute,RuleMultiItem> newLiterals = new HashMap();
         
         if (correctlyCoveredTrans == null| correctlyCoveredTrans.isEmpty()) {
             LOGGER.info("Rule does not cover any transactions, leaving as is");     
         } else {            
-            correctlyCoveredTrans.retainAll(conTran);                
+            correctlyCoveredTrans.and(conTran);                
             if (correctlyCoveredTrans.isEmpty()) {
                 LOGGER.info("Rule does not CORRECTLY cover any transactions, leaving as is");     
             }
@@ -648,13 +801,15 @@ public ExtendRule removeRedundantAttributes(){
                     }            
 
                     //get distinct values appearing in the attribute in CORRECTLY COVERED TRANSACTIONS
+                    //each correctly covered transaction meets the other literals and has one of the values of the literal
                     ArrayList<AttributeValue> coveredValues = new ArrayList();
+                    ConditionalHistogram histogram = new ConditionalHistogram(this, at);
 
-                    correctlyCoveredTrans.stream().forEach((t) -> {
-                        coveredValues.add(t.getValue(at));
+                    attVals.stream().filter((val) -> histogram.getPosition(val) >= 0 && histogram.getSupport(histogram.getPosition(val)) > 0).forEach((val) -> {
+                        coveredValues.add(val);
                     });
                     // get lowest and highest value
-                    LOGGER.log(Level.FINE, "correctlyCoveredTrans: {0}", correctlyCoveredTrans.size());
+                    LOGGER.log(Level.FINE, "correctlyCoveredTrans: {0}", correctlyCoveredTrans.getCardinality());
                     Collections.sort(coveredValues, new Comparator<AttributeValue>() {
                         @Override
                         public int compare(AttributeValue o1, AttributeValue o2) {
@@ -718,19 +873,19 @@ public ExtendRule removeRedundantAttributes(){
     returns number of supporting transaction  removed,
      */
     private RuleQuality computeQuality() {
-        Set<Transaction> antConOverlap = getAntecedent().getSupportingTransactions();
-        Set<Transaction> conTran = getConsequent().getSupportingTransactions();
+        CoverageBitmap antCover = getAntecedent().getCover();
+        CoverageBitmap conTran = getConsequent().getCover();
+        TouchedTransactions.record(antCover);
         //frequency a+b from the 4ft contingency table
         int coverage;
         int support;
-        if (antConOverlap != null) {
-            coverage = antConOverlap.size();
-            antConOverlap.retainAll(conTran);
-            support = antConOverlap.size();
+        if (antCover != null) {
+            coverage = antCover.getCardinality();
+            support = CoverageBitmap.andCardinality(antCover, conTran);
         } else {
             //antecedent is empty, has no items, and thus matches every transaction
             coverage = rule.data.getDataTable().getCurrentTransactionCount();
-            support = conTran.size();
+            support = conTran.getCardinality();
         }
         return new RuleQuality(support, coverage - support, rule.getData().getDataTable().getLoadedTransactionCount());
 
@@ -19,12 +19,14 @@
 package eu.kliegr.ac1.rule.extend;
 
 import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.rule.Antecedent;
 import eu.kliegr.ac1.rule.Consequent;
-import eu.kliegr.ac1.rule.Rule;
 import eu.kliegr.ac1.rule.RuleMultiItem;
 import eu.kliegr.ac1.rule.RuleQuality;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -58,13 +60,13 @@ public class ExtendRuleAnnotation {
     public void generate(ExtendRule r, ArrayList<Consequent> consequents) {
 
         //get number of narrow rule computations
-        int total_combinations = r.getAntecedent().getItems().stream().mapToInt((x) -> x.getAttributeValues().size()).sum() * consequents.size();
-        LOGGER.log(Level.INFO, "There are {0} narrow rules to be generated to annotate the current rule", total_combinations);
+        int total_combinations = r.getAntecedent().getItems().stream().mapToInt((x) -> x.getValueCount()).sum() * consequents.size();
+        LOGGER.log(Level.FINE, "There are {0} narrow rules to be evaluated to annotate the current rule", total_combinations);
         AtomicInteger processedCombinations = new AtomicInteger(0);
 
         r.getAntecedent().getItems().stream().forEach((ruleConstituent) -> {
-            RuleMultiItemAnnotation annot = generateRuleMultiItemAnnotation(r, ruleConstituent, consequents);
-            processedCombinations.addAndGet(ruleConstituent.getAttributeValues().size() * consequents.size());
+            RuleMultiItemAnnotation annot = generateRuleMultiItemAnnotation(r, ruleConstituent, consequents, r.getRule().getData().getDataTable().getActiveTransactions());
+            processedCombinations.addAndGet(ruleConstituent.getValueCount() * consequents.size());
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Processed {0} combinations out of {1}", new Object[]{processedCombinations, total_combinations});
             }
@@ -88,64 +90,79 @@ public class ExtendRuleAnnotation {
 
     }
 
-    private ExtendRule deriveNarrowRule(ExtendRule seedRule, RuleMultiItem toReplace, AttributeValue replacementAntConstituent, Consequent consequent) {
-        //prepare antecedent
-        ArrayList<AttributeValue> replacementItemWrapped = new ArrayList();
-        replacementItemWrapped.add(replacementAntConstituent);
-        ValueOrigin val = toReplace.getValueOrigin(replacementAntConstituent);
-        if (val == null) {
-            LOGGER.severe("Something is wrong, the value origin should be known");
+    /**
+     * Computes quality of the narrow rules, which replace the item with one
+     * of its values and the consequent with one of the consequents. The cover
+     * of the rest of the antecedent is computed once, the contingency counts
+     * of all values and consequents are then filled in one pass over it.
+     *
+     * @param transactions transactions the rule is evaluated on
+     */
+    static RuleMultiItemAnnotation generateRuleMultiItemAnnotation(ExtendRule r, RuleMultiItem rmi, ArrayList<Consequent> consequents, CoverageBitmap transactions) {
+        DataTable table = r.getRule().getData().getDataTable();
+        CoverageBitmap rest = transactions.copy();
+        for (RuleMultiItem other : r.getAntecedent().getItems()) {
+            if (other != rmi) {
+                rest.and(other.getDataCover());
+            }
+        }
+        //counts are kept for distinct codes of the item values
+        ArrayList<AttributeValue> values = rmi.getAttributeValues();
+        int maxCode = values.stream().mapToInt((val) -> val.getCode()).max().orElse(-1);
+        int[] slotOfCode = new int[maxCode + 1];
+        Arrays.fill(slotOfCode, -1);
+        int slots = 0;
+        for (AttributeValue val : values) {
+            if (slotOfCode[val.getCode()] < 0) {
+                slotOfCode[val.getCode()] = slots++;
+            }
+        }
+        //consequents containing each class value
+        int maxClassCode = consequents.stream().flatMap((cons) -> cons.getItems().getAttributeValues().stream()).mapToInt((val) -> val.getCode()).max().orElse(-1);
+        int[][] consequentsOfClass = new int[maxClassCode + 1][0];
+        for (int c = 0; c < consequents.size(); c++) {
+            for (AttributeValue val : consequents.get(c).getItems().getAttributeValues()) {
+                int[] previous = consequentsOfClass[val.getCode()];
+                consequentsOfClass[val.getCode()] = Arrays.copyOf(previous, previous.length + 1);
+                consequentsOfClass[val.getCode()][previous.length] = c;
+            }
         }
-        ArrayList<ValueOrigin> valOriginAsArray = new ArrayList();
-        valOriginAsArray.add(val);
-
-        RuleMultiItem replacement = seedRule.getRule().getData().makeRuleItem(replacementItemWrapped, valOriginAsArray, toReplace.getAttribute(), ValueOrigin.narrow);
 
-        ArrayList<RuleMultiItem> itemsForAntecedent = new ArrayList();
-        //copy rule antecedent
-        seedRule.getAntecedent().getItems().stream().forEach((rmi) -> {
-            if (rmi == toReplace) {
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.log(Level.FINE, "Replacing {0} with {1}", new Object[]{toReplace, replacement});
+        int[] coverage = new int[slots];
+        int[][] support = new int[slots][consequents.size()];
+        int[] column = table.getColumn(rmi.getAttribute());
+        int[] targetColumn = table.getTargetColumn();
+        rest.forEach((tid) -> {
+            int row = tid - table.firstTID;
+            int code = column[row];
+            if (code < 0 || code > maxCode || slotOfCode[code] < 0) {
+                return;
+            }
+            int slot = slotOfCode[code];
+            coverage[slot]++;
+            int classCode = targetColumn[row];
+            if (classCode >= 0 && classCode <= maxClassCode) {
+                for (int c : consequentsOfClass[classCode]) {
+                    support[slot][c]++;
                 }
-                //perform replacement
-                itemsForAntecedent.add(replacement);
-            } else {
-                itemsForAntecedent.add(rmi);
             }
         });
-        //antecedent is now ready
-        Antecedent newAnt = new Antecedent(itemsForAntecedent);
-
-        //prepare rule
-        Rule r = new Rule(newAnt, consequent, null, null, seedRule.getRID(), null,seedRule.getRule().getData());
-        if (LOGGER.isLoggable(Level.FINE)) {
-            LOGGER.fine("Creating new Extend rule within narrow rule procedure");
-        }
 
-        ExtendRule extRule = new ExtendRule(r, seedRule.copyHistory(), seedRule.getExtendType(),seedRule.getExtendRuleConfig());
-        return extRule;
-        //copy rule antecedent
-
-    }
-
-    private RuleMultiItemAnnotation generateRuleMultiItemAnnotation(ExtendRule r, RuleMultiItem rmi, ArrayList<Consequent> consequents) {
+        int n = table.getLoadedTransactionCount();
         RuleMultiItemAnnotation rmiAnnot = new RuleMultiItemAnnotation();
-
-        rmi.getAttributeValues().stream().map((val) -> {
-            AttributeValueAnnotation annot = new AttributeValueAnnotation(val, rmi.getValueOrigin(val));
-            consequents.stream().forEach((cons) -> {
-                ExtendRule narrowRule = deriveNarrowRule(r, rmi, val, cons);
-                RuleQuality quality = narrowRule.getRuleQuality();
-                annot.add(cons, quality);
-            });
-            return annot;
-        }).forEach((annot) -> {
+        for (AttributeValue val : values) {
+            ValueOrigin origin = rmi.getValueOrigin(val);
+            if (origin == null) {
+                LOGGER.severe("Something is wrong, the value origin should be known");
+            }
+            AttributeValueAnnotation annot = new AttributeValueAnnotation(val, origin);
+            int slot = slotOfCode[val.getCode()];
+            for (int c = 0; c < consequents.size(); c++) {
+                annot.add(consequents.get(c), new RuleQuality(support[slot][c], coverage[slot] - support[slot][c], n));
+            }
             rmiAnnot.add(annot);
-        });
+        }
         return rmiAnnot;
-
-
     }
 
 }
@@ -20,31 +20,39 @@ package eu.kliegr.ac1.rule.extend;
 
 import eu.kliegr.ac1.data.Attribute;
 import eu.kliegr.ac1.data.AttributeValue;
-import eu.kliegr.ac1.data.Transaction;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.performance.StopWatches;
 import eu.kliegr.ac1.rule.Antecedent;
 import eu.kliegr.ac1.rule.Consequent;
 import eu.kliegr.ac1.rule.Data;
+import eu.kliegr.ac1.rule.ERIDAllocator;
 import eu.kliegr.ac1.rule.PruneRules;
 import eu.kliegr.ac1.rule.PruneType;
 import eu.kliegr.ac1.rule.Rule;
 import eu.kliegr.ac1.rule.RuleMultiItem;
+import eu.kliegr.ac1.rule.RuleQuality;
 import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -58,6 +66,20 @@ public class ExtendRules {
     private final Comparator ruleComparator;
     private final ExtendType type;
     private final Data data;
+    //number of threads for processing seed rules, sequential processing if lower than 2
+    private int parallelism = 1;
+    //number of seed rules processed ahead under continuous pruning, defaults to parallelism
+    private int speculationWindow = 0;
+    //minimum number of transactions read by histograms of one extension step to compute them in parallel
+    private long neighbourhoodParallelThreshold = 100000;
+    //maximum number of antecedents memoized during extension of one seed rule
+    private int extensionMemoCapacity = ExtensionMemo.DEFAULT_CAPACITY;
+    private final AtomicLong extensionMemoHits = new AtomicLong(0);
+    private final AtomicLong extensionMemoMisses = new AtomicLong(0);
+    //computes all annotations when they are not computed on demand
+    private AnnotationScheduler annotationScheduler = new AnnotationScheduler(Runtime.getRuntime().availableProcessors());
+    //holds annotations computed on demand
+    private AnnotationCache annotationCache = new AnnotationCache(AnnotationCache.DEFAULT_CAPACITY);
 
     /**
      *
@@ -100,25 +122,35 @@ public class ExtendRules {
     }
 
     /**
-     *
+     * Annotates the extended rules on demand, see annotateRules(boolean).
      */
     public void annotateRules() {
-        ArrayList<Consequent> consequents = generateConsequents();
-        final AtomicInteger i = new AtomicInteger(0);
-        extendedRules.parallelStream().forEach((rule) -> {
-            if (LOGGER.isLoggable(Level.INFO)) {
-                LOGGER.log(Level.INFO, "Starting annotation of rule:{0}", rule.getRID());
-            }
-            if (rule == null) {
-                LOGGER.severe("Rule object is null, this should not happen, skipping");
-            } else {
-                rule.generateAnnotation(consequents);
-            }
+        annotateRules(true);
+    }
 
-            i.getAndAdd(1);
-            LOGGER.log(Level.INFO, "Rules already annotated:{0} ; out of {1}", new Object[]{i, extendedRules.size()});
+    /**
+     * Annotates the extended rules. Annotations computed on demand are
+     * computed for each rule item when they are first read, e.g. by mixture
+     * classification or when the rules are saved, and held in the bounded
+     * annotation cache. They are computed against the transactions active
+     * when this method is called.
+     *
+     * @param onDemand if false, all annotations are computed now by the
+     * annotation scheduler
+     */
+    public void annotateRules(boolean onDemand) {
+        ArrayList<Consequent> consequents = generateConsequents();
+        if (onDemand) {
+            CoverageBitmap transactions = data.getDataTable().getActiveTransactions().copy();
+            extendedRules.forEach((rule) -> rule.generateAnnotationOnDemand(consequents, transactions, annotationCache));
+            return;
+        }
+        List<ExtendRule> remaining = annotationScheduler.annotate(extendedRules, consequents);
+        //rules left out by cancellation are annotated on demand, so that the rule list stays usable
+        if (!remaining.isEmpty()) {
+            CoverageBitmap transactions = data.getDataTable().getActiveTransactions().copy();
+            remaining.forEach((rule) -> rule.generateAnnotationOnDemand(consequents, transactions, annotationCache));
         }
-        );
     }
 
     private ArrayList<Consequent> generateConsequents() {
@@ -138,6 +170,310 @@ public class ExtendRules {
     }
 
 
+    /**
+     * Performs attribute removal, trimming, extension and fuzzification of one seed rule.
+     *
+     * @param pool pool processing the seed rules, the neighbourhood is evaluated in parallel only on its workers, null if there is none
+     * @return processed rule or null if the rule is not to be included in the output
+     */
+    private ExtendRule processSeedRule(ExtendRule rule, boolean isAttRemovalEnabled, boolean isTrimmingEnabled, boolean isFuzzificationEnabled, int lastRuleRID, ForkJoinPool pool) {
+        int antLength = rule.getAntecedent().getItems().size();
+
+        if (antLength == 0) {
+            if (rule.getRID() == lastRuleRID) {
+                LOGGER.info("Removing default rule ");
+            } else {
+                LOGGER.severe("Unexpected rule with empty antecedent on other than last position, leaving out this rule");
+            }
+            return null;
+        } else if (rule.getRID() == lastRuleRID) {
+            LOGGER.severe("Last rule is expected to be a default rule with empty antecedent");
+        }
+
+        if (isAttRemovalEnabled)
+        {
+            LOGGER.info("STARTED removeRedundantAttributes ");
+            rule = rule.removeRedundantAttributes();
+            LOGGER.info("FINISHED removeRedundantAttributes ");
+        }
+
+        if (rule.getAntecedent().getItems().size() == 0)
+        {
+            LOGGER.info("REMOVING DEFAULT RULE CREATED BY removeRedundantAttributes ");
+            return null;
+        }
+
+        if (isTrimmingEnabled)
+        {
+            rule = rule.trim();
+        }
+
+        if (type!=ExtendType.noExtend)
+        {
+            ExtensionMemo memo = new ExtensionMemo(extensionMemoCapacity);
+            //parallel streams run in the pool of the current worker, on other threads they would use the common pool
+            rule = rule.extend(memo, pool != null && ForkJoinTask.getPool() == pool ? neighbourhoodParallelThreshold : -1);
+            extensionMemoHits.addAndGet(memo.getHits());
+            extensionMemoMisses.addAndGet(memo.getMisses());
+        }
+        if (isFuzzificationEnabled) {
+            rule = rule.addFuzzyBorders();
+        }
+        return rule;
+    }
+
+    /**
+     * Processes seed rules independently of each other on a dedicated pool,
+     * this is possible only if continuous pruning is disabled.
+     * The output is in the order of the seed rules and each seed rule takes
+     * placeholder ERIDs from its own ERIDAllocator, which are resolved in the
+     * order of seed rules, so the result is the same as from sequential processing.
+     */
+    private List<ExtendRule> processSeedRulesInParallel(boolean isAttRemovalEnabled, boolean isTrimmingEnabled, boolean isFuzzificationEnabled, int lastRuleRID, AtomicInteger processedRules) {
+        int n = seedRules.size();
+        ExtendRule[] processed = new ExtendRule[n];
+        ERIDAllocator[] allocators = new ERIDAllocator[n];
+        LOGGER.log(Level.INFO, "Processing {0} seed rules on {1} threads", new Object[]{n, parallelism});
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach((i) -> {
+                allocators[i] = new ERIDAllocator();
+                ERIDAllocator previous = Rule.setThreadERIDAllocator(allocators[i]);
+                try {
+                    LOGGER.log(Level.INFO, "Rules already processed:{0}  out of {1}", new Object[]{processedRules.addAndGet(1), n});
+                    processed[i] = processSeedRule(seedRules.get(i), isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, pool);
+                } finally {
+                    Rule.setThreadERIDAllocator(previous);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while extending rules", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        List<ExtendRule> result = new ArrayList();
+        for (int i = 0; i < n; i++) {
+            commitERIDs(processed[i], allocators[i]);
+            if (processed[i] != null) {
+                result.add(processed[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Processes seed rules with continuous pruning enabled.
+     *
+     * Windows of consecutive seed rules are processed in parallel against the
+     * current data and then committed in the order of seed rules, each commit
+     * removes the transactions covered by the committed rule. A speculative
+     * result is kept only if no transaction removed by the preceding commits
+     * in the window was read during its processing, otherwise the seed rule
+     * is processed again on the current data. Placeholder ERIDs of kept results
+     * are replaced in the commit order, so the output including ERIDs is the
+     * same as from sequential processing.
+     */
+    private List<ExtendRule> processSeedRulesSpeculatively(boolean isAttRemovalEnabled, boolean isTrimmingEnabled, boolean isFuzzificationEnabled, int lastRuleRID, AtomicInteger processedRules) {
+        int n = seedRules.size();
+        int window = speculationWindow > 0 ? speculationWindow : parallelism;
+        List<ExtendRule> result = new ArrayList();
+        int reprocessed = 0;
+        LOGGER.log(Level.INFO, "Processing {0} seed rules speculatively on {1} threads, window {2}", new Object[]{n, parallelism, window});
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int from = 0; from < n; from += window) {
+                int to = Math.min(n, from + window);
+                int windowStart = from;
+                ExtendRule[] speculative = new ExtendRule[to - from];
+                ERIDAllocator[] allocators = new ERIDAllocator[to - from];
+                TouchedTransactions[] touched = new TouchedTransactions[to - from];
+                //the data are not modified while the window is processed
+                pool.submit(() -> IntStream.range(0, speculative.length).parallel().forEach((i) -> {
+                    allocators[i] = new ERIDAllocator();
+                    ERIDAllocator previous = Rule.setThreadERIDAllocator(allocators[i]);
+                    touched[i] = TouchedTransactions.start();
+                    try {
+                        speculative[i] = processSeedRule(seedRules.get(windowStart + i), isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, pool);
+                    } finally {
+                        TouchedTransactions.stop();
+                        Rule.setThreadERIDAllocator(previous);
+                    }
+                    touched[i].resolve();
+                })).get();
+
+                CoverageBitmap removed = new CoverageBitmap();
+                boolean removedAll = false;
+                for (int i = 0; i < speculative.length; i++) {
+                    LOGGER.log(Level.INFO, "Rules already processed:{0}  out of {1}", new Object[]{processedRules.addAndGet(1), n});
+                    ExtendRule rule;
+                    if (removedAll || touched[i].isAffectedBy(removed)) {
+                        LOGGER.log(Level.FINE, "Speculative result for seed rule {0} invalidated by preceding rules", windowStart + i);
+                        reprocessed++;
+                        //processed on the pool, so that its neighbourhood can be evaluated in parallel
+                        int seed = windowStart + i;
+                        rule = pool.submit(() -> processSeedRule(seedRules.get(seed), isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, pool)).get();
+                    } else {
+                        rule = speculative[i];
+                        commitERIDs(rule, allocators[i]);
+                    }
+                    if (rule == null) {
+                        continue;
+                    }
+                    //and now remove the transactions covered by the extended rule
+                    CoverageBitmap cover = rule.getAntecedent().getCover();
+                    int transRemoved = rule.removeTransactionsCoveredByAntecedent(true);
+                    LOGGER.log(Level.INFO, "Removed {0} supporting transactions", transRemoved);
+                    if (transRemoved == 0) {
+                        continue;
+                    }
+                    if (cover == null) {
+                        removedAll = true;
+                    } else {
+                        removed.or(cover);
+                    }
+                    result.add(rule);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while extending rules", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        LOGGER.log(Level.INFO, "Seed rules processed again after conflict: {0} out of {1}", new Object[]{reprocessed, n});
+        return result;
+    }
+
+    /**
+     * Replaces placeholder ERIDs of the rule with the next ERIDs from the global counter
+     *
+     * @param rule processed rule, can be null if the rule was left out
+     * @param allocator allocator which assigned the placeholder ERIDs
+     */
+    private void commitERIDs(ExtendRule rule, ERIDAllocator allocator) {
+        int eridBase = Rule.getLastERID() + 1;
+        if (rule != null) {
+            rule.resolveProvisionalERIDs(eridBase);
+        }
+        Rule.advanceERIDcounter(eridBase + allocator.getAllocatedCount() - 1);
+    }
+
+    /**
+     * Number of seed rules processed in parallel ahead of the commits under continuous pruning,
+     * values lower than 1 mean the number of threads.
+     *
+     * @param speculationWindow
+     */
+    public void setSpeculationWindow(int speculationWindow) {
+        this.speculationWindow = speculationWindow;
+    }
+
+    /**
+     * Number of threads used to process seed rules, values lower than 2 mean sequential processing.
+     * With continuous pruning the seed rules are processed speculatively,
+     * see processSeedRulesSpeculatively.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the maximum number of item annotations computed on demand, which
+     * are held in memory, the cached annotations are discarded.
+     *
+     * @param capacity
+     */
+    public void setAnnotationCacheCapacity(int capacity) {
+        annotationCache = new AnnotationCache(capacity);
+    }
+
+    /**
+     * Sets the maximum number of antecedents, whose quality is memoized
+     * during the extension of one seed rule, values lower than 1 disable the memo.
+     *
+     * @param capacity
+     */
+    public void setExtensionMemoCapacity(int capacity) {
+        this.extensionMemoCapacity = capacity;
+    }
+
+    /**
+     * Sets the minimum number of transactions read by the histograms of one
+     * extension step (number of attributes times number of current
+     * transactions) to compute them in parallel on the threads processing
+     * seed rules. Negative value disables it, it has no effect if parallelism
+     * is 1.
+     *
+     * @param threshold
+     */
+    public void setNeighbourhoodParallelThreshold(long threshold) {
+        this.neighbourhoodParallelThreshold = threshold;
+    }
+
+    /**
+     *
+     * @return number of antecedents evaluated during extension, whose quality was memoized
+     */
+    public long getExtensionMemoHits() {
+        return extensionMemoHits.get();
+    }
+
+    /**
+     *
+     * @return number of antecedents evaluated during extension, whose quality was not memoized
+     */
+    public long getExtensionMemoMisses() {
+        return extensionMemoMisses.get();
+    }
+
+    /**
+     * Sets the number of threads used to compute all annotations at once, see
+     * annotateRules(boolean). Defaults to the number of processors.
+     *
+     * @param threads
+     */
+    public void setAnnotationThreads(int threads) {
+        annotationScheduler = new AnnotationScheduler(threads);
+    }
+
+    /**
+     *
+     * @return scheduler computing all annotations at once, provides progress
+     * and cancellation
+     */
+    public AnnotationScheduler getAnnotationScheduler() {
+        return annotationScheduler;
+    }
+
+    /**
+     *
+     * @return cache of annotations computed on demand
+     */
+    public AnnotationCache getAnnotationCache() {
+        return annotationCache;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /**
      *
      * @param isContinuousPruningEnabled
@@ -156,66 +492,32 @@ public class ExtendRules {
         //cannot be parallel stream if pruning is performed in the same iteration
         //PHASE 1
         
-        //extendedRules = rules.stream().map(rule -> {
-        for (Iterator<ExtendRule> it = seedRules.iterator(); it.hasNext();)
-        {
-            ExtendRule rule = it.next();
-            LOGGER.log(Level.INFO, "Rules already processed:{0}  out of {1}", new Object[]{processedRules.addAndGet(1), this.seedRules.size()});
-            int antLength = rule.getAntecedent().getItems().size();
-
-            if (antLength == 0) {
-                if (rule.getRID() == lastRuleRID) {
-                    LOGGER.info("Removing default rule ");
-                    continue;
-                } else {
-                    LOGGER.severe("Unexpected rule with empty antecedent on other than last position, leaving out this rule");
-                    continue;
-                }
-            } else if (rule.getRID() == lastRuleRID) {
-                LOGGER.severe("Last rule is expected to be a default rule with empty antecedent");
-            }
-            /*if (data.getDataTable().getCurrentTransactionCount() == 0) {
-                
-            }*/
-            
-            if (isAttRemovalEnabled)
-            {
-                LOGGER.info("STARTED removeRedundantAttributes ");
-                rule = rule.removeRedundantAttributes();
-                LOGGER.info("FINISHED removeRedundantAttributes ");
-            }
-            
-            if (rule.getAntecedent().getItems().size() == 0)
-            {
-                LOGGER.info("REMOVING DEFAULT RULE CREATED BY removeRedundantAttributes ");
-                continue;
-            }
-                      
-            
-            if (isTrimmingEnabled)
+        if (parallelism > 1 && !isContinuousPruningEnabled) {
+            extendedRules = processSeedRulesInParallel(isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, processedRules);
+        } else if (parallelism > 1) {
+            extendedRules = processSeedRulesSpeculatively(isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, processedRules);
+        } else {
+            for (Iterator<ExtendRule> it = seedRules.iterator(); it.hasNext();)
             {
-                rule = rule.trim();
-            }
-
-            if (type!=ExtendType.noExtend)
-            {
-                rule = rule.extend();                
-            }
-            if (isFuzzificationEnabled) {
-                rule = rule.addFuzzyBorders();
-            }
-            if (isContinuousPruningEnabled) {
-                //and now remove the transactions covered by the extended rule
-                int transRemoved = rule.removeTransactionsCoveredByAntecedent(true);
-                LOGGER.log(Level.INFO, "Removed {0} supporting transactions", transRemoved);
-                if (transRemoved == 0) {
+                LOGGER.log(Level.INFO, "Rules already processed:{0}  out of {1}", new Object[]{processedRules.addAndGet(1), this.seedRules.size()});
+                ExtendRule rule = processSeedRule(it.next(), isAttRemovalEnabled, isTrimmingEnabled, isFuzzificationEnabled, lastRuleRID, null);
+                if (rule == null) {
                     continue;
-                }                    
+                }
+                if (isContinuousPruningEnabled) {
+                    //and now remove the transactions covered by the extended rule
+                    int transRemoved = rule.removeTransactionsCoveredByAntecedent(true);
+                    LOGGER.log(Level.INFO, "Removed {0} supporting transactions", transRemoved);
+                    if (transRemoved == 0) {
+                        continue;
+                    }                    
+                }
+                extendedRules.add(rule);
             }
-            extendedRules.add(rule);
-        };
+        }
         
         LOGGER.info("FINISHED PHASE 1 phase\n");
+        LOGGER.log(Level.INFO, "Memoized antecedent evaluations: {0} hits, {1} misses", new Object[]{extensionMemoHits.get(), extensionMemoMisses.get()});
         if (isContinuousPruningEnabled)
         {
             // only cp hides (removes) transactions
@@ -269,7 +571,7 @@ public class ExtendRules {
         if (defaultRuleOverlapPruningType == DefaultRuleOverlapPruningType.transactionBased | defaultRuleOverlapPruningType == DefaultRuleOverlapPruningType.rangeBased)
         {               
             if (defaultRuleOverlapPruningType == DefaultRuleOverlapPruningType.transactionBased){
-                extendedRules = removeRedundantExtendedRules_transactionBased(extendedRules);
+                extendedRules = removeRedundantExtendedRules_transactionBased(extendedRules, parallelism);
                 data.getDataTable().unhideAllTransactions();
             }
             else{
@@ -301,22 +603,25 @@ public class ExtendRules {
       */
       public void pruneRules_greedy() {
         LOGGER.info("STARTED Postpruning");
-        AttributeValue defClass =  getDefaultRuleClass();
-        int defError = getDefaultRuleError(defClass);
+        PostPruningSweep sweep = new PostPruningSweep(data.getDataTable());
+        AttributeValue defClass =  sweep.getDefaultClass();
+        int defError = sweep.getDefaultError(defClass);
         boolean removeTail=false;
         for (Iterator<ExtendRule> it = extendedRules.iterator(); it.hasNext();) {
 
             ExtendRule rule = it.next();
-            rule.updateQuality();
-            if (LOGGER.isLoggable(Level.FINE)) {
-                LOGGER.log(Level.FINE, "#Rule {0}", rule.toString());
-            }
-            
             if (removeTail)
             {
                 it.remove();
+                continue;
             }
-            else if (rule.getAntecedentLength() == 0) {
+            PostPruningSweep.Cover cover = sweep.cover(rule);
+            rule.setRuleQuality(sweep.getQualityInRuleList(cover));
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "#Rule {0}", rule.toString());
+            }
+            
+            if (rule.getAntecedentLength() == 0) {
                 it.remove();
             }     
             else if (rule.getRuleQuality().getA() == 0)
@@ -325,9 +630,9 @@ public class ExtendRules {
             }
             else
             {
-                int supportingTransactions = rule.removeTransactionsCoveredByAntecedent(true);
-                AttributeValue newDefClass =  getDefaultRuleClass();
-                int newDefError = getDefaultRuleError(newDefClass);
+                sweep.accept(cover);
+                AttributeValue newDefClass =  sweep.getDefaultClass();
+                int newDefError = sweep.getDefaultError(newDefClass);
                 if (defError<=newDefError)
                 {
                     //adding the current rule did not decrease the errors compared to a default rule
@@ -335,16 +640,14 @@ public class ExtendRules {
                     removeTail=true;
                 }
                 else{
-                    LOGGER.log(Level.FINE, "{0} transactions, RULE {1} KEPT", new Object[]{supportingTransactions, rule.getRID()});
+                    LOGGER.log(Level.FINE, "{0} transactions, RULE {1} KEPT", new Object[]{cover.coverage, rule.getRID()});
                     defClass  = newDefClass;
                     defError  = newDefError;
                 }                
             }
-        
-            
-
-
         }
+        //the default rule is evaluated on the transactions left uncovered
+        sweep.hideCovered();
         LOGGER.fine("Creating new Extend rule within narrow rule procedure");
         extendedRules.add(createNewDefaultRule(defClass));
         LOGGER.info("FINISHED Postpruning");
@@ -355,81 +658,57 @@ public class ExtendRules {
       */
     public void pruneRules_cbaLike() {
         LOGGER.info("STARTED Postpruning");
-        //HashMap<ExtendRule,Integer> ruleErrors = new HashMap();
-        //HashMap<ExtendRule,AttributeValue> ruleDefClass = new HashMap();
-        ArrayList<ExtendRule> rulesToRemove = new ArrayList();        
+        PostPruningSweep sweep = new PostPruningSweep(data.getDataTable());
         int totalErrorsWithoutDefault = 0;        
-        AttributeValue defClassForLowestTotalErrorsRule =  getDefaultRuleClass();
-        int lowestTotalErrors = getDefaultRuleError(defClassForLowestTotalErrorsRule);;
-        ExtendRule lowestTotalErrorsRule  = null;
+        AttributeValue defClassForLowestTotalErrorsRule =  sweep.getDefaultClass();
+        int lowestTotalErrors = sweep.getDefaultError(defClassForLowestTotalErrorsRule);
         // DETERMINE TOTAL ERROR AND DEFAULT CLASS ASSOCIATED WITH EACH RULE 
-        // REMOVE RULES MATCHING ZERO TRANSACTIONS AND OF ZERO LENGTH
-        for (Iterator<ExtendRule> it = extendedRules.iterator(); it.hasNext();) {
-
-            ExtendRule rule = it.next();
-            rule.updateQuality();
-            rule.setQualityInRuleList(rule.getRuleQuality());
+        // RULES MATCHING ZERO TRANSACTIONS AND OF ZERO LENGTH ARE REMOVED
+        ArrayList<ExtendRule> keptRules = new ArrayList();
+        //quality of kept rules on all transactions, set if they precede the cut off
+        ArrayList<RuleQuality> keptRuleQualities = new ArrayList();
+        int cutOff = 0;
+        for (ExtendRule rule : extendedRules) {
+            PostPruningSweep.Cover cover = sweep.cover(rule);
+            RuleQuality qualityInRuleList = sweep.getQualityInRuleList(cover);
+            rule.setRuleQuality(qualityInRuleList);
+            rule.setQualityInRuleList(qualityInRuleList);
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Processing rule {0}", rule.toString());
             }
 
             if (rule.getAntecedentLength() == 0) {
-                LOGGER.fine("Rule of length 0, MARKED FOR REMOVAL");
-                rulesToRemove.add(rule); //covered transactions should not be removed
+                LOGGER.fine("Rule of length 0, REMOVED");
             }                 
-            else if (rule.getRuleQuality().getA() == 0)
+            else if (qualityInRuleList.getA() == 0)
             {
-                LOGGER.fine("Rule classifying 0 instances correctly, MARKED FOR REMOVAL");
-                rulesToRemove.add(rule); //covered transactions should not be removed                
+                LOGGER.fine("Rule classifying 0 instances correctly, REMOVED");
             }
             else
             {
-                rule.removeTransactionsCoveredByAntecedent(true);                
-                totalErrorsWithoutDefault = totalErrorsWithoutDefault + rule.getRuleQuality().getB();
-                // since transactions matching the current rule have been removed, the default class and error can change
-                AttributeValue newDefClass =  getDefaultRuleClass();
-                int newDefError = getDefaultRuleError(newDefClass);
+                sweep.accept(cover);
+                keptRules.add(rule);
+                keptRuleQualities.add(sweep.getQuality(cover));
+                totalErrorsWithoutDefault = totalErrorsWithoutDefault + qualityInRuleList.getB();
+                // since transactions matching the current rule are covered, the default class and error can change
+                AttributeValue newDefClass =  sweep.getDefaultClass();
+                int newDefError = sweep.getDefaultError(newDefClass);
                 int totalErrorWithDefault = newDefError + totalErrorsWithoutDefault;
                 if (totalErrorWithDefault < lowestTotalErrors)
                 {
                     lowestTotalErrors = totalErrorWithDefault;
-                    lowestTotalErrorsRule = rule;
+                    cutOff = keptRules.size();
                     defClassForLowestTotalErrorsRule= newDefClass;
                 }                    
-                //ruleErrors.put(rule,totalErrorWithDefault );
-                //ruleDefClass.put(rule, newDefClass);                    
             }
-                    
-        }
-        boolean removeTail;
-        // now we know the errors associated with each rule not marked for removal, we can perform pruning
-        if (lowestTotalErrorsRule == null)
-        {
-            // no rule improves error over a classifier composed of only default rule
-            // remove all rules
-            removeTail = true;
         }
-        else 
-        {
-            removeTail = false;
+        // rules after the rule with the lowest total error are removed, if no rule improves
+        // error over a classifier composed of only default rule, all rules are removed
+        extendedRules = new ArrayList(keptRules.subList(0, cutOff));
+        for (int i = 0; i < cutOff; i++) {
+            keptRules.get(i).setRuleQuality(keptRuleQualities.get(i));
         }
         
-        data.getDataTable().unhideAllTransactions();
-        for (Iterator<ExtendRule> it = extendedRules.iterator(); it.hasNext();) {
-            ExtendRule rule = it.next();
-            if (rulesToRemove.contains(rule) || removeTail)
-            {
-                it.remove();
-                continue;
-            }
-            if (rule.equals(lowestTotalErrorsRule))
-            {
-                removeTail = true;
-            }
-            rule.updateQuality();            
-        }
-        
-        
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Creating new default rule within narrow rule procedure");
         }
@@ -444,6 +723,21 @@ public class ExtendRules {
     // this version considers a rule redundant on the basis of transaction overlap in training data
     // this is less precise and removes more rules
     public static List<ExtendRule> removeRedundantExtendedRules_transactionBased(List<ExtendRule> rules) {
+        return removeRedundantExtendedRules_transactionBased(rules, 1);
+    }
+
+    /**
+     * A rule with the default class in the consequent is redundant if none of
+     * the transactions it classifies correctly is covered by a rule below it
+     * with another class. The covers of all rules are computed once, in
+     * parallel, the candidates are then tested against the union of the
+     * clashing covers below them in one pass from the bottom of the list.
+     *
+     * @param rules rules with the default rule on the last position, redundant rules are removed from the list
+     * @param threads number of threads computing the covers, values lower than 2 mean sequential processing
+     * @return
+     */
+    public static List<ExtendRule> removeRedundantExtendedRules_transactionBased(List<ExtendRule> rules, int threads) {
         LOGGER.info("STARTED removeRedundantExtendedRules - transaction based");
         LOGGER.info("Rules on start:" + rules.size());
         ExtendRule defRule = rules.get(rules.size()-1);
@@ -453,74 +747,82 @@ public class ExtendRules {
             
             return null;
         }
-        Consequent defClass = defRule.getConsequent();        
-        for (Iterator<ExtendRule> it = rules.iterator(); it.hasNext();) {             
-            ExtendRule PRCandidate = it.next();
+        int[] defClass = getClassCodes(defRule.getConsequent());
+        int n = rules.size() - 1;
+        boolean[] isCandidate = new boolean[n];
+        //transactions correctly classified by a candidate, transactions covered by other rules
+        CoverageBitmap[] covers = new CoverageBitmap[n];
+        IntConsumer computeCover = (i) -> {
+            ExtendRule rule = rules.get(i);
             // PRCandidate = go through all rules with default class in  the consequent
-            if (!PRCandidate.getConsequent().toString().equals(defClass.toString()))
-            {
-
-            }
-            // skip default rule
-            else if (PRCandidate.equals(defRule))
-            {
-                
-            }   
-            else{
-                Set<Transaction> suppTran = PRCandidate.getAntecedent().getSupportingTransactions();
+            isCandidate[i] = Arrays.equals(getClassCodes(rule.getConsequent()), defClass);
+            CoverageBitmap antTran = rule.getAntecedent().getCover();
+            if (isCandidate[i]) {
                 // get transactions only CORRECTLY classified by the candidate rule
-                Set<Transaction> consTran = PRCandidate.getConsequent().getSupportingTransactions();
-                suppTran.retainAll(consTran);
-
-                // Check if transactions correctly classified by pruning candidate intersect with transactions covered by those rules below prunCand in the rule list that assign  to different than default class.  If there are no such transactions PRCandidate can be removed
-                boolean nonEmptyIntersection=false;
-                boolean positionBelowPRCand = false;
-                for (Iterator<ExtendRule> innerIt = rules.iterator(); innerIt.hasNext();) {
-                    ExtendRule candidateClash = innerIt.next();
-                    // candidateClash is PRCandidate, which would always evaluate to overlap!
-                    if (candidateClash.equals(PRCandidate))
-                    {
-                        positionBelowPRCand = true;
-                        continue;
-                    }
-                    if (!positionBelowPRCand) continue;
-                    // candidateClash = go through all rules  with OTHER than default class in consequent 
-                    if (candidateClash.getConsequent().toString().equals(defClass.toString()))
-                    {
-                        continue;
-                    }
+                CoverageBitmap consTran = rule.getConsequent().getCover();
+                if (antTran != null) {
+                    consTran.and(antTran);
+                }
+                covers[i] = consTran;
+            } else {
+                //null if the antecedent is empty and matches all transactions
+                covers[i] = antTran;
+            }
+        };
+        if (threads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> IntStream.range(0, n).parallel().forEach(computeCover)).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while pruning rules", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            IntStream.range(0, n).forEach(computeCover);
+        }
 
-                    // check if transactions covered by PRCandidate intersect with transactions covered by candidateClash                
-
-                    for (Transaction t : candidateClash.getAntecedent().getSupportingTransactions())
-                    {
-
-                        if (suppTran.contains(t))
-                        {
-                            nonEmptyIntersection=true;
-                        }
-                            break;
-                    }                
-                    if (nonEmptyIntersection)
-                    {
-                        //go to next PRCandidate             
-                        break;
-                    }                    
+        // Check if transactions correctly classified by pruning candidate intersect with transactions covered by those rules below prunCand in the rule list that assign  to different than default class.  If there are no such transactions PRCandidate can be removed
+        boolean[] redundant = new boolean[n];
+        CoverageBitmap clashTran = new CoverageBitmap();
+        boolean clashAll = false;
+        for (int i = n - 1; i >= 0; i--) {
+            if (!isCandidate[i]) {
+                if (covers[i] == null) {
+                    clashAll = true;
+                } else if (!clashAll) {
+                    clashTran.or(covers[i]);
                 }
-                if (nonEmptyIntersection == false)
-                {
-                    //no other rule with different consequent covering at least one shared transaction was found
-                    //this rule can be removed
-                    LOGGER.fine("Removing rule:" + PRCandidate.toString());
-                    it.remove();
-                }                           
+            } else {
+                redundant[i] = clashAll ? covers[i].isEmpty() : !covers[i].intersects(clashTran);
+            }
+        }
+        int i = 0;
+        for (Iterator<ExtendRule> it = rules.iterator(); it.hasNext() && i < n; i++) {
+            ExtendRule PRCandidate = it.next();
+            if (redundant[i])
+            {
+                //no other rule with different consequent covering at least one shared transaction was found
+                //this rule can be removed
+                LOGGER.fine("Removing rule:" + PRCandidate.toString());
+                it.remove();
             }
-               
         }
         LOGGER.info("Rules on finish:" + rules.size());
         LOGGER.info("FINISHED removeRedundantExtendedRules - transaction based");
         return rules;
     }
+
+    // codes of the classes in the consequent, consequents with the same codes assign the same class
+    private static int[] getClassCodes(Consequent consequent) {
+        return consequent.getItems().getAttributeValues().stream().mapToInt((val) -> val.getCode()).sorted().toArray();
+    }
     
     
     // this version considers a rule redundant on the basis of comparing regions matched by the rules
@@ -529,94 +831,34 @@ public class ExtendRules {
         LOGGER.info("STARTED removeRedundantExtendedRules - range based");
         LOGGER.info("Rules on start:" + rules.size());
         ExtendRule defRule = rules.get(rules.size()-1);
-        Consequent defClass = defRule.getConsequent();        
-        for (Iterator<ExtendRule> it = rules.iterator(); it.hasNext();) {             
-            ExtendRule PRCandidate = it.next();
+        int[] defClass = getClassCodes(defRule.getConsequent());
+        // candidateClash = go through all rules  with OTHER than default class in consequent 
+        ArrayList<ExtendRule> clashRules = new ArrayList();
+        //number of clashing rules above each rule
+        int[] clashRulesAbove = new int[rules.size()];
+        boolean[] isCandidate = new boolean[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            ExtendRule rule = rules.get(i);
+            clashRulesAbove[i] = clashRules.size();
             // PRCandidate = go through all rules with default class in  the consequent
-            if (!PRCandidate.getConsequent().toString().equals(defClass.toString()))
-            {
-                continue;
+            isCandidate[i] = Arrays.equals(getClassCodes(rule.getConsequent()), defClass);
+            if (!isCandidate[i]) {
+                clashRules.add(rule);
             }
+        }
+        RuleRegionIndex clashIndex = new RuleRegionIndex(clashRules);
+        int i = 0;
+        for (Iterator<ExtendRule> it = rules.iterator(); it.hasNext(); i++) {             
+            ExtendRule PRCandidate = it.next();
             // skip default rule
-            if (PRCandidate.equals(defRule))
+            if (!isCandidate[i] || PRCandidate.equals(defRule))
             {
                 continue;
-            }            
-            ArrayList<RuleMultiItem> PR_items = PRCandidate.getAntecedent().getItems();
-            //create hashmap for fast access
-            HashMap<Attribute,RuleMultiItem> PR_itemsMap = new HashMap();
-            for (RuleMultiItem rmi : PR_items)
-            {
-                PR_itemsMap.put(rmi.getAttribute(), rmi);
-            }
-            
-            // check if there is no other rule classifying to different class that shares part of the region
-            // matched by the antecedent of PRCandidate 
-            boolean clashingRuleFound=false;
-            boolean positionBelowPRCand = false;
-            for (Iterator<ExtendRule> innerIt = rules.iterator(); innerIt.hasNext();) {
-                ExtendRule candidateClash = innerIt.next();
-                // candidateClash is PRCandidate, which would always evaluate to overlap!
-
-                if (candidateClash.equals(PRCandidate))
-                {
-                    positionBelowPRCand=true;
-                    continue;
-                }
-                // candidateClash = go through all rules  with OTHER than default class in consequent 
-                if (candidateClash.getConsequent().toString().equals(defClass.toString()))
-                {
-                    continue;
-                }
-                if (!positionBelowPRCand) continue;
-                
-                // check if at leat one literal in PRCandidate has empty intersection with Clash on shared attribute
-                
-                //in case there is no shared attribute, the intersection is non empty
-                ArrayList<RuleMultiItem> literalsInClashOnSharedAtt  = new ArrayList();
-                for (RuleMultiItem clash_rmi : candidateClash.getAntecedent().getItems())
-                {
-                    if (PR_itemsMap.containsKey(clash_rmi.getAttribute()))
-                    {
-                        literalsInClashOnSharedAtt.add(clash_rmi);
-                    }
-                }             
-                if (literalsInClashOnSharedAtt.isEmpty())
-                {
-                    clashingRuleFound =true;
-                    break;
-                }
-                // if there is NO intersection on at leat one of the shared attributes => no CLASH
-                // ELSE => CLASH
-                boolean attLeastOneAttDisjunct=true;
-                for (RuleMultiItem clash_rmi : literalsInClashOnSharedAtt)
-                {
-                    //PRCandidate has a literal created over the same attribute
-                    RuleMultiItem machingPR_RMI = PR_itemsMap.get(clash_rmi.getAttribute());
-
-                    //do values in the candidate clash intersect with values in PRCandidate?
-                    
-                    for (AttributeValue v : machingPR_RMI.getAttributeValues())
-                    {
-                        if (clash_rmi.getAttributeValues().contains(v))
-                        {
-                            attLeastOneAttDisjunct=false;
-                        }
-                    }
-                    if (attLeastOneAttDisjunct) // if we have non-empty intersection on one att we do not have to test the other ones, rule matches different part of the data space
-                    {
-                        //go to next PRCandidate             
-                        break;
-                    }                    
-                }                
-                if (!attLeastOneAttDisjunct)
-                {
-                    //go to next PRCandidate             
-                    clashingRuleFound=true;
-                    break;
-                }                    
             }
-            if (clashingRuleFound == false)
+            // check if there is no other rule below classifying to different class that shares part of the region
+            // matched by the antecedent of PRCandidate, the regions are disjunct if at least one literal 
+            // in PRCandidate has empty intersection with the clashing rule on a shared attribute
+            if (!clashIndex.overlapsAny(PRCandidate.getAntecedent().getItems(), clashRulesAbove[i]))
             {
                 //no other rule with different consequent covering at least one shared value was found
                 //this rule can be removed
@@ -645,13 +887,8 @@ public class ExtendRules {
     
     private AttributeValue getDefaultRuleClass()
     {
-        AttributeValue max = Collections.max(data.getDataTable().getTargetAttribute().getAllValues(), Comparator.comparing(c -> c.getTransactions().size()));
+        AttributeValue max = Collections.max(data.getDataTable().getTargetAttribute().getAllValues(), Comparator.comparing(c -> c.getTransactionCount()));
         return max;
     }
-    private int getDefaultRuleError(AttributeValue def)
-    {
-        int correct = def.getTransactions().size();
-        return data.getDataTable().getAllCurrentTransactions().size() - correct;
-    }
         
 }
@@ -0,0 +1,109 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.rule.RuleQuality;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Qualities of antecedents evaluated during the extension of one seed rule.
+ * The same antecedent can be reached several times, e.g. by enlarging an
+ * interval in both directions in a different order, it is then not evaluated
+ * again. The memo is valid only while no transactions are removed from the
+ * data table, it holds the most recently used entries up to its capacity.
+ *
+ * @author tomas
+ */
+final class ExtensionMemo {
+
+    /**
+     * Default maximum number of memoized antecedents.
+     */
+    final static int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final LinkedHashMap<AntecedentKey, RuleQuality> qualities;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     *
+     * @param capacity values lower than 1 disable the memo
+     */
+    ExtensionMemo(int capacity) {
+        this.capacity = capacity;
+        this.qualities = new LinkedHashMap<AntecedentKey, RuleQuality>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AntecedentKey, RuleQuality> eldest) {
+                return size() > ExtensionMemo.this.capacity;
+            }
+        };
+    }
+
+    /**
+     *
+     * @return false if nothing is memoized
+     */
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     *
+     * @param key
+     * @return quality of the antecedent or null if it was not evaluated yet
+     */
+    RuleQuality get(AntecedentKey key) {
+        RuleQuality quality = qualities.get(key);
+        if (quality == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return quality;
+    }
+
+    /**
+     *
+     * @param key
+     * @param quality
+     */
+    void put(AntecedentKey key, RuleQuality quality) {
+        if (isEnabled()) {
+            qualities.put(key, quality);
+        }
+    }
+
+    /**
+     *
+     * @return number of antecedents found in the memo
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     *
+     * @return number of antecedents, which had to be evaluated
+     */
+    long getMisses() {
+        return misses;
+    }
+}
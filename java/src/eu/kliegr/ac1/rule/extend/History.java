@@ -18,6 +18,7 @@
  */
 package eu.kliegr.ac1.rule.extend;
 
+import eu.kliegr.ac1.rule.ERIDAllocator;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -91,6 +92,25 @@ public final class History {
         //historyText.add(text);
     }
 
+    /**
+     * Replaces placeholder ERIDs assigned by a provisional ERIDAllocator
+     *
+     * @param base first final ERID
+     */
+    void resolveProvisionalERIDs(int base) {
+        LinkedHashMap<Integer,String[]> resolved = new LinkedHashMap();
+        for (Entry<Integer,String[]> e : history.entrySet()) {
+            String[] text = e.getValue();
+            //the text arrays can be shared with other histories, and may have been already resolved
+            int textERID = Integer.parseInt(text[1]);
+            if (ERIDAllocator.isProvisional(textERID)) {
+                text[1] = String.valueOf(ERIDAllocator.resolveProvisional(textERID, base));
+            }
+            resolved.put(ERIDAllocator.resolveProvisional(e.getKey(), base), text);
+        }
+        history = resolved;
+    }
+
     public String[] historyTableHeader() {
         String[] header =  {"RID","ERID","rule","supp","conf"};
         return header;
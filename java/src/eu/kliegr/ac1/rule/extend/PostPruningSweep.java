@@ -0,0 +1,204 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.DataTable;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import eu.kliegr.ac1.rule.RuleQuality;
+import java.util.ArrayList;
+
+/**
+ * State of a post-pruning pass over an ordered rule list. Keeps the
+ * transactions covered by the rules accepted so far and the number of not yet
+ * covered transactions in each class, so that the quality of a rule in the
+ * rule list and the default rule for the rest of the data are obtained without
+ * hiding transactions in the data table and recomputing the class counts.
+ *
+ * @author tomas
+ */
+class PostPruningSweep {
+
+    private final DataTable table;
+    private final int[] targetColumn;
+    //values of the target attribute in the order of Attribute.getAllValues, ties of the default class go to the first value
+    private final ArrayList<AttributeValue> targetValues;
+    //transactions active when the sweep started
+    private final CoverageBitmap transactions;
+    //transactions among them which are covered by the accepted rules
+    private final CoverageBitmap covered = new CoverageBitmap();
+    //number of not yet covered transactions of each class, indexed by code of the target value
+    private final int[] classCounts;
+    private final CoverageBitmap[] classCovers;
+    private int uncoveredCount;
+
+    /**
+     * Transactions of a rule, with the part not covered by the accepted rules.
+     */
+    static class Cover {
+
+        final CoverageBitmap transactions;
+        final CoverageBitmap uncovered;
+        final int[] classCounts;
+        final int coverage;
+        final int support;
+        final boolean[] isConsequentClass;
+
+        private Cover(CoverageBitmap transactions, CoverageBitmap uncovered, int[] classCounts, boolean[] isConsequentClass) {
+            this.transactions = transactions;
+            this.uncovered = uncovered;
+            this.classCounts = classCounts;
+            this.isConsequentClass = isConsequentClass;
+            int supportCount = 0;
+            for (int code = 0; code < classCounts.length; code++) {
+                if (isConsequentClass[code]) {
+                    supportCount += classCounts[code];
+                }
+            }
+            this.coverage = uncovered.getCardinality();
+            this.support = supportCount;
+        }
+    }
+
+    PostPruningSweep(DataTable table) {
+        this.table = table;
+        this.targetColumn = table.getTargetColumn();
+        this.targetValues = new ArrayList(table.getTargetAttribute().getAllValues());
+        this.transactions = table.getActiveTransactions().copy();
+        int maxCode = targetValues.stream().mapToInt((val) -> val.getCode()).max().orElse(-1);
+        classCounts = new int[maxCode + 1];
+        classCovers = new CoverageBitmap[maxCode + 1];
+        for (AttributeValue val : targetValues) {
+            classCovers[val.getCode()] = CoverageBitmap.and(val.getDataCover(), transactions);
+            classCounts[val.getCode()] = classCovers[val.getCode()].getCardinality();
+        }
+        uncoveredCount = transactions.getCardinality();
+    }
+
+    /**
+     * Computes the transactions of the rule, the class counts of its not yet
+     * covered transactions are obtained in one pass.
+     *
+     * @param rule
+     * @return
+     */
+    Cover cover(ExtendRule rule) {
+        CoverageBitmap ruleTransactions = null;
+        for (RuleMultiItem item : rule.getAntecedent().getItems()) {
+            if (ruleTransactions == null) {
+                ruleTransactions = item.getDataCover();
+            } else {
+                ruleTransactions.and(item.getDataCover());
+            }
+        }
+        if (ruleTransactions == null) {
+            //antecedent is empty, the rule matches every transaction
+            ruleTransactions = transactions.copy();
+        } else {
+            ruleTransactions.and(transactions);
+        }
+        CoverageBitmap uncovered = CoverageBitmap.andNot(ruleTransactions, covered);
+        int[] counts = new int[classCounts.length];
+        uncovered.forEach((tid) -> {
+            int code = targetColumn[tid - table.firstTID];
+            if (code >= 0 && code < counts.length) {
+                counts[code]++;
+            }
+        });
+        boolean[] isConsequentClass = new boolean[classCounts.length];
+        for (AttributeValue val : rule.getConsequent().getItems().getAttributeValues()) {
+            if (val.getCode() >= 0 && val.getCode() < isConsequentClass.length) {
+                isConsequentClass[val.getCode()] = true;
+            }
+        }
+        return new Cover(ruleTransactions, uncovered, counts, isConsequentClass);
+    }
+
+    /**
+     *
+     * @param cover
+     * @return quality of the rule on the transactions not covered by the accepted rules
+     */
+    RuleQuality getQualityInRuleList(Cover cover) {
+        return new RuleQuality(cover.support, cover.coverage - cover.support, table.getLoadedTransactionCount());
+    }
+
+    /**
+     *
+     * @param cover
+     * @return quality of the rule on all transactions the sweep started with
+     */
+    RuleQuality getQuality(Cover cover) {
+        int coverage = cover.transactions.getCardinality();
+        int support = 0;
+        for (int code = 0; code < classCovers.length; code++) {
+            if (cover.isConsequentClass[code] && classCovers[code] != null) {
+                support += CoverageBitmap.andCardinality(cover.transactions, classCovers[code]);
+            }
+        }
+        return new RuleQuality(support, coverage - support, table.getLoadedTransactionCount());
+    }
+
+    /**
+     * Accepts the rule, its transactions become covered.
+     *
+     * @param cover
+     */
+    void accept(Cover cover) {
+        covered.or(cover.uncovered);
+        for (int code = 0; code < classCounts.length; code++) {
+            classCounts[code] -= cover.classCounts[code];
+        }
+        uncoveredCount -= cover.coverage;
+    }
+
+    /**
+     *
+     * @return most frequent class among the not yet covered transactions
+     */
+    AttributeValue getDefaultClass() {
+        AttributeValue max = null;
+        for (AttributeValue val : targetValues) {
+            if (max == null || classCounts[val.getCode()] > classCounts[max.getCode()]) {
+                max = val;
+            }
+        }
+        return max;
+    }
+
+    /**
+     *
+     * @param defaultClass
+     * @return number of not yet covered transactions not in the default class
+     */
+    int getDefaultError(AttributeValue defaultClass) {
+        return uncoveredCount - classCounts[defaultClass.getCode()];
+    }
+
+    /**
+     * Hides the covered transactions in the data table, they are restored by
+     * DataTable.unhideAllTransactions.
+     */
+    void hideCovered() {
+        if (!covered.isEmpty()) {
+            table.removeTransactions(covered, true);
+        }
+    }
+}
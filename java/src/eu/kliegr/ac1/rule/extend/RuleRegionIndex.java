@@ -0,0 +1,266 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.Attribute;
+import eu.kliegr.ac1.data.AttributeType;
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.SortedAttributeValues;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the regions of the data space matched by rules. The antecedent of
+ * a rule is a box with a set of values on each of its attributes and no
+ * restriction on the other attributes. A literal on a numeric attribute whose
+ * values are adjacent is a range of positions in the sorted values of the
+ * attribute, these ranges are kept sorted by their low and by their high
+ * endpoints. For other literals the index keeps the rules containing each
+ * value as bitmaps of rule positions. The rules whose box overlaps a query
+ * box are obtained by AND of the rules overlapping each literal of the query.
+ *
+ * @author tomas
+ */
+class RuleRegionIndex {
+
+    private final int size;
+    private final HashMap<Attribute, AttributeIndex> attributes = new HashMap();
+
+    private static class AttributeIndex {
+
+        //sorted values the ranges refer to, null for nominal attributes
+        final SortedAttributeValues sorted;
+        //rules with a literal on the attribute
+        final CoverageBitmap restricted = new CoverageBitmap();
+        //rules containing a value, indexed by code of the value, only for literals which are not ranges
+        CoverageBitmap[] rulesWithValue = new CoverageBitmap[0];
+        boolean hasValueLiterals = false;
+        //rules without a literal on the attribute, set when the index is complete
+        CoverageBitmap unrestricted;
+        //ranges (rule position, low, high) collected before the index is complete
+        ArrayList<int[]> ranges = new ArrayList();
+        //rule positions of ranges ordered by low endpoint with their endpoints
+        int[] byLow;
+        int[] lowOfByLow;
+        int[] highOfByLow;
+        //rule positions of ranges ordered by high endpoint with their endpoints
+        int[] byHigh;
+        int[] lowOfByHigh;
+        int[] highOfByHigh;
+
+        AttributeIndex(Attribute attribute) {
+            sorted = attribute.getType() == AttributeType.numerical ? attribute.getSortedValues() : null;
+        }
+
+        void add(int position, RuleMultiItem item) {
+            restricted.add(position);
+            int[] range = getRange(item);
+            if (range != null) {
+                ranges.add(new int[]{position, range[0], range[1]});
+                return;
+            }
+            hasValueLiterals = true;
+            for (AttributeValue val : item.getAttributeValues()) {
+                int code = val.getCode();
+                if (code >= rulesWithValue.length) {
+                    rulesWithValue = Arrays.copyOf(rulesWithValue, Math.max(code + 1, rulesWithValue.length * 2));
+                }
+                if (rulesWithValue[code] == null) {
+                    rulesWithValue[code] = new CoverageBitmap();
+                }
+                rulesWithValue[code].add(position);
+            }
+        }
+
+        void complete(int size) {
+            unrestricted = CoverageBitmap.andNot(CoverageBitmap.range(0, size), restricted);
+            int n = ranges.size();
+            byLow = new int[n];
+            lowOfByLow = new int[n];
+            highOfByLow = new int[n];
+            ranges.sort(Comparator.comparingInt((int[] r) -> r[1]));
+            for (int i = 0; i < n; i++) {
+                byLow[i] = ranges.get(i)[0];
+                lowOfByLow[i] = ranges.get(i)[1];
+                highOfByLow[i] = ranges.get(i)[2];
+            }
+            byHigh = new int[n];
+            lowOfByHigh = new int[n];
+            highOfByHigh = new int[n];
+            ranges.sort(Comparator.comparingInt((int[] r) -> r[2]));
+            for (int i = 0; i < n; i++) {
+                byHigh[i] = ranges.get(i)[0];
+                lowOfByHigh[i] = ranges.get(i)[1];
+                highOfByHigh[i] = ranges.get(i)[2];
+            }
+            ranges = null;
+        }
+
+        //positions of the first and the last value of a numeric item with adjacent values, null for other items
+        int[] getRange(RuleMultiItem item) {
+            if (sorted == null || !item.isAdjacent()) {
+                return null;
+            }
+            int low = sorted.getPosition(item.getFirstValue());
+            int high = sorted.getPosition(item.getLastValue());
+            //values could have been added to the attribute since the item was created
+            if (low < 0 || high - low + 1 != item.getValueCount()) {
+                return null;
+            }
+            return new int[]{low, high};
+        }
+
+        /**
+         * Restricts the candidates to the rules overlapping the item on this
+         * attribute.
+         *
+         * @param item
+         * @param candidates modified in place
+         */
+        void retainOverlapping(RuleMultiItem item, CoverageBitmap candidates) {
+            CoverageBitmap overlapping = unrestricted.copy();
+            int[] range = getRange(item);
+            if (range != null) {
+                addOverlappingRanges(range[0], range[1], candidates, overlapping);
+                if (hasValueLiterals) {
+                    for (int pos = range[0]; pos <= range[1]; pos++) {
+                        addRulesWithValue(sorted.get(pos).getCode(), overlapping);
+                    }
+                }
+            } else if (sorted == null) {
+                long[] codes = item.getValueCodes();
+                for (int w = 0; w < codes.length; w++) {
+                    for (long word = codes[w]; word != 0; word &= word - 1) {
+                        addRulesWithValue((w << 6) + Long.numberOfTrailingZeros(word), overlapping);
+                    }
+                }
+            } else {
+                int[] positions = item.getAttributeValues().stream().mapToInt((val) -> sorted.getPosition(val)).filter((pos) -> pos >= 0).sorted().toArray();
+                for (int i = 0; i < byLow.length; i++) {
+                    //first value of the item not below the range
+                    int p = Arrays.binarySearch(positions, lowOfByLow[i]);
+                    p = p >= 0 ? p : -p - 1;
+                    if (p < positions.length && positions[p] <= highOfByLow[i]) {
+                        overlapping.add(byLow[i]);
+                    }
+                }
+                if (hasValueLiterals) {
+                    for (AttributeValue val : item.getAttributeValues()) {
+                        addRulesWithValue(val.getCode(), overlapping);
+                    }
+                }
+            }
+            candidates.and(overlapping);
+        }
+
+        /*
+        ranges with low <= high of the query are a prefix of byLow, ranges with high >= low
+        of the query a suffix of byHigh, the shorter one is scanned for the other condition
+         */
+        private void addOverlappingRanges(int low, int high, CoverageBitmap candidates, CoverageBitmap overlapping) {
+            int prefix = upperBound(lowOfByLow, high);
+            int suffix = byHigh.length - upperBound(highOfByHigh, low - 1);
+            if (prefix <= suffix) {
+                for (int i = 0; i < prefix; i++) {
+                    if (highOfByLow[i] >= low && candidates.contains(byLow[i])) {
+                        overlapping.add(byLow[i]);
+                    }
+                }
+            } else {
+                for (int i = byHigh.length - suffix; i < byHigh.length; i++) {
+                    if (lowOfByHigh[i] <= high && candidates.contains(byHigh[i])) {
+                        overlapping.add(byHigh[i]);
+                    }
+                }
+            }
+        }
+
+        private void addRulesWithValue(int code, CoverageBitmap overlapping) {
+            if (code < rulesWithValue.length && rulesWithValue[code] != null) {
+                overlapping.or(rulesWithValue[code]);
+            }
+        }
+
+        //number of elements of the sorted array which are less than or equal to the key
+        private static int upperBound(int[] sortedArray, int key) {
+            int from = 0;
+            int to = sortedArray.length;
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (sortedArray[mid] <= key) {
+                    from = mid + 1;
+                } else {
+                    to = mid;
+                }
+            }
+            return from;
+        }
+    }
+
+    /**
+     *
+     * @param rules indexed rules, the position in the list is the position in
+     * the index
+     */
+    RuleRegionIndex(List<ExtendRule> rules) {
+        size = rules.size();
+        for (int i = 0; i < size; i++) {
+            for (RuleMultiItem item : rules.get(i).getAntecedent().getItems()) {
+                attributes.computeIfAbsent(item.getAttribute(), (att) -> new AttributeIndex(att)).add(i, item);
+            }
+        }
+        for (AttributeIndex index : attributes.values()) {
+            index.complete(size);
+        }
+    }
+
+    /**
+     * Checks if any of the indexed rules from the given position on matches a
+     * region overlapping with the region matched by the items. The regions
+     * overlap if they share at least one value on each attribute restricted by
+     * both of them.
+     *
+     * @param items antecedent of the query rule
+     * @param from first position considered
+     * @return
+     */
+    boolean overlapsAny(List<RuleMultiItem> items, int from) {
+        if (from >= size) {
+            return false;
+        }
+        CoverageBitmap result = CoverageBitmap.range(from, size);
+        for (RuleMultiItem item : items) {
+            AttributeIndex index = attributes.get(item.getAttribute());
+            if (index == null) {
+                //no indexed rule restricts the attribute
+                continue;
+            }
+            index.retainOverlapping(item, result);
+            if (result.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,6 +20,7 @@ package eu.kliegr.ac1.rule.extend;
 
 import eu.kliegr.ac1.data.AttributeType;
 import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
 import eu.kliegr.ac1.rule.Consequent;
 import eu.kliegr.ac1.rule.RuleMultiItem;
 import java.util.ArrayList;
@@ -31,6 +32,34 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
 
     private static final Logger LOGGER = Logger.getLogger(TestRuleAnnotation.class.getName());
     private final HashMap<AttributeValue, AttributeValueAnnotation> attributeValAnns = new HashMap();
+    //set if the annotations are computed on demand from the rule instead of being added
+    private final ExtendRule source;
+    private final ArrayList<Consequent> consequents;
+    private final CoverageBitmap transactions;
+    private final AnnotationCache cache;
+
+    /**
+     * Annotation filled by addAnnotation
+     */
+    public TestRuleAnnotation() {
+        this(null, null, null, null);
+    }
+
+    /**
+     * Annotation of items of the rule computed on first use and kept in the
+     * cache.
+     *
+     * @param source
+     * @param consequents
+     * @param transactions transactions the annotations are computed on
+     * @param cache
+     */
+    public TestRuleAnnotation(ExtendRule source, ArrayList<Consequent> consequents, CoverageBitmap transactions, AnnotationCache cache) {
+        this.source = source;
+        this.consequents = consequents;
+        this.transactions = transactions;
+        this.cache = cache;
+    }
 
     /**
      *
@@ -61,13 +90,38 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
      */
     @Override
     public RuleMultiItemAnnotation getAnnotation(RuleMultiItem rmi) {
+        if (cache != null) {
+            return cache.get(this, rmi).annotation;
+        }
         RuleMultiItemAnnotation annot = new RuleMultiItemAnnotation();
         rmi.getAttributeValues().forEach((val) -> annot.add(attributeValAnns.get(val)));
         return annot;
     }
 
+    RuleMultiItemAnnotation compute(RuleMultiItem rmi) {
+        return generateRuleMultiItemAnnotation(source, rmi, consequents, transactions);
+    }
+
+    private AttributeValueAnnotation getValueAnnotation(AttributeValue tVal) {
+        if (cache == null) {
+            return attributeValAnns.get(tVal);
+        }
+        for (RuleMultiItem rmi : source.getAntecedent().getItems()) {
+            if (rmi.getAttribute() == tVal.getAttribute()) {
+                AttributeValueAnnotation annot = cache.get(this, rmi).byValue.get(tVal);
+                if (annot != null) {
+                    return annot;
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
+        if (cache != null) {
+            return source.getAntecedent().getItems().stream().map((rmi) -> getAnnotation(rmi).toString()).reduce((val1, val2) -> val1 + "\n" + val2).orElse("");
+        }
         return attributeValAnns.values().stream().map((val) -> val.toString()).reduce((val1, val2) -> val1 + "\n" + val2).orElse("");
     }
 
@@ -77,7 +131,7 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
      * @return
      */
     public ValueOrigin getValueOrigin(AttributeValue tVal) {
-        AttributeValueAnnotation val = attributeValAnns.get(tVal);
+        AttributeValueAnnotation val = getValueAnnotation(tVal);
         if (val == null) {
             return null;
         }
@@ -94,7 +148,7 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
 
         Distribution dist;
         AttributeValueAnnotation val;
-        val = attributeValAnns.get(tVal);
+        val = getValueAnnotation(tVal);
         if (val != null) {
             if (LOGGER.isLoggable(Level.FINEST)) {
                 LOGGER.log(Level.FINEST, "Annotated value ''{0}'' found, exact match", tVal.toString(true, true));
@@ -122,13 +176,13 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     LOGGER.log(Level.FINEST, "Only lower value found for ''{0}'', using this.", tVal.toString(true, true));
                 }
-                val = attributeValAnns.get(lower);
+                val = getValueAnnotation(lower);
                 dist = distrFactory.convert(val);
             } else if (lower == null) {
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     LOGGER.log(Level.FINEST, "Only higher value found for ''{0}'', using this.", tVal.toString(true, true));
                 }
-                val = attributeValAnns.get(higher);
+                val = getValueAnnotation(higher);
                 dist = distrFactory.convert(val);
             } else //only numerical attributes reach here
             {
@@ -140,10 +194,10 @@ public class TestRuleAnnotation extends ExtendRuleAnnotation {
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     LOGGER.log(Level.FINEST, "Performing interpolation for ''{0}'' between {1} with weight {2}(lower) and {3} with weight {4} (higher)", new Object[]{tVal.toString(true, true), lower.toString(true, true), weights[0], higher.toString(true, true), weights[1]});
                 }
-                Distribution lowerD = distrFactory.convert(attributeValAnns.get(lower));
+                Distribution lowerD = distrFactory.convert(getValueAnnotation(lower));
                 lowerD.setWeight(weights[0]);
                 toAgg.add(lowerD);
-                Distribution higherD = distrFactory.convert(attributeValAnns.get(higher));
+                Distribution higherD = distrFactory.convert(getValueAnnotation(higher));
                 higherD.setWeight(weights[1]);
                 toAgg.add(higherD);
                 dist = distrFactory.aggregate(toAgg);
@@ -0,0 +1,130 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.extend;
+
+import eu.kliegr.ac1.data.bitmap.CoverageBitmap;
+import java.util.ArrayList;
+
+/**
+ * Records transactions, which influenced the processing of a seed rule.
+ *
+ * Used by speculative extension under continuous pruning: if none of the
+ * recorded transactions is removed by the rules committed before, processing
+ * the rule again would give the same result. The recording is active only
+ * for the thread, which called {@link #start()}.
+ *
+ * @author tomas
+ */
+final class TouchedTransactions {
+
+    private static final ThreadLocal<TouchedTransactions> current = new ThreadLocal();
+    private final CoverageBitmap touched = new CoverageBitmap();
+    //the result depends on all current transactions (e.g. a rule with empty antecedent was evaluated)
+    private boolean all = false;
+    private final ArrayList<ConditionalHistogram> histograms = new ArrayList();
+    //recorder active on the thread before this one was started
+    private TouchedTransactions previous;
+
+    /**
+     * Starts recording for the current thread. The recording can be nested,
+     * e.g. when a thread waiting for subtasks of one seed rule processes
+     * another seed rule.
+     *
+     * @return
+     */
+    static TouchedTransactions start() {
+        TouchedTransactions recorder = new TouchedTransactions();
+        recorder.previous = current.get();
+        current.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * Stops recording for the current thread, the recorder active before
+     * the last start() is restored
+     */
+    static void stop() {
+        TouchedTransactions recorder = current.get();
+        if (recorder == null || recorder.previous == null) {
+            current.remove();
+        } else {
+            current.set(recorder.previous);
+            recorder.previous = null;
+        }
+    }
+
+    /**
+     *
+     * @return recorder of the current thread or null if recording is not active
+     */
+    static TouchedTransactions get() {
+        return current.get();
+    }
+
+    /**
+     *
+     * @param cover cover of an evaluated antecedent, null if the antecedent was empty
+     */
+    static void record(CoverageBitmap cover) {
+        TouchedTransactions recorder = current.get();
+        if (recorder == null) {
+            return;
+        }
+        if (cover == null) {
+            recorder.all = true;
+        } else {
+            recorder.touched.or(cover);
+        }
+    }
+
+    /**
+     * The transactions read by the histogram are resolved in {@link #resolve()}
+     *
+     * @param histogram
+     */
+    static void record(ConditionalHistogram histogram) {
+        TouchedTransactions recorder = current.get();
+        if (recorder != null) {
+            recorder.histograms.add(histogram);
+        }
+    }
+
+    /**
+     * Adds transactions read through recorded histograms, must be called
+     * before the data the histograms were created on change.
+     */
+    void resolve() {
+        for (ConditionalHistogram histogram : histograms) {
+            touched.or(histogram.getTouchedTransactions());
+        }
+        histograms.clear();
+    }
+
+    /**
+     *
+     * @param removed transactions removed since the recording started
+     * @return true if any of the removed transactions was recorded
+     */
+    boolean isAffectedBy(CoverageBitmap removed) {
+        if (removed.isEmpty()) {
+            return false;
+        }
+        return all || touched.intersects(removed);
+    }
+}
@@ -259,7 +259,15 @@ public class ArulesParser {
                     values.add(val);
                     
                 }
-                RuleMultiItem rmi = data.makeRuleItem(values, attname);
+                RuleMultiItem rmi;
+                if (matchesNumeric)
+                {
+                    rmi = data.makeRuleItem(values, attname, Float.parseFloat(normInfinity(intervalMatcher.group(2))), intervalMatcher.group(1).equals("["), Float.parseFloat(normInfinity(intervalMatcher.group(3))), intervalMatcher.group(4).equals("]"));
+                }
+                else
+                {
+                    rmi = data.makeRuleItem(values, attname);
+                }
                 out.add(rmi);
            }
          }
@@ -0,0 +1,453 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.parsers;
+
+import eu.kliegr.ac1.data.AttributeValue;
+import eu.kliegr.ac1.data.AttributeValueType;
+import eu.kliegr.ac1.rule.Antecedent;
+import eu.kliegr.ac1.rule.AttributeNotFoundException;
+import eu.kliegr.ac1.rule.Consequent;
+import eu.kliegr.ac1.rule.Data;
+import eu.kliegr.ac1.rule.Rule;
+import eu.kliegr.ac1.rule.RuleMultiItem;
+import eu.kliegr.ac1.rule.RuleQuality;
+import eu.kliegr.ac1.rule.extend.AttributeValueAnnotation;
+import eu.kliegr.ac1.rule.extend.RuleMultiItemAnnotation;
+import eu.kliegr.ac1.rule.extend.TestRuleAnnotation;
+import eu.kliegr.ac1.rule.extend.ValueOrigin;
+import static eu.kliegr.ac1.rule.parsers.ArulesParser.normInfinity;
+import static eu.kliegr.ac1.rule.parsers.BinaryModelWriter.ANNOTATED;
+import static eu.kliegr.ac1.rule.parsers.BinaryModelWriter.INTERVAL;
+import static eu.kliegr.ac1.rule.parsers.BinaryModelWriter.NEGATED;
+import static eu.kliegr.ac1.rule.parsers.BinaryModelWriter.NULL_COUNT;
+import static eu.kliegr.ac1.rule.parsers.BinaryModelWriter.NULL_STRING;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads rules from the binary model format written by BinaryModelWriter.
+ *
+ * The file is memory-mapped and strings are decoded only when first used.
+ * Rules are resolved against the data in the same way as in
+ * GUHASimplifiedParser, so that a model loaded from binary file is identical
+ * to the model loaded from its XML counterpart.
+ *
+ * @author tomas
+ */
+public class BinaryModelParser {
+
+    private final static Logger LOGGER = Logger.getLogger(BinaryModelParser.class.getName());
+
+    Data data;
+
+    /**
+     *
+     * @param data
+     */
+    public BinaryModelParser(Data data) {
+        this.data = data;
+    }
+
+    /**
+     *
+     * @param path
+     * @return
+     * @throws Exception
+     */
+    public ArrayList<Rule> parseFileForRules(String path) throws Exception {
+        LOGGER.log(Level.INFO, "Reading rules from {0}\n", path);
+        Model model = Model.open(path);
+        ArrayList<Rule> rules = new ArrayList(model.ruleCount);
+        for (int i = 0; i < model.ruleCount; i++) {
+            rules.add(parseRule(model, model.rule(i)));
+        }
+        return rules;
+    }
+
+    /**
+     * Converts binary model file to GUHA XML format, the output is gzipped if
+     * the path ends with .gz
+     *
+     * @param binaryPath
+     * @param xmlPath
+     * @throws IOException
+     */
+    public static void convertToXML(String binaryPath, String xmlPath) throws IOException {
+        Model model = Model.open(binaryPath);
+        OutputStream os = new FileOutputStream(xmlPath);
+        if (xmlPath.endsWith(".gz")) {
+            os = new GZIPOutputStream(os);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+            writer.write("<AssociationRules xmlns=\"http://keg.vse.cz/lm/AssociationRules/v1.0\">\n");
+            writer.write("<AssociationModel xmlns=\"http://keg.vse.cz/ns/GUHA0.1rev1\">\n");
+            for (int i = 0; i < model.ruleCount; i++) {
+                new XMLExport(model, writer).rule(model.rule(i));
+            }
+            writer.write("</AssociationModel>");
+            writer.write("</AssociationRules>");
+        }
+        LOGGER.log(Level.INFO, "File saved to {0}", xmlPath);
+    }
+
+    private Rule parseRule(Model model, ByteBuffer record) throws Exception {
+        int ruleid = record.getInt();
+        //text is only informative
+        record.getInt();
+        TestRuleAnnotation ruleAnnot = new TestRuleAnnotation();
+        int itemCount = model.count(record);
+        ArrayList<RuleMultiItem> antItems = new ArrayList();
+        for (int i = 0; i < itemCount; i++) {
+            AnnotatedRuleMultiItem annRMI = parseAttribute(model, record);
+            antItems.add(annRMI.rmi);
+            ruleAnnot.addAnnotation(annRMI.rmi, annRMI.annotation);
+        }
+        Antecedent ant = new Antecedent(antItems);
+        Consequent con = ConsequentCache.getConsequent(parseAttribute(model, record).rmi);
+        skipIMValues(model, record);
+        RuleQuality qm = parseFourFtTable(record);
+        return new Rule(ant, con, qm, ruleAnnot, ruleid, null, data);
+    }
+
+    private AnnotatedRuleMultiItem parseAttribute(Model model, ByteBuffer record) throws AttributeNotFoundException {
+        String attributeName = model.string(record.getInt());
+        byte flags = record.get();
+        boolean negated = (flags & NEGATED) != 0;
+        ArrayList<AttributeValue> allValues = new ArrayList();
+        int categoryCount = model.count(record);
+        for (int c = 0; c < categoryCount; c++) {
+            //category name is only informative
+            record.getInt();
+            int dataCount = model.count(record);
+            for (int d = 0; d < dataCount; d++) {
+                ArrayList<AttributeValue> dataValues = null;
+                int elementCount = model.count(record);
+                for (int e = 0; e < elementCount; e++) {
+                    Collection<AttributeValue> values;
+                    if (record.get() == INTERVAL) {
+                        String closure = model.string(record.getInt());
+                        float leftMargin = Float.parseFloat(normInfinity(model.string(record.getInt())));
+                        float rightMargin = Float.parseFloat(normInfinity(model.string(record.getInt())));
+                        boolean fromInclusive = closure.startsWith("closed");
+                        boolean toInclusive = closure.endsWith("Closed");
+                        values = data.getValuesInRange(attributeName, leftMargin, fromInclusive, rightMargin, toInclusive, negated);
+                    } else {
+                        values = data.getValuesByEnumeration(attributeName, new String[]{model.string(record.getInt())}, negated, AttributeValueType.breakpoint);
+                    }
+                    if (dataValues == null) {
+                        dataValues = new ArrayList(values);
+                    } else if (negated) {
+                        // multiple negated intervals within one category, keep only the intersection
+                        dataValues.retainAll(values);
+                    } else {
+                        dataValues.addAll(values);
+                    }
+                }
+                if (dataValues != null) {
+                    allValues.addAll(dataValues);
+                }
+            }
+        }
+        RuleMultiItem rmi = data.makeRuleItem(allValues, attributeName);
+        RuleMultiItemAnnotation annotation = null;
+        if ((flags & ANNOTATED) != 0) {
+            annotation = parseAnnotations(model, record, attributeName);
+        }
+        return new AnnotatedRuleMultiItem(rmi, annotation);
+    }
+
+    private RuleMultiItemAnnotation parseAnnotations(Model model, ByteBuffer record, String attributeName) throws AttributeNotFoundException {
+        RuleMultiItemAnnotation annotationList = new RuleMultiItemAnnotation();
+        int annotationCount = record.getInt();
+        String targetName = data.getTargetAttribute().getName();
+        for (int a = 0; a < annotationCount; a++) {
+            String value = model.string(record.getInt());
+            ValueOrigin origin = ValueOrigin.valueOf(model.string(record.getInt()));
+            int consequentCount = model.count(record);
+            if (consequentCount < 0) {
+                annotationList.add(null);
+                continue;
+            }
+            AttributeValueAnnotation annot = new AttributeValueAnnotation(data.getValue(attributeName, value, AttributeValueType.breakpoint), origin);
+            for (int c = 0; c < consequentCount; c++) {
+                ArrayList<AttributeValue> values = new ArrayList();
+                int valueCount = model.count(record);
+                for (int v = 0; v < valueCount; v++) {
+                    values.add(data.getValue(targetName, model.string(record.getInt()), AttributeValueType.breakpoint));
+                }
+                skipIMValues(model, record);
+                RuleQuality quality = parseFourFtTable(record);
+                annot.add(ConsequentCache.getConsequent(data.makeRuleItem(values, targetName)), quality);
+            }
+            annotationList.add(annot);
+        }
+        return annotationList;
+    }
+
+    private static void skipIMValues(Model model, ByteBuffer record) {
+        int count = model.count(record);
+        record.position(record.position() + Math.max(count, 0) * 8);
+    }
+
+    private static RuleQuality parseFourFtTable(ByteBuffer record) {
+        int a = record.getInt();
+        int b = record.getInt();
+        int c = record.getInt();
+        int d = record.getInt();
+        if (c == NULL_COUNT || d == NULL_COUNT) {
+            return new RuleQuality(a, b);
+        }
+        return new RuleQuality(a, b, c, d);
+    }
+
+    /**
+     * Memory-mapped binary model file.
+     */
+    static class Model {
+
+        final ByteBuffer buffer;
+        final short version;
+        final int ruleCount;
+        private final int stringCount;
+        private final int stringOffsets;
+        private final int stringData;
+        private final int ruleOffsets;
+        private final int records;
+        private final String[] strings;
+
+        static Model open(String path) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                return new Model(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+            }
+        }
+
+        Model(ByteBuffer buffer, String path) throws IOException {
+            this.buffer = buffer;
+            if (buffer.limit() < 16 || buffer.getInt(0) != BinaryModelWriter.MAGIC) {
+                throw new IOException("Not a binary model file: " + path);
+            }
+            version = buffer.getShort(4);
+            if (version > BinaryModelWriter.VERSION) {
+                throw new IOException("Unsupported binary model version " + version + " in " + path + ", the highest supported version is " + BinaryModelWriter.VERSION);
+            }
+            stringCount = buffer.getInt(8);
+            ruleCount = buffer.getInt(12);
+            stringOffsets = 16;
+            stringData = stringOffsets + 4 * (stringCount + 1);
+            ruleOffsets = stringData + buffer.getInt(stringOffsets + 4 * stringCount);
+            records = ruleOffsets + 4 * ruleCount;
+            strings = new String[stringCount];
+        }
+
+        /**
+         * Reads number of elements, version 1 stored the numbers as short.
+         */
+        int count(ByteBuffer record) {
+            return version < 2 ? record.getShort() : record.getInt();
+        }
+
+        /**
+         * Record of i-th rule positioned at its start.
+         */
+        ByteBuffer rule(int i) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(records + buffer.getInt(ruleOffsets + 4 * i));
+            return record;
+        }
+
+        String string(int id) {
+            if (id == NULL_STRING) {
+                return null;
+            }
+            if (strings[id] == null) {
+                int from = stringData + buffer.getInt(stringOffsets + 4 * id);
+                int to = stringData + buffer.getInt(stringOffsets + 4 * (id + 1));
+                byte[] bytes = new byte[to - from];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(from);
+                slice.get(bytes);
+                strings[id] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return strings[id];
+        }
+    }
+
+    /**
+     * Writes rule records as AssociationRule elements, the layout follows the
+     * output of GUHASimplifiedParser.saveRules.
+     */
+    private static class XMLExport {
+
+        private final Model model;
+        private final Writer writer;
+
+        XMLExport(Model model, Writer writer) {
+            this.model = model;
+            this.writer = writer;
+        }
+
+        void rule(ByteBuffer record) throws IOException {
+            line(0, "<AssociationRule id=\"" + record.getInt() + "\">");
+            int text = record.getInt();
+            if (text != NULL_STRING) {
+                line(1, "<Text>" + escape(model.string(text)) + "</Text>");
+            }
+            line(1, "<Antecedent>");
+            int itemCount = model.count(record);
+            if (itemCount == 0) {
+                line(2, "<Cedent connective=\"Conjunction\"/>");
+            } else {
+                line(2, "<Cedent connective=\"Conjunction\">");
+                for (int i = 0; i < itemCount; i++) {
+                    attribute(record, 3);
+                }
+                line(2, "</Cedent>");
+            }
+            line(1, "</Antecedent>");
+            line(1, "<Consequent>");
+            line(2, "<Cedent connective=\"Conjunction\">");
+            attribute(record, 3);
+            line(2, "</Cedent>");
+            line(1, "</Consequent>");
+            imValues(record, 1);
+            fourFtTable(record, 1);
+            line(0, "</AssociationRule>");
+        }
+
+        private void attribute(ByteBuffer record, int depth) throws IOException {
+            String column = model.string(record.getInt());
+            byte flags = record.get();
+            if ((flags & NEGATED) != 0) {
+                line(depth, "<Cedent connective=\"Negation\">");
+                depth++;
+            }
+            line(depth, "<Attribute>");
+            line(depth + 1, "<Column>" + escape(column) + "</Column>");
+            int categoryCount = model.count(record);
+            for (int c = 0; c < categoryCount; c++) {
+                line(depth + 1, "<Category>");
+                int name = record.getInt();
+                if (name != NULL_STRING) {
+                    line(depth + 2, "<Name>" + escape(model.string(name)) + "</Name>");
+                }
+                int dataCount = model.count(record);
+                for (int d = 0; d < dataCount; d++) {
+                    line(depth + 2, "<Data>");
+                    int elementCount = model.count(record);
+                    for (int e = 0; e < elementCount; e++) {
+                        if (record.get() == INTERVAL) {
+                            String closure = model.string(record.getInt());
+                            String leftMargin = model.string(record.getInt());
+                            String rightMargin = model.string(record.getInt());
+                            line(depth + 3, "<Interval closure=\"" + escape(closure) + "\" leftMargin=\"" + escape(leftMargin) + "\" rightMargin=\"" + escape(rightMargin) + "\"/>");
+                        } else {
+                            line(depth + 3, "<Value>" + escape(model.string(record.getInt())) + "</Value>");
+                        }
+                    }
+                    line(depth + 2, "</Data>");
+                }
+                line(depth + 1, "</Category>");
+            }
+            if ((flags & ANNOTATED) != 0) {
+                annotations(record, depth + 1);
+            }
+            line(depth, "</Attribute>");
+            if ((flags & NEGATED) != 0) {
+                line(depth - 1, "</Cedent>");
+            }
+        }
+
+        private void annotations(ByteBuffer record, int depth) throws IOException {
+            line(depth, "<Annotations>");
+            int annotationCount = record.getInt();
+            for (int a = 0; a < annotationCount; a++) {
+                line(depth + 1, "<Annotation>");
+                line(depth + 2, "<Value>" + escape(model.string(record.getInt())) + "</Value>");
+                line(depth + 2, "<Origin>" + escape(model.string(record.getInt())) + "</Origin>");
+                int consequentCount = model.count(record);
+                if (consequentCount >= 0) {
+                    line(depth + 2, "<Distribution>");
+                    for (int c = 0; c < consequentCount; c++) {
+                        line(depth + 3, "<Consequent>");
+                        int valueCount = model.count(record);
+                        for (int v = 0; v < valueCount; v++) {
+                            line(depth + 4, "<Value>" + escape(model.string(record.getInt())) + "</Value>");
+                        }
+                        imValues(record, depth + 4);
+                        fourFtTable(record, depth + 4);
+                        line(depth + 3, "</Consequent>");
+                    }
+                    line(depth + 2, "</Distribution>");
+                }
+                line(depth + 1, "</Annotation>");
+            }
+            line(depth, "</Annotations>");
+        }
+
+        private void imValues(ByteBuffer record, int depth) throws IOException {
+            int count = model.count(record);
+            if (count < 0) {
+                return;
+            }
+            line(depth, "<IMValues>");
+            for (int i = 0; i < count; i++) {
+                String name = model.string(record.getInt());
+                String value = model.string(record.getInt());
+                line(depth + 1, "<IMValue name=\"" + escape(name) + "\">" + escape(value) + "</IMValue>");
+            }
+            line(depth, "</IMValues>");
+        }
+
+        private void fourFtTable(ByteBuffer record, int depth) throws IOException {
+            StringBuilder sb = new StringBuilder("<FourFtTable");
+            for (String cell : new String[]{"a", "b", "c", "d"}) {
+                int value = record.getInt();
+                sb.append(" ").append(cell).append("=\"").append(value == NULL_COUNT ? "null" : String.valueOf(value)).append("\"");
+            }
+            line(depth, sb.append("/>").toString());
+        }
+
+        private void line(int depth, String content) throws IOException {
+            for (int i = 0; i < depth; i++) {
+                writer.write("    ");
+            }
+            writer.write(content);
+            writer.write("\n");
+        }
+
+        private static String escape(String s) {
+            return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+    }
+}
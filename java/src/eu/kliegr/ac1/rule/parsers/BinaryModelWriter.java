@@ -0,0 +1,323 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.rule.parsers;
+
+import eu.kliegr.ac1.rule.RuleInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes rules into the binary model format read by BinaryModelParser.
+ *
+ * The file starts with a header (magic number, format version, flags, number
+ * of strings, number of rules), followed by a string table (offsets followed
+ * by UTF-8 bytes), an offset for each rule record and the rule records. All
+ * strings which appear in the rule - attribute names, values, interval
+ * margins, annotation origins - are stored as indices to the string table,
+ * which keeps the records compact and allows the file to be memory-mapped and
+ * decoded lazily. The records hold the same content as the GUHA XML
+ * serialization so that the conversion in both directions is lossless.
+ *
+ * @author tomas
+ */
+public class BinaryModelWriter {
+
+    private final static Logger LOGGER = Logger.getLogger(BinaryModelWriter.class.getName());
+
+    /**
+     * "QCBM"
+     */
+    public final static int MAGIC = 0x5143424D;
+
+    /**
+     * Version 2 stores the numbers of elements as int instead of short.
+     */
+    public final static short VERSION = 2;
+
+    //marks missing c and d in FourFtTable
+    final static int NULL_COUNT = Integer.MIN_VALUE;
+    //marks missing string
+    final static int NULL_STRING = -1;
+    //kinds of elements within Data
+    final static byte INTERVAL = 0;
+    final static byte VALUE = 1;
+    //item flags
+    final static byte NEGATED = 1;
+    final static byte ANNOTATED = 2;
+
+    private final HashMap<String, Integer> stringIds = new HashMap();
+    private final ArrayList<String> strings = new ArrayList();
+    private final ArrayList<Integer> ruleOffsets = new ArrayList();
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(records);
+
+    /**
+     * Saves rules into binary model file.
+     *
+     * @param rules
+     * @param path
+     * @throws Exception
+     */
+    public static void saveRules(List<? extends RuleInt> rules, String path) throws Exception {
+        BinaryModelWriter writer = new BinaryModelWriter();
+        for (RuleInt rule : rules) {
+            writer.addRule(rule.getXMLRepresentation());
+        }
+        writer.write(path);
+    }
+
+    /**
+     * Converts rules in GUHA XML format (optionally gzipped) to binary model
+     * file.
+     *
+     * @param xmlPath
+     * @param binaryPath
+     * @throws Exception
+     */
+    public static void convertFromXML(String xmlPath, String binaryPath) throws Exception {
+        BinaryModelWriter writer = new BinaryModelWriter();
+        GUHASimplifiedParser.forEachRuleNode(xmlPath, writer::addRule);
+        writer.write(binaryPath);
+    }
+
+    /**
+     * Appends AssociationRule element in GUHA XML format to the model.
+     *
+     * @param rule
+     * @throws IOException
+     */
+    public void addRule(Node rule) throws IOException {
+        ruleOffsets.add(out.size());
+        out.writeInt(Integer.parseInt(rule.getAttributes().getNamedItem("id").getNodeValue()));
+        Node text = child(rule, "Text");
+        out.writeInt(text == null ? NULL_STRING : string(text.getTextContent()));
+        List<Node> antecedent = cedentAttributes(child(rule, "Antecedent"));
+        out.writeInt(antecedent.size());
+        for (Node attribute : antecedent) {
+            writeAttribute(attribute);
+        }
+        List<Node> consequent = cedentAttributes(child(rule, "Consequent"));
+        if (consequent.size() != 1) {
+            throw new UnsupportedOperationException("Consequent must have exactly one attribute and has " + consequent.size());
+        }
+        writeAttribute(consequent.get(0));
+        writeIMValues(child(rule, "IMValues"));
+        writeFourFtTable(child(rule, "FourFtTable"));
+    }
+
+    /**
+     * Writes the model to file.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void write(String path) throws IOException {
+        byte[][] encoded = new byte[strings.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            file.writeInt(MAGIC);
+            file.writeShort(VERSION);
+            file.writeShort(0);
+            file.writeInt(encoded.length);
+            file.writeInt(ruleOffsets.size());
+            int offset = 0;
+            for (byte[] s : encoded) {
+                file.writeInt(offset);
+                offset += s.length;
+            }
+            file.writeInt(offset);
+            for (byte[] s : encoded) {
+                file.write(s);
+            }
+            for (int ruleOffset : ruleOffsets) {
+                file.writeInt(ruleOffset);
+            }
+            records.writeTo(file);
+        }
+        LOGGER.log(Level.INFO, "Saved {0} rules to {1}", new Object[]{ruleOffsets.size(), path});
+    }
+
+    private void writeAttribute(Node attribute) throws IOException {
+        boolean negated = false;
+        if (attribute.getNodeName().equals("Cedent")) {
+            negated = true;
+            attribute = child(attribute, "Attribute");
+        }
+        Node annotations = child(attribute, "Annotations");
+        out.writeInt(string(child(attribute, "Column").getTextContent()));
+        out.writeByte((negated ? NEGATED : 0) | (annotations != null ? ANNOTATED : 0));
+        List<Node> categories = children(attribute, "Category");
+        out.writeInt(categories.size());
+        for (Node category : categories) {
+            Node name = child(category, "Name");
+            out.writeInt(name == null ? NULL_STRING : string(name.getTextContent()));
+            List<Node> data = children(category, "Data");
+            out.writeInt(data.size());
+            for (Node dataNode : data) {
+                List<Node> elements = new ArrayList();
+                for (Node element : children(dataNode, null)) {
+                    if (element.getNodeName().equals("Interval") || element.getNodeName().equals("Value")) {
+                        elements.add(element);
+                    }
+                }
+                out.writeInt(elements.size());
+                for (Node element : elements) {
+                    if (element.getNodeName().equals("Interval")) {
+                        out.writeByte(INTERVAL);
+                        out.writeInt(string(attributeValue(element, "closure")));
+                        out.writeInt(string(attributeValue(element, "leftMargin")));
+                        out.writeInt(string(attributeValue(element, "rightMargin")));
+                    } else {
+                        out.writeByte(VALUE);
+                        out.writeInt(string(element.getTextContent()));
+                    }
+                }
+            }
+        }
+        if (annotations == null) {
+            return;
+        }
+        List<Node> annotationList = children(annotations, "Annotation");
+        out.writeInt(annotationList.size());
+        for (Node annotation : annotationList) {
+            out.writeInt(string(child(annotation, "Value").getTextContent()));
+            out.writeInt(string(child(annotation, "Origin").getTextContent()));
+            Node distributionNode = child(annotation, "Distribution");
+            if (distributionNode == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            List<Node> distribution = children(distributionNode, "Consequent");
+            out.writeInt(distribution.size());
+            for (Node consequent : distribution) {
+                List<Node> values = children(consequent, "Value");
+                out.writeInt(values.size());
+                for (Node value : values) {
+                    out.writeInt(string(value.getTextContent()));
+                }
+                writeIMValues(child(consequent, "IMValues"));
+                writeFourFtTable(child(consequent, "FourFtTable"));
+            }
+        }
+    }
+
+    private void writeIMValues(Node imValues) throws IOException {
+        if (imValues == null) {
+            out.writeInt(-1);
+            return;
+        }
+        List<Node> values = children(imValues, "IMValue");
+        out.writeInt(values.size());
+        for (Node value : values) {
+            out.writeInt(string(attributeValue(value, "name")));
+            out.writeInt(string(value.getTextContent()));
+        }
+    }
+
+    private void writeFourFtTable(Node table) throws IOException {
+        for (String cell : new String[]{"a", "b", "c", "d"}) {
+            String value = attributeValue(table, cell);
+            if (value == null || value.equals("null")) {
+                out.writeInt(NULL_COUNT);
+            } else {
+                out.writeInt(Integer.parseInt(value));
+            }
+        }
+    }
+
+    private int string(String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns attributes of the single conjunctive cedent; negated attributes
+     * are returned as the enclosing negation cedent.
+     */
+    private static List<Node> cedentAttributes(Node cedentParent) {
+        if (cedentParent == null) {
+            throw new UnsupportedOperationException("No cedents not supported.");
+        }
+        List<Node> cedents = children(cedentParent, "Cedent");
+        if (cedents.isEmpty()) {
+            throw new UnsupportedOperationException("No cedents not supported.");
+        } else if (cedents.size() > 1) {
+            throw new UnsupportedOperationException("Multiple cedents not supported.");
+        }
+        Node cedent = cedents.get(0);
+        if (!attributeValue(cedent, "connective").equals("Conjunction")) {
+            throw new UnsupportedOperationException("Disjunctions not supported.");
+        }
+        List<Node> attributes = new ArrayList();
+        for (Node node : children(cedent, null)) {
+            if (node.getNodeName().equals("Attribute")) {
+                attributes.add(node);
+            } else if (node.getNodeName().equals("Cedent")) {
+                if (!attributeValue(node, "connective").equals("Negation")) {
+                    throw new UnsupportedOperationException("Unexpected or unsupported Cedent.");
+                }
+                attributes.add(node);
+            }
+        }
+        return attributes;
+    }
+
+    private static String attributeValue(Node node, String name) {
+        Node attr = node.getAttributes().getNamedItem(name);
+        return attr == null ? null : attr.getTextContent();
+    }
+
+    private static Node child(Node node, String name) {
+        List<Node> children = children(node, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    /**
+     * Child elements with given name, all child elements if name is null.
+     */
+    private static List<Node> children(Node node, String name) {
+        List<Node> result = new ArrayList();
+        NodeList nodes = node.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node child = nodes.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE && (name == null || child.getNodeName().equals(name))) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+}
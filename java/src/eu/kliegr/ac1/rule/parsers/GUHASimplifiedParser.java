@@ -264,9 +264,28 @@ public class GUHASimplifiedParser {
     public ArrayList<Rule> parseFileForRules(String path) throws FileNotFoundException, XMLStreamException, IOException, SAXException, XPathExpressionException, ParserConfigurationException, Exception {
         LOGGER.log(Level.INFO, "Reading rules from {0}\n", path);
         ArrayList<Rule> rules = new ArrayList();
+        forEachRuleNode(path, (ruleNode) -> rules.add(parseAssociationRule(ruleNode)));
+        return rules;
+    }
+
+    /**
+     * Receives AssociationRule elements read from a file.
+     */
+    interface RuleNodeHandler {
+
+        void handle(Node rule) throws Exception;
+    }
 
+    /**
+     * Reads AssociationRule elements from an xml or gzipped xml file one by
+     * one.
+     *
+     * @param path
+     * @param handler
+     * @throws Exception
+     */
+    static void forEachRuleNode(String path, RuleNodeHandler handler) throws Exception {
         File fXmlFile = new File(path);
-        String ls = System.getProperty("line.separator");
         BufferedReader reader;
         if (path.endsWith(".gz")) {
             InputStream fileStream = new FileInputStream(fXmlFile);
@@ -298,8 +317,7 @@ public class GUHASimplifiedParser {
                 Node ruleNode = string2Node(currentRuleTextSB.toString());
                 long time2 = System.nanoTime() - start2;
                 LOGGER.finest(String.format("Took %.3f seconds to read and parse ending on line:" + lineCounter, time2 / 1e9));
-                Rule rule = parseAssociationRule(ruleNode);
-                rules.add(rule);
+                handler.handle(ruleNode);
 
             } else {
                 currentRuleTextSB.append("\n");
@@ -307,7 +325,6 @@ public class GUHASimplifiedParser {
             }
         }
         reader.close();
-        return rules;
     }
 
     private Rule parseAssociationRule(Node rule) throws Exception {
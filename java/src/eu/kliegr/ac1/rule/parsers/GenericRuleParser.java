@@ -20,6 +20,7 @@ package eu.kliegr.ac1.rule.parsers;
 
 import eu.kliegr.ac1.rule.Data;
 import eu.kliegr.ac1.rule.Rule;
+import eu.kliegr.ac1.rule.RuleInt;
 import eu.kliegr.ac1.rule.extend.ExtendRule;
 import eu.kliegr.ac1.rule.extend.ExtendRules;
 import java.io.BufferedWriter;
@@ -30,10 +31,16 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 public class GenericRuleParser {
 
+    /**
+     * Suffix of rule files in the binary model format.
+     */
+    public final static String BINARY_SUFFIX = ".qcbm";
+
     /**
      *
      * @param path
@@ -45,6 +52,9 @@ public class GenericRuleParser {
         if (path.endsWith(".xml") | path.endsWith(".gz")) {
             GUHASimplifiedParser parser = new GUHASimplifiedParser(data);
             return parser.parseFileForRules(path);
+        } else if (path.endsWith(BINARY_SUFFIX)) {
+            BinaryModelParser parser = new BinaryModelParser(data);
+            return parser.parseFileForRules(path);
         } else if (path.endsWith(".arules")) {
             ArulesParser parser = new ArulesParser(data);
 
@@ -54,6 +64,40 @@ public class GenericRuleParser {
         }
     }
 
+    /**
+     * Saves rules in the binary model format if the path ends with .qcbm,
+     * otherwise in the GUHA XML format.
+     *
+     * @param rules
+     * @param path
+     * @throws Exception
+     */
+    public static void saveRules(List<? extends RuleInt> rules, String path) throws Exception {
+        if (path.endsWith(BINARY_SUFFIX)) {
+            BinaryModelWriter.saveRules(rules, path);
+        } else {
+            GUHASimplifiedParser.saveRules(rules, path);
+        }
+    }
+
+    /**
+     * Converts rule model between the GUHA XML format and the binary model
+     * format, the direction is determined by suffix of the source path.
+     *
+     * @param fromPath
+     * @param toPath
+     * @throws Exception
+     */
+    public static void convertModel(String fromPath, String toPath) throws Exception {
+        if (fromPath.endsWith(BINARY_SUFFIX)) {
+            BinaryModelParser.convertToXML(fromPath, toPath);
+        } else if (toPath.endsWith(BINARY_SUFFIX)) {
+            BinaryModelWriter.convertFromXML(fromPath, toPath);
+        } else {
+            throw new UnsupportedOperationException("One of the paths must end with " + BINARY_SUFFIX);
+        }
+    }
+
     private GenericRuleParser() {
     }
 }
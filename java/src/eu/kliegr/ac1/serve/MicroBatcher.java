@@ -0,0 +1,209 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.serve;
+
+import eu.kliegr.ac1.rule.AttributeNotFoundException;
+import eu.kliegr.ac1.rule.CompiledClassifier;
+import eu.kliegr.ac1.rule.StreamingPredictor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces prediction requests submitted concurrently into batches. The first
+ * request of a batch waits at most the latency budget for other requests, the
+ * batch is then scored at once by the compiled classifier the requests were
+ * submitted with. Requests submitted before a model is replaced are therefore
+ * completed with the old model.
+ *
+ * @author tomas
+ */
+class MicroBatcher {
+
+    private final static Logger LOGGER = Logger.getLogger(MicroBatcher.class.getName());
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue();
+    private final String[] columnNames;
+    private final int batchSize;
+    private final long latencyBudgetNanos;
+    private final Thread worker;
+    private List<Request> pending;
+    private long pendingStart;
+    private volatile long batchCount = 0;
+    private volatile long rowCount = 0;
+    private boolean stopped = false;
+
+    /**
+     * Classifier served under a name, replacing a model creates a new
+     * instance.
+     */
+    static class Model {
+
+        final CompiledClassifier classifier;
+        //created and used only by the worker
+        private StreamingPredictor predictor;
+
+        Model(CompiledClassifier classifier) {
+            this.classifier = classifier;
+        }
+    }
+
+    private static class Request {
+
+        final Model model;
+        final String[] values;
+        final CompletableFuture<String> response = new CompletableFuture();
+
+        Request(Model model, String[] values) {
+            this.model = model;
+            this.values = values;
+        }
+    }
+
+    /**
+     *
+     * @param columnNames names of the values in the submitted rows
+     * @param batchSize maximum number of rows in a batch
+     * @param latencyBudgetMicros
+     */
+    MicroBatcher(String[] columnNames, int batchSize, long latencyBudgetMicros) {
+        this.columnNames = columnNames;
+        this.batchSize = batchSize;
+        this.latencyBudgetNanos = TimeUnit.MICROSECONDS.toNanos(latencyBudgetMicros);
+        worker = new Thread(this::run, "qcba-micro-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues the row for scoring.
+     *
+     * @param model
+     * @param values
+     * @return prediction formatted as class label and firing rule id separated
+     * by comma, both are empty if no rule covers the row
+     */
+    synchronized CompletableFuture<String> submit(Model model, String[] values) {
+        if (stopped) {
+            return CompletableFuture.completedFuture("ERROR Service stopped");
+        }
+        Request request = new Request(model, values);
+        queue.add(request);
+        return request.response;
+    }
+
+    /**
+     * Stops the worker after the requests submitted so far are scored.
+     *
+     * @throws InterruptedException
+     */
+    void shutdown() throws InterruptedException {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            //null model marks the end of the queue
+            queue.add(new Request(null, null));
+        }
+        worker.join();
+    }
+
+    long getBatchCount() {
+        return batchCount;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    private void run() {
+        ArrayList<Request> batch = new ArrayList(batchSize);
+        boolean end = false;
+        try {
+            while (!end) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + latencyBudgetNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                end = batch.removeIf((request) -> request.model == null);
+                if (!batch.isEmpty()) {
+                    score(batch);
+                    batchCount++;
+                    rowCount += batch.size();
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Micro batcher interrupted", e);
+        }
+        LOGGER.log(Level.INFO, "Micro batcher stopped after {0} batches", batchCount);
+    }
+
+    private void score(List<Request> batch) {
+        //requests for the same model are scored together, in the order of arrival
+        LinkedHashMap<Model, List<Request>> groups = new LinkedHashMap();
+        for (Request request : batch) {
+            groups.computeIfAbsent(request.model, (m) -> new ArrayList()).add(request);
+        }
+        for (Map.Entry<Model, List<Request>> group : groups.entrySet()) {
+            pending = group.getValue();
+            try {
+                StreamingPredictor predictor = getPredictor(group.getKey());
+                pendingStart = predictor.getRowCount();
+                for (Request request : pending) {
+                    predictor.addRow(request.values);
+                }
+                predictor.flush();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Scoring of batch failed", e);
+                //the predictor may still buffer rows of the failed batch, the next batch gets a new one
+                group.getKey().predictor = null;
+                pending.forEach((request) -> request.response.complete("ERROR " + e.getMessage()));
+            }
+        }
+        pending = null;
+    }
+
+    private StreamingPredictor getPredictor(Model model) throws AttributeNotFoundException {
+        if (model.predictor == null) {
+            CompiledClassifier classifier = model.classifier;
+            model.predictor = new StreamingPredictor(classifier, columnNames, batchSize, (row, classLabel, ruleIndex) -> {
+                Request request = pending.get((int) (row - pendingStart));
+                request.response.complete(ruleIndex >= 0 ? classLabel + "," + classifier.getRule(ruleIndex).getRID() : ",");
+            });
+        }
+        return model.predictor;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Monotonicity Exploiting Association Rule Classification (MARC)
+ *
+ *     Copyright (C)2014-2017 Tomas Kliegr
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as
+ *     published by the Free Software Foundation, either version 3 of the
+ *     License, or (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.kliegr.ac1.serve;
+
+import eu.kliegr.ac1.ServeConfig;
+import eu.kliegr.ac1.data.parsers.CSVparser;
+import eu.kliegr.ac1.rule.AttributeNotFoundException;
+import eu.kliegr.ac1.rule.CompiledClassifier;
+import eu.kliegr.ac1.rule.Data;
+import eu.kliegr.ac1.rule.Rule;
+import eu.kliegr.ac1.rule.RuleIndex;
+import eu.kliegr.ac1.rule.StreamingPredictor;
+import eu.kliegr.ac1.rule.parsers.GenericRuleParser;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Resident prediction service. Models are loaded once and requests are read
+ * line by line either from standard input or from connections to a localhost
+ * port, each request is answered by one line, in the order of the requests:
+ *
+ * <pre>
+ * PREDICT model values   class label and firing rule id separated by comma
+ * LOAD model path        loads or replaces the model, answers OK rule count
+ * UNLOAD model           answers OK
+ * MODELS                 answers OK followed by comma separated model names
+ * QUIT                   ends the session
+ * SHUTDOWN               stops the service
+ * </pre>
+ *
+ * Values of the rows are ordered as the columns of the data file and
+ * separated by the csv separator. The session is opened by the READY line.
+ * Failed requests are answered by ERROR followed by the message.
+ *
+ * @author tomas
+ */
+public class PredictionService {
+
+    private final static Logger LOGGER = Logger.getLogger(PredictionService.class.getName());
+    private final static CompletableFuture<String> END_OF_SESSION = new CompletableFuture();
+
+    private final Data data;
+    private final String[] columnNames;
+    private final Pattern separator;
+    private final Comparator ruleComparator;
+    private final ConcurrentHashMap<String, MicroBatcher.Model> models = new ConcurrentHashMap();
+    private final MicroBatcher batcher;
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap());
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = true;
+    private boolean stopped = false;
+
+    /**
+     * Runs the service configured by the configuration file until it is shut
+     * down.
+     *
+     * @param conf
+     * @throws Exception
+     */
+    public static void runService(ServeConfig conf) throws Exception {
+        setLoggerLevelGlobaly(conf.getLogLevel());
+        Data data = CSVparser.parseFromCSVwithHeader(conf.getDataPath(), conf.getTargetAttribute(), conf.getAttributeType(), conf.getIDcolumnName(), conf.getCSVSeparator());
+        String[] columnNames;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(conf.getDataPath()), StandardCharsets.UTF_8)) {
+            columnNames = StreamingPredictor.tokenize(reader.readLine(), Pattern.compile(conf.getCSVSeparator()));
+        }
+        PredictionService service = new PredictionService(data, columnNames, conf.getCSVSeparator(), conf.getRuleComparator(), conf.getBatchSize(), conf.getLatencyBudgetMicros());
+        for (Map.Entry<String, String> model : conf.getModels().entrySet()) {
+            service.loadModel(model.getKey(), model.getValue());
+        }
+        if (conf.getPort() > 0) {
+            service.serveSocket(conf.getPort());
+        } else {
+            service.serve(System.in, System.out);
+        }
+        service.shutdown();
+    }
+
+    /**
+     *
+     * @param data data defining the attributes, rules are parsed against them
+     * @param columnNames names of the values in the requests
+     * @param separator regular expression separating the values
+     * @param ruleComparator order in which the rules are applied
+     * @param batchSize maximum number of rows scored together
+     * @param latencyBudgetMicros how long the first request of a batch waits
+     * for other requests
+     */
+    public PredictionService(Data data, String[] columnNames, String separator, Comparator ruleComparator, int batchSize, long latencyBudgetMicros) {
+        this.data = data;
+        this.columnNames = columnNames;
+        this.separator = Pattern.compile(separator);
+        this.ruleComparator = ruleComparator;
+        batcher = new MicroBatcher(columnNames, batchSize, latencyBudgetMicros);
+    }
+
+    /**
+     * Loads the model and replaces the model of the same name, requests
+     * already submitted to the replaced model are completed with it.
+     *
+     * @param name
+     * @param path rule file in any format supported by GenericRuleParser
+     * @return number of rules
+     * @throws Exception
+     */
+    public synchronized int loadModel(String name, String path) throws Exception {
+        //parsing adds values to the shared data, loads are therefore serialized
+        ArrayList<Rule> rules = GenericRuleParser.parseFileForRules(path, data);
+        rules.sort(ruleComparator);
+        CompiledClassifier classifier = new RuleIndex(rules);
+        for (int s = 0; s < classifier.getSlotCount(); s++) {
+            if (!Arrays.asList(columnNames).contains(classifier.getSlotName(s))) {
+                throw new AttributeNotFoundException("Attribute " + classifier.getSlotName(s) + " used in rules not found in columns");
+            }
+        }
+        models.put(name, new MicroBatcher.Model(classifier));
+        LOGGER.log(Level.INFO, "Loaded model {0} with {1} rules from {2}", new Object[]{name, rules.size(), path});
+        return rules.size();
+    }
+
+    /**
+     *
+     * @param name
+     * @return false if no such model was loaded
+     */
+    public boolean unloadModel(String name) {
+        return models.remove(name) != null;
+    }
+
+    /**
+     *
+     * @param name
+     * @param values
+     * @return class label and firing rule id separated by comma
+     */
+    public CompletableFuture<String> predict(String name, String[] values) {
+        MicroBatcher.Model model = models.get(name);
+        if (model == null) {
+            return CompletableFuture.completedFuture("ERROR Unknown model " + name);
+        }
+        return batcher.submit(model, values);
+    }
+
+    /**
+     * Serves one session, returns when the input ends or the session is quit.
+     *
+     * @param in
+     * @param out
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        //requests are not waited for, responses are written by another thread in the order of the requests
+        LinkedBlockingQueue<CompletableFuture<String>> responses = new LinkedBlockingQueue();
+        Thread responder = new Thread(() -> writeResponses(responses, writer), "qcba-responder");
+        responder.start();
+        responses.add(CompletableFuture.completedFuture("READY"));
+        try {
+            String line;
+            while (running && (line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("QUIT")) {
+                    responses.add(CompletableFuture.completedFuture("OK"));
+                    break;
+                }
+                responses.add(handle(line));
+            }
+        } finally {
+            responses.add(END_OF_SESSION);
+            responder.join();
+        }
+    }
+
+    /**
+     * Accepts connections on the localhost port until the service is shut
+     * down, each connection is served by its own thread.
+     *
+     * @param port
+     * @throws IOException
+     */
+    public void serveSocket(int port) throws IOException {
+        ExecutorService sessions = Executors.newCachedThreadPool();
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        LOGGER.log(Level.INFO, "Listening on port {0}", serverSocket.getLocalPort());
+        try {
+            while (running) {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                sessions.submit(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (IOException | InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Session failed", e);
+                    } finally {
+                        sockets.remove(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            //the server socket was closed by shutdown
+            if (running) {
+                throw e;
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting requests, requests submitted before are answered.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            //sessions end after answering the requests read so far
+            for (Socket socket : sockets) {
+                socket.shutdownInput();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Closing connections failed", e);
+        }
+        batcher.shutdown();
+        LOGGER.log(Level.INFO, "Service stopped, scored {0} rows in {1} batches", new Object[]{batcher.getRowCount(), batcher.getBatchCount()});
+    }
+
+    private CompletableFuture<String> handle(String line) {
+        String[] request = line.split("\\s+", 3);
+        try {
+            switch (request[0]) {
+                case "PREDICT":
+                    return predict(request[1], request.length > 2 ? StreamingPredictor.tokenize(request[2], separator) : new String[0]);
+                case "LOAD":
+                    return CompletableFuture.completedFuture("OK " + loadModel(request[1], request[2]));
+                case "UNLOAD":
+                    return CompletableFuture.completedFuture(unloadModel(request[1]) ? "OK" : "ERROR Unknown model " + request[1]);
+                case "MODELS":
+                    return CompletableFuture.completedFuture("OK " + String.join(",", models.keySet()));
+                case "SHUTDOWN":
+                    shutdown();
+                    return CompletableFuture.completedFuture("OK");
+                default:
+                    return CompletableFuture.completedFuture("ERROR Unknown request " + request[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return CompletableFuture.completedFuture("ERROR Missing arguments of " + request[0]);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Request failed", e);
+            return CompletableFuture.completedFuture("ERROR " + e.getMessage());
+        }
+    }
+
+    private static void writeResponses(LinkedBlockingQueue<CompletableFuture<String>> responses, BufferedWriter writer) {
+        try {
+            CompletableFuture<String> response;
+            while ((response = responses.take()) != END_OF_SESSION) {
+                if (!response.isDone()) {
+                    //do not hold back responses which are ready while waiting for the batch
+                    writer.flush();
+                }
+                writer.write(response.get());
+                writer.write('\n');
+                if (responses.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            LOGGER.log(Level.WARNING, "Writing responses failed", e);
+        }
+    }
+
+    private static void setLoggerLevelGlobaly(Level level) {
+        Logger rootLogger = LogManager.getLogManager().getLogger("");
+        rootLogger.setLevel(level);
+        for (Handler h : rootLogger.getHandlers()) {
+            h.setLevel(level);
+        }
+    }
+}